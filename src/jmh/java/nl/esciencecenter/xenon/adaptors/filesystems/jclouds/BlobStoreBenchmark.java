@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * Base class of the benchmarks of {@link JCloudsFileSytem}. The file system is backed by the in-memory 'transient' blob store of jclouds, with an
+ * optional simulated latency for every request to the store.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public abstract class BlobStoreBenchmark {
+
+    static final String BUCKET = "benchmark";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Simulated latency of every request to the blob store in microseconds. */
+    @Param({ "0", "2000" })
+    public long latencyMicros;
+
+    BlobStoreContext context;
+
+    // Direct access to the store, without the simulated latency, to prepare the benchmarks
+    BlobStore store;
+
+    JCloudsFileSytem fileSystem;
+
+    @Setup(Level.Trial)
+    public void openFileSystem() throws Exception {
+        context = ContextBuilder.newBuilder("transient").buildView(BlobStoreContext.class);
+        store = context.getBlobStore();
+        store.createContainerInLocation(null, BUCKET);
+
+        fileSystem = new JCloudsFileSytem("benchmark", "transient", "transient", new DefaultCredential(), new Path("/"), withLatency(context, latencyMicros),
+                BUCKET, BUFFER_SIZE, new XenonProperties());
+
+        populate();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeFileSystem() throws XenonException {
+        fileSystem.close();
+    }
+
+    /**
+     * Create the files needed by the benchmark.
+     *
+     * @throws Exception
+     *             if the files could not be created
+     */
+    abstract void populate() throws Exception;
+
+    void putBlob(String name, byte[] content) {
+        store.putBlob(BUCKET, store.blobBuilder(name).payload(new ByteArrayInputStream(content)).contentLength(content.length).build());
+    }
+
+    // Wrap the context so every request to its blob store, except building blobs, is delayed by the given latency.
+    static BlobStoreContext withLatency(BlobStoreContext context, long micros) {
+        if (micros <= 0) {
+            return context;
+        }
+
+        BlobStore delegate = context.getBlobStore();
+
+        BlobStore store = (BlobStore) Proxy.newProxyInstance(BlobStore.class.getClassLoader(), new Class<?>[] { BlobStore.class }, (proxy, method, args) -> {
+            if (!method.getName().equals("blobBuilder") && !method.getName().equals("getContext")) {
+                TimeUnit.MICROSECONDS.sleep(micros);
+            }
+            return invoke(method, delegate, args);
+        });
+
+        return (BlobStoreContext) Proxy.newProxyInstance(BlobStoreContext.class.getClassLoader(), new Class<?>[] { BlobStoreContext.class },
+                (proxy, method, args) -> method.getName().equals("getBlobStore") ? store : invoke(method, context, args));
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.blobstore.options.ListContainerOptions;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * Measures creating and deleting empty files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CreateDeleteBenchmark extends BlobStoreBenchmark {
+
+    private static final Path DELETED = new Path("/delete/file");
+
+    private final AtomicLong created = new AtomicLong();
+
+    @Override
+    void populate() throws XenonException {
+        fileSystem.createDirectory(new Path("/create"));
+        fileSystem.createDirectory(new Path("/delete"));
+    }
+
+    // Putting the file to delete directly in the in-memory store is short compared to a request, but is included in the timing of every invocation.
+    @Setup(Level.Invocation)
+    public void createFileToDelete() {
+        putBlob("delete/file", new byte[0]);
+    }
+
+    // Empty the directory after every iteration, so later iterations do not create files in an ever larger directory.
+    @TearDown(Level.Iteration)
+    public void removeCreatedFiles() throws XenonException {
+        store.clearContainer(BUCKET, ListContainerOptions.Builder.inDirectory("create").recursive());
+        fileSystem.createDirectory(new Path("/create"));
+    }
+
+    @Benchmark
+    public void createFile() throws XenonException {
+        fileSystem.createFile(new Path("/create/file" + created.incrementAndGet()));
+    }
+
+    @Benchmark
+    public void deleteFile() throws XenonException {
+        fileSystem.deleteFile(DELETED);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/**
+ * Measures the time to list a directory, both flat and recursively. The recursive listing spreads the same number of files over a number of
+ * subdirectories.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ListBenchmark extends BlobStoreBenchmark {
+
+    private static final int DIRECTORIES = 16;
+
+    @Param({ "100", "10000" })
+    public int files;
+
+    @Override
+    void populate() throws XenonException {
+        fileSystem.createDirectory(new Path("/flat"));
+        fileSystem.createDirectory(new Path("/tree"));
+
+        byte[] empty = new byte[0];
+
+        for (int i = 0; i < files; i++) {
+            putBlob("flat/file" + i, empty);
+            putBlob("tree/dir" + (i % DIRECTORIES) + "/file" + i, empty);
+        }
+    }
+
+    private int count(Path dir, boolean recursive) throws XenonException {
+        int count = 0;
+
+        for (PathAttributes attributes : fileSystem.list(dir, recursive)) {
+            if (attributes.isRegular()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int listFlat() throws XenonException {
+        return count(new Path("/flat"), false);
+    }
+
+    @Benchmark
+    public int listRecursive() throws XenonException {
+        return count(new Path("/tree"), true);
+    }
+}
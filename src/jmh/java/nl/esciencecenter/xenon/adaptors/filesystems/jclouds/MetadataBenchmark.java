@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/**
+ * Measures getting the attributes and checking the existence of single files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetadataBenchmark extends BlobStoreBenchmark {
+
+    private static final Path FILE = new Path("/meta/file");
+
+    private static final Path MISSING = new Path("/meta/missing");
+
+    @Override
+    void populate() throws XenonException {
+        fileSystem.createDirectory(new Path("/meta"));
+        fileSystem.createFile(FILE);
+    }
+
+    @Benchmark
+    public PathAttributes getAttributes() throws XenonException {
+        return fileSystem.getAttributes(FILE);
+    }
+
+    @Benchmark
+    public boolean exists() throws XenonException {
+        return fileSystem.exists(FILE);
+    }
+
+    @Benchmark
+    public boolean existsMissing() throws XenonException {
+        return fileSystem.exists(MISSING);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.TearDown;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * Measures the time to read and write a complete file at several sizes. The throughput in bytes per second is the size divided by the reported
+ * time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReadWriteBenchmark extends BlobStoreBenchmark {
+
+    private static final Path READ = new Path("/data/read");
+
+    private static final Path WRITE = new Path("/data/write");
+
+    // The background put has no future to join, so waiting for it is bounded in case it fails.
+    private static final long WRITE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    @Param({ "1024", "1048576", "16777216" })
+    public int size;
+
+    private byte[] content;
+
+    @Override
+    void populate() throws XenonException {
+        content = new byte[size];
+        new Random(42).nextBytes(content);
+
+        fileSystem.createDirectory(new Path("/data"));
+        putBlob("data/read", content);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteWrittenFile() {
+        store.removeBlob(BUCKET, "data/write");
+    }
+
+    @Benchmark
+    public long read() throws XenonException, IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+
+        try (InputStream in = fileSystem.readFromFile(READ)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public void write() throws XenonException, IOException {
+        try (OutputStream out = fileSystem.writeToFile(WRITE, size)) {
+            for (int offset = 0; offset < size; offset += BUFFER_SIZE) {
+                out.write(content, offset, Math.min(BUFFER_SIZE, size - offset));
+            }
+        }
+
+        // The blob is stored by a background thread after the stream is closed, which is part of the time to write it.
+        long deadline = System.nanoTime() + WRITE_TIMEOUT_NANOS;
+        while (!store.blobExists(BUCKET, "data/write")) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new IllegalStateException("Written file was not stored within " + TimeUnit.NANOSECONDS.toSeconds(WRITE_TIMEOUT_NANOS) + " seconds");
+            }
+            Thread.yield();
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package nl.esciencecenter.xenon.adaptors.filesystems.azure;
 
 import java.net.URI;
+import java.util.List;
 import java.util.Map;
 
 import org.jclouds.ContextBuilder;
@@ -29,7 +30,9 @@ import nl.esciencecenter.xenon.XenonPropertyDescription;
 import nl.esciencecenter.xenon.XenonPropertyDescription.Type;
 import nl.esciencecenter.xenon.adaptors.XenonProperties;
 import nl.esciencecenter.xenon.adaptors.filesystems.FileAdaptor;
+import nl.esciencecenter.xenon.adaptors.filesystems.jclouds.AdaptiveConcurrencyLimiter;
 import nl.esciencecenter.xenon.adaptors.filesystems.jclouds.JCloudsFileSytem;
+import nl.esciencecenter.xenon.adaptors.filesystems.jclouds.ThrottleRetryModules;
 import nl.esciencecenter.xenon.credentials.Credential;
 import nl.esciencecenter.xenon.credentials.PasswordCredential;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
@@ -49,12 +52,22 @@ public class AzureFileAdaptor extends FileAdaptor {
     /** The buffer size to use when copying data. */
     public static final String BUFFER_SIZE = PREFIX + "bufferSize";
 
+    /** The number of concurrent requests per top-level prefix before the adaptive limit has adjusted itself. */
+    public static final String INITIAL_CONCURRENCY = PREFIX + "concurrency.initial";
+
+    /** The upper bound of the adaptive number of concurrent requests per top-level prefix. */
+    public static final String MAX_CONCURRENCY = PREFIX + "concurrency.max";
+
     /** The locations supported by this adaptor */
     private static final String[] ADAPTOR_LOCATIONS = new String[] { "http[s]://<account-name>.blob.core.windows.net/<container>[/workdir]" };
 
     /** List of properties supported by this Azure adaptor */
     private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
-            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes).") };
+            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes)."),
+            new XenonPropertyDescription(INITIAL_CONCURRENCY, Type.INTEGER, String.valueOf(JCloudsFileSytem.DEFAULT_INITIAL_CONCURRENCY),
+                    "The initial number of concurrent requests per top-level prefix, adjusted when the store throttles requests."),
+            new XenonPropertyDescription(MAX_CONCURRENCY, Type.INTEGER, String.valueOf(JCloudsFileSytem.DEFAULT_MAX_CONCURRENCY),
+                    "The maximum number of concurrent requests per top-level prefix.") };
 
     public AzureFileAdaptor() {
         super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
@@ -106,6 +119,14 @@ public class AzureFileAdaptor extends FileAdaptor {
                     "Invalid value for " + BUFFER_SIZE + ": " + bufferSize + " (must be between 1 and " + Integer.MAX_VALUE + ")");
         }
 
+        int initialConcurrency = xp.getIntegerProperty(INITIAL_CONCURRENCY);
+        int maxConcurrency = xp.getIntegerProperty(MAX_CONCURRENCY);
+
+        if (initialConcurrency < 1 || maxConcurrency < initialConcurrency) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + INITIAL_CONCURRENCY + " or " + MAX_CONCURRENCY + ": " + initialConcurrency
+                    + ", " + maxConcurrency + " (must satisfy 1 <= initial <= max)");
+        }
+
         String server = null;
         String bucket = null;
         String bucketPath = null;
@@ -146,9 +167,10 @@ public class AzureFileAdaptor extends FileAdaptor {
         PasswordCredential pwUser = (PasswordCredential) credential;
 
         BlobStoreContext context = ContextBuilder.newBuilder("azureblob").endpoint(server).credentials(pwUser.getUsername(), new String(pwUser.getPassword()))
-                .buildView(BlobStoreContext.class);
+                .modules(List.of(new ThrottleRetryModules.AzureBlob())).buildView(BlobStoreContext.class);
 
-        return new JCloudsFileSytem(getNewUniqueID(), ADAPTOR_NAME, server, credential, path, context, bucket, (int) bufferSize, xp);
+        return new JCloudsFileSytem(getNewUniqueID(), ADAPTOR_NAME, server, credential, path, context, bucket, (int) bufferSize, xp,
+                new AdaptiveConcurrencyLimiter(initialConcurrency, maxConcurrency));
     }
 
     @Override
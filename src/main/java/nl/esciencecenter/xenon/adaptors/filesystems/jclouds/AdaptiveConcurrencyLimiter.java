@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+
+/**
+ * Client side AIMD (additive increase, multiplicative decrease) concurrency limiter for blob store requests.
+ *
+ * Object stores such as S3 throttle per key prefix (503 SlowDown). For every top-level prefix this limiter keeps a concurrency limit, which grows by
+ * roughly one request per round trip while requests succeed and is cut by {@link #BACKOFF_RATIO} when the store answers with a throttling response.
+ * Only the first throttling response of a window causes a decrease, requests that were already in flight when the limit was lowered are ignored, so
+ * the limit settles just below what the store can sustain instead of collapsing.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /** Factor applied to the limit when a request was throttled. */
+    static final double BACKOFF_RATIO = 0.75;
+
+    /** Number of times a throttled idempotent request is retried before the error is passed on. */
+    static final int MAX_THROTTLE_RETRIES = 5;
+
+    private static final long BASE_BACKOFF_MILLIS = 50;
+
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    private final int initialLimit;
+
+    private final int maxLimit;
+
+    private final ConcurrentMap<String, PrefixLimit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * @param initialLimit number of concurrent requests allowed per prefix before any feedback was received
+     * @param maxLimit upper bound for the number of concurrent requests per prefix
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit) {
+        if (initialLimit < 1 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= initialLimit <= maxLimit");
+        }
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Determine the key under which a bucket entry is limited, which is its first path element.
+     *
+     * @param bucketEntry entry name relative to the bucket
+     * @return the top-level prefix of the entry, or an empty string for entries in the root of the bucket
+     */
+    static String prefixOf(String bucketEntry) {
+        int split = bucketEntry.indexOf('/');
+        return split < 0 ? "" : bucketEntry.substring(0, split);
+    }
+
+    /**
+     * Test if a response of the blob store asks to slow down.
+     *
+     * @param response the response to test
+     * @return if the response is a throttling response
+     */
+    static boolean isThrottled(HttpResponse response) {
+        return response != null && (response.getStatusCode() == 429 || response.getStatusCode() == 503);
+    }
+
+    /**
+     * Test if the exception (or one of its causes) is a throttling response of the blob store.
+     *
+     * @param e the exception to test
+     * @return if the store asked us to slow down
+     */
+    static boolean isThrottled(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof HttpResponseException) {
+                if (isThrottled(((HttpResponseException) t).getResponse())) {
+                    return true;
+                }
+            }
+            if (t.getCause() == t) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run a request against the blob store within the limit of its prefix.
+     *
+     * @param prefix the prefix returned by {@link #prefixOf(String)}
+     * @param request the request to run
+     * @param idempotent if the request may be repeated after a throttling response
+     * @param <T> the result type of the request
+     * @return the result of the request
+     */
+    public <T> T call(String prefix, Supplier<T> request, boolean idempotent) {
+        PrefixLimit limit = limits.computeIfAbsent(prefix, p -> new PrefixLimit(initialLimit));
+
+        for (int attempt = 0;; attempt++) {
+            long ticket = limit.acquire();
+            boolean accounted = false;
+            try {
+                T result = request.get();
+                limit.succeeded(maxLimit);
+                accounted = true;
+                return result;
+            } catch (RuntimeException e) {
+                if (!isThrottled(e)) {
+                    throw e;
+                }
+                limit.throttled(ticket);
+                accounted = true;
+                if (!idempotent || attempt >= MAX_THROTTLE_RETRIES || !backoff(attempt)) {
+                    throw e;
+                }
+            } finally {
+                if (!accounted) {
+                    // any other failure, including errors, gives back the slot without feedback
+                    limit.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a request without result within the limit of its prefix.
+     *
+     * @param prefix the prefix returned by {@link #prefixOf(String)}
+     * @param request the request to run
+     * @param idempotent if the request may be repeated after a throttling response
+     */
+    public void run(String prefix, Runnable request, boolean idempotent) {
+        call(prefix, () -> {
+            request.run();
+            return null;
+        }, idempotent);
+    }
+
+    /**
+     * @param prefix the prefix returned by {@link #prefixOf(String)}
+     * @return the current concurrency limit of the prefix
+     */
+    public double getLimit(String prefix) {
+        PrefixLimit limit = limits.get(prefix);
+        return limit == null ? initialLimit : limit.getLimit();
+    }
+
+    // Sleep with full jitter exponential backoff, returns false if interrupted.
+    private static boolean backoff(int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << attempt);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static final class PrefixLimit {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+
+        private double limit;
+        private int inFlight;
+
+        // Sequence number of the last issued request and the last request issued before the limit was lowered.
+        private long issued;
+        private long lastDecrease;
+
+        PrefixLimit(int initialLimit) {
+            this.limit = initialLimit;
+        }
+
+        long acquire() {
+            lock.lock();
+            try {
+                while (inFlight >= (int) limit) {
+                    available.awaitUninterruptibly();
+                }
+                inFlight++;
+                return ++issued;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inFlight--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void succeeded(int maxLimit) {
+            lock.lock();
+            try {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+                inFlight--;
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void throttled(long ticket) {
+            lock.lock();
+            try {
+                if (ticket > lastDecrease) {
+                    limit = Math.max(1.0, limit * BACKOFF_RATIO);
+                    lastDecrease = issued;
+                }
+                inFlight--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        double getLimit() {
+            lock.lock();
+            try {
+                return limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
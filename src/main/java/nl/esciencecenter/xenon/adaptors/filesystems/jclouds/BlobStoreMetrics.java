@@ -0,0 +1,302 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.jclouds.http.HttpResponseException;
+
+/**
+ * Counters, transferred bytes, errors and latency histograms of the requests a {@link JCloudsFileSytem} sends to its blob store.
+ *
+ * Every request is counted, including the ones done implicitly such as directory placeholder checks, and every retry of a throttled request. All
+ * updates are lock free.
+ */
+public class BlobStoreMetrics implements BlobStoreMetricsMXBean {
+
+    /** The types of requests sent to a blob store. */
+    public enum Operation {
+        /** A page of a container listing. */
+        LIST,
+        /** A metadata or existence request for a blob or container. */
+        HEAD,
+        /** A download of a blob. */
+        GET,
+        /** An upload of a blob. */
+        PUT,
+        /** A removal of a blob. */
+        DELETE
+    }
+
+    /** Statistics of one type of request at the time of a snapshot. Latencies are in microseconds. */
+    public static final class OperationStatistics {
+
+        private final long requests;
+        private final long errors;
+        private final long bytes;
+        private final long meanLatency;
+        private final long p50Latency;
+        private final long p90Latency;
+        private final long p99Latency;
+        private final long maxLatency;
+
+        OperationStatistics(long requests, long errors, long bytes, LatencyHistogram latency) {
+            this.requests = requests;
+            this.errors = errors;
+            this.bytes = bytes;
+            this.meanLatency = latency.getMean();
+            this.p50Latency = latency.getPercentile(50);
+            this.p90Latency = latency.getPercentile(90);
+            this.p99Latency = latency.getPercentile(99);
+            this.maxLatency = latency.getMax();
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMeanLatency() {
+            return meanLatency;
+        }
+
+        public long getP50Latency() {
+            return p50Latency;
+        }
+
+        public long getP90Latency() {
+            return p90Latency;
+        }
+
+        public long getP99Latency() {
+            return p99Latency;
+        }
+
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "[requests=" + requests + ", errors=" + errors + ", bytes=" + bytes + ", mean=" + meanLatency + "us, p50=" + p50Latency + "us, p90="
+                    + p90Latency + "us, p99=" + p99Latency + "us, max=" + maxLatency + "us]";
+        }
+    }
+
+    /** The state of all metrics at one moment. */
+    public static final class Snapshot {
+
+        private final Map<Operation, OperationStatistics> operations;
+        private final Map<String, Long> errorsByType;
+
+        Snapshot(Map<Operation, OperationStatistics> operations, Map<String, Long> errorsByType) {
+            this.operations = Collections.unmodifiableMap(operations);
+            this.errorsByType = Collections.unmodifiableMap(errorsByType);
+        }
+
+        public OperationStatistics get(Operation operation) {
+            return operations.get(operation);
+        }
+
+        public Map<Operation, OperationStatistics> getOperations() {
+            return operations;
+        }
+
+        public Map<String, Long> getErrorsByType() {
+            return errorsByType;
+        }
+
+        /** @return the total number of requests of all types */
+        public long getTotalRequests() {
+            return operations.values().stream().mapToLong(OperationStatistics::getRequests).sum();
+        }
+
+        /**
+         * Determine how many requests of each type were sent since an earlier snapshot, for example to see which requests a single call caused.
+         *
+         * @param earlier a snapshot taken earlier from the same metrics
+         * @return the number of requests per type sent in between
+         */
+        public Map<Operation, Long> requestsSince(Snapshot earlier) {
+            Map<Operation, Long> result = new EnumMap<>(Operation.class);
+            for (Operation op : Operation.values()) {
+                result.put(op, get(op).getRequests() - earlier.get(op).getRequests());
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot " + operations + " errors " + errorsByType;
+        }
+    }
+
+    private final Map<Operation, LongAdder> requests = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> bytes = new EnumMap<>(Operation.class);
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final ConcurrentMap<String, LongAdder> errorsByType = new ConcurrentHashMap<>();
+
+    public BlobStoreMetrics() {
+        // The maps are filled once and only read afterwards, so they are safe to share between threads.
+        for (Operation op : Operation.values()) {
+            requests.put(op, new LongAdder());
+            errors.put(op, new LongAdder());
+            bytes.put(op, new LongAdder());
+            latencies.put(op, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Run a request and record its outcome.
+     *
+     * @param operation the type of the request
+     * @param size the number of bytes uploaded by the request
+     * @param request the request to run
+     * @param <T> the result type of the request
+     * @return the result of the request
+     */
+    <T> T record(Operation operation, long size, Supplier<T> request) {
+        long start = System.nanoTime();
+        try {
+            T result = request.get();
+            bytes.get(operation).add(size);
+            return result;
+        } catch (RuntimeException e) {
+            errors.get(operation).increment();
+            errorsByType.computeIfAbsent(errorType(e), k -> new LongAdder()).increment();
+            throw e;
+        } finally {
+            requests.get(operation).increment();
+            latencies.get(operation).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Wrap the content stream of a download, so the bytes read from it are counted.
+     *
+     * @param in the stream to count
+     * @return the counting stream
+     */
+    InputStream countDownload(InputStream in) {
+        final LongAdder counter = bytes.get(Operation.GET);
+
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    counter.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0) {
+                    counter.add(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    static String errorType(Throwable e) {
+        if (e instanceof HttpResponseException && ((HttpResponseException) e).getResponse() != null) {
+            return e.getClass().getSimpleName() + "(" + ((HttpResponseException) e).getResponse().getStatusCode() + ")";
+        }
+        return e.getClass().getSimpleName();
+    }
+
+    /** @return the current values of all metrics */
+    public Snapshot snapshot() {
+        Map<Operation, OperationStatistics> operations = new EnumMap<>(Operation.class);
+        for (Operation op : Operation.values()) {
+            operations.put(op, new OperationStatistics(requests.get(op).sum(), errors.get(op).sum(), bytes.get(op).sum(), latencies.get(op)));
+        }
+        Map<String, Long> types = new TreeMap<>();
+        errorsByType.forEach((k, v) -> types.put(k, v.sum()));
+        return new Snapshot(operations, types);
+    }
+
+    private static Map<String, Long> byOperation(Function<Operation, Long> value) {
+        Map<String, Long> result = new TreeMap<>();
+        for (Operation op : Operation.values()) {
+            result.put(op.name(), value.apply(op));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getRequests() {
+        return byOperation(op -> requests.get(op).sum());
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        return byOperation(op -> errors.get(op).sum());
+    }
+
+    @Override
+    public Map<String, Long> getBytes() {
+        return byOperation(op -> bytes.get(op).sum());
+    }
+
+    @Override
+    public Map<String, Long> getMeanLatency() {
+        return byOperation(op -> latencies.get(op).getMean());
+    }
+
+    @Override
+    public Map<String, Long> getP50Latency() {
+        return byOperation(op -> latencies.get(op).getPercentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getP99Latency() {
+        return byOperation(op -> latencies.get(op).getPercentile(99));
+    }
+
+    @Override
+    public Map<String, Long> getMaxLatency() {
+        return byOperation(op -> latencies.get(op).getMax());
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByType() {
+        return snapshot().getErrorsByType();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link BlobStoreMetrics} of a blob file system. All maps are keyed by operation name (LIST, HEAD, GET, PUT, DELETE), latencies are in
+ * microseconds.
+ */
+public interface BlobStoreMetricsMXBean {
+
+    Map<String, Long> getRequests();
+
+    Map<String, Long> getErrors();
+
+    Map<String, Long> getBytes();
+
+    Map<String, Long> getMeanLatency();
+
+    Map<String, Long> getP50Latency();
+
+    Map<String, Long> getP99Latency();
+
+    Map<String, Long> getMaxLatency();
+
+    /**
+     * @return number of failed requests keyed by exception type, with the HTTP status code for HTTP errors
+     */
+    Map<String, Long> getErrorsByType();
+}
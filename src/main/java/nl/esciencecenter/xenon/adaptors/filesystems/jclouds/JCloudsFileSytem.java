@@ -16,17 +16,23 @@
 package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayDeque;
 import java.util.Date;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
@@ -40,6 +46,7 @@ import nl.esciencecenter.xenon.UnsupportedOperationException;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.NotConnectedException;
 import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.adaptors.filesystems.jclouds.BlobStoreMetrics.Operation;
 import nl.esciencecenter.xenon.adaptors.filesystems.PathAttributesImplementation;
 import nl.esciencecenter.xenon.credentials.Credential;
 import nl.esciencecenter.xenon.filesystems.AttributeNotSupportedException;
@@ -57,21 +64,43 @@ public class JCloudsFileSytem extends FileSystem {
 
     private static final String NOT_EMPTY = "___not__empty___";
 
+    /** Default number of concurrent requests per top-level prefix. */
+    public static final int DEFAULT_INITIAL_CONCURRENCY = 16;
+
+    /** Default upper bound on the number of concurrent requests per top-level prefix. */
+    public static final int DEFAULT_MAX_CONCURRENCY = 256;
+
     final String bucket;
     final BlobStoreContext context;
     final String adaptorName;
+    final AdaptiveConcurrencyLimiter limiter;
+    final BlobStoreMetrics metrics;
+    final ObjectName metricsName;
 
     boolean open;
 
     public JCloudsFileSytem(String uniqueID, String adaptorName, String endPoint, Credential credential, Path workingDir, BlobStoreContext context,
             String bucket, int bufferSize, XenonProperties properties) {
+        this(uniqueID, adaptorName, endPoint, credential, workingDir, context, bucket, bufferSize, properties,
+                new AdaptiveConcurrencyLimiter(DEFAULT_INITIAL_CONCURRENCY, DEFAULT_MAX_CONCURRENCY));
+    }
+
+    public JCloudsFileSytem(String uniqueID, String adaptorName, String endPoint, Credential credential, Path workingDir, BlobStoreContext context,
+            String bucket, int bufferSize, XenonProperties properties, AdaptiveConcurrencyLimiter limiter) {
         super(uniqueID, adaptorName, endPoint, credential, workingDir, bufferSize, properties);
         this.context = context;
         this.bucket = bucket;
         this.adaptorName = adaptorName;
+        this.limiter = limiter;
+        this.metrics = new BlobStoreMetrics();
+        this.metricsName = registerMetrics(uniqueID, adaptorName, bucket, metrics);
         this.open = true;
     }
 
+    Path absolutePath(Path path) {
+        return toAbsolutePath(path);
+    }
+
     String toBucketEntry(Path path) {
 
         assertNotNull(path);
@@ -87,6 +116,7 @@ public class JCloudsFileSytem extends FileSystem {
     public void close() throws XenonException {
         checkClosed();
         context.close();
+        unregisterMetrics();
         open = false;
     }
 
@@ -106,6 +136,134 @@ public class JCloudsFileSytem extends FileSystem {
         }
     }
 
+    // All requests to the blob store go through the methods below, so they are subject to the per prefix concurrency limit and are counted in the
+    // metrics. A retried request is counted once for every attempt.
+
+    private <T> T request(Operation operation, String name, long size, boolean idempotent, Supplier<T> request) {
+        return limiter.call(AdaptiveConcurrencyLimiter.prefixOf(name), () -> metrics.record(operation, size, request), idempotent);
+    }
+
+    boolean containerExists() {
+        return request(Operation.HEAD, "", 0, true, () -> context.getBlobStore().containerExists(bucket));
+    }
+
+    PageSet<? extends StorageMetadata> listPage(ListContainerOptions options) {
+        String prefix = options.getPrefix() == null ? "" : options.getPrefix();
+        return request(Operation.LIST, prefix, 0, true, () -> context.getBlobStore().list(bucket, options));
+    }
+
+    boolean blobExists(String name) {
+        return request(Operation.HEAD, name, 0, true, () -> context.getBlobStore().blobExists(bucket, name));
+    }
+
+    BlobMetadata blobMetadata(String name) {
+        return request(Operation.HEAD, name, 0, true, () -> context.getBlobStore().blobMetadata(bucket, name));
+    }
+
+    Blob getBlob(String name) {
+        return request(Operation.GET, name, 0, true, () -> context.getBlobStore().getBlob(bucket, name));
+    }
+
+    // Open the content of a blob, counting the bytes read from it as downloaded.
+    InputStream openBlob(String name) throws IOException {
+        Blob blob = getBlob(name);
+        if (blob == null) {
+            throw new IOException("Blob does not exist: " + name);
+        }
+        return metrics.countDownload(blob.getPayload().openStream());
+    }
+
+    void removeBlob(String name) {
+        request(Operation.DELETE, name, 0, true, () -> {
+            context.getBlobStore().removeBlob(bucket, name);
+            return null;
+        });
+    }
+
+    void putEmptyBlob(String name) {
+        // The blob is rebuilt for every attempt, as its payload can only be consumed once.
+        request(Operation.PUT, name, 0, true, () -> {
+            Blob b = context.getBlobStore().blobBuilder(bucket).name(name).payload(new ByteArrayInputStream(new byte[0])).contentLength(0).build();
+            return context.getBlobStore().putBlob(bucket, b);
+        });
+    }
+
+    void putBlob(Blob blob, long size) {
+        // The payload of a streaming blob can not be replayed, so it is not retried.
+        request(Operation.PUT, blob.getMetadata().getName(), size, false, () -> context.getBlobStore().putBlob(bucket, blob));
+    }
+
+    void putFile(String name, File file) {
+        request(Operation.PUT, name, file.length(), true, () -> {
+            Blob b = context.getBlobStore().blobBuilder(bucket).name(name).payload(file).contentLength(file.length()).build();
+            return context.getBlobStore().putBlob(bucket, b);
+        });
+    }
+
+    /**
+     * Get the metrics of the requests sent to the blob store by this file system. The same metrics are available through JMX as long as the file
+     * system is open.
+     *
+     * @return the metrics of this file system
+     */
+    public BlobStoreMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static ObjectName registerMetrics(String uniqueID, String adaptorName, String bucket, BlobStoreMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName("nl.esciencecenter.xenon.adaptors:type=BlobStoreMetrics,adaptor=" + ObjectName.quote(adaptorName) + ",bucket="
+                    + ObjectName.quote(bucket) + ",id=" + ObjectName.quote(uniqueID));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException | SecurityException e) {
+            // Metrics remain available through getMetrics()
+            return null;
+        }
+    }
+
+    private void unregisterMetrics() {
+        if (metricsName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException | SecurityException e) {
+            // Already gone
+        }
+    }
+
+    // Iterate over the raw metadata of all blobs below a prefix, without the HEAD request per blob done by getAttributes or list.
+    Iterator<StorageMetadata> listBlobs(String prefix) {
+        final ListContainerOptions options = new ListContainerOptions().prefix(prefix).recursive();
+
+        return new Iterator<StorageMetadata>() {
+            PageSet<? extends StorageMetadata> page = listPage(options);
+            Iterator<? extends StorageMetadata> it = page.iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!it.hasNext() && page.getNextMarker() != null) {
+                    page = listPage(options.afterMarker(page.getNextMarker()));
+                    it = page.iterator();
+                }
+                return it.hasNext();
+            }
+
+            @Override
+            public StorageMetadata next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more elements");
+                }
+                return it.next();
+            }
+        };
+    }
+
+    static boolean isDirectoryPlaceholder(String name) {
+        return name.endsWith(NOT_EMPTY);
+    }
+
     @Override
     public void createDirectory(Path dir) throws XenonException {
         checkClosed();
@@ -119,20 +277,22 @@ public class JCloudsFileSytem extends FileSystem {
     }
 
     // Simulate creating an empty directory by creating a bucket entry with the name "dir/___not__empty___"
-    private void makeDirectoryPlaceholder(Path dir) {
-        Blob b = context.getBlobStore().blobBuilder(bucket).name(toBucketEntry(dir) + "/" + NOT_EMPTY).payload(new ByteArrayInputStream(new byte[] {}))
-                .contentLength(0).build();
-        context.getBlobStore().putBlob(bucket, b);
+    void makeDirectoryPlaceholder(Path dir) {
+        makeDirectoryPlaceholder(toBucketEntry(dir));
+    }
+
+    void makeDirectoryPlaceholder(String bucketEntry) {
+        putEmptyBlob(bucketEntry + "/" + NOT_EMPTY);
     }
 
     // Remove a simulated directory
-    private void removeDirectoryPlaceholder(Path dir) {
+    void removeDirectoryPlaceholder(Path dir) {
         if (dir == null) {
             return;
         }
         String existsFile = toBucketEntry(dir) + "/" + NOT_EMPTY;
-        if (context.getBlobStore().blobExists(bucket, existsFile)) {
-            context.getBlobStore().removeBlob(bucket, existsFile);
+        if (blobExists(existsFile)) {
+            removeBlob(existsFile);
         }
     }
 
@@ -149,9 +309,7 @@ public class JCloudsFileSytem extends FileSystem {
         removeDirectoryPlaceholder(absFile.getParent());
 
         // Create an empty file by adding an empty blob in the bucket.
-        InputStream emtpy = new ByteArrayInputStream(new byte[0]);
-        final Blob b = context.getBlobStore().blobBuilder(bucket).name(toBucketEntry(absFile)).payload(emtpy).contentLength(0).build();
-        context.getBlobStore().putBlob(bucket, b);
+        putEmptyBlob(toBucketEntry(absFile));
     }
 
     @Override
@@ -172,7 +330,7 @@ public class JCloudsFileSytem extends FileSystem {
 
         Path absFile = toAbsolutePath(file);
 
-        context.getBlobStore().removeBlob(bucket, toBucketEntry(absFile));
+        removeBlob(toBucketEntry(absFile));
 
         // Ensure that the parent directory remains after the last file is deleted by inserting a placeholder.
         Path parent = absFile.getParent();
@@ -209,16 +367,16 @@ public class JCloudsFileSytem extends FileSystem {
     private boolean dirExists(Path path) {
 
         if (path.isEmpty()) {
-            return context.getBlobStore().containerExists(bucket);
+            return containerExists();
         }
 
         ListContainerOptions options = new ListContainerOptions().prefix(toBucketEntry(path) + "/");
-        return context.getBlobStore().list(bucket, options).iterator().hasNext();
+        return listPage(options).iterator().hasNext();
     }
 
     // Test if a file exists by checking if the blob exists.
     private boolean fileExists(Path path) {
-        return context.getBlobStore().blobExists(bucket, toBucketEntry(path));
+        return blobExists(toBucketEntry(path));
     }
 
     @Override
@@ -261,7 +419,7 @@ public class JCloudsFileSytem extends FileSystem {
 
     private PathAttributes makeBlobAttributes(String name) {
 
-        BlobMetadata md = context.getBlobStore().blobMetadata(bucket, name);
+        BlobMetadata md = blobMetadata(name);
 
         PathAttributesImplementation pa = new PathAttributesImplementation();
 
@@ -311,7 +469,7 @@ public class JCloudsFileSytem extends FileSystem {
 
         void getNext() {
             if (!curIterator.hasNext() && curPageSet.getNextMarker() != null) {
-                curPageSet = context.getBlobStore().list(bucket, options.afterMarker(curPageSet.getNextMarker()));
+                curPageSet = listPage(options.afterMarker(curPageSet.getNextMarker()));
                 curIterator = curPageSet.iterator();
             }
             if (curIterator.hasNext()) {
@@ -347,7 +505,7 @@ public class JCloudsFileSytem extends FileSystem {
         ListContainerOptions options = new ListContainerOptions().prefix(bucketEntry + "/");
         // JClouds on S3 does not list directories if recursive is set :( Fixing it ourselves
         final ListContainerOptions optionsFinal = options;
-        return new ListingIterator(optionsFinal, context.getBlobStore().list(bucket, optionsFinal));
+        return new ListingIterator(optionsFinal, listPage(optionsFinal));
     }
 
     @Override
@@ -363,11 +521,11 @@ public class JCloudsFileSytem extends FileSystem {
         final ListContainerOptions options = new ListContainerOptions().prefix(bucketEntry + "/");
 
         // JClouds on S3 does not list directories if recursive is set :( Fixing it ourselves
-        final PageSet<? extends StorageMetadata> ps = context.getBlobStore().list(bucket, options);
+        final PageSet<? extends StorageMetadata> ps = listPage(options);
         final Iterator<? extends StorageMetadata> curIt = ps.iterator();
 
         if (!curIt.hasNext()) {
-            if (context.getBlobStore().blobExists(bucket, bucketEntry)) {
+            if (blobExists(bucketEntry)) {
                 throw new InvalidPathException(getAdaptorName(), "Not a directory: " + dir);
             } else {
                 throw new NoSuchPathException(adaptorName, "No such directory: " + dir);
@@ -390,7 +548,7 @@ public class JCloudsFileSytem extends FileSystem {
 
         final ListContainerOptions optionsFinal = options;
 
-        return () -> new ListingIterator(optionsFinal, context.getBlobStore().list(bucket, optionsFinal));
+        return () -> new ListingIterator(optionsFinal, listPage(optionsFinal));
     }
 
     @Override
@@ -401,7 +559,7 @@ public class JCloudsFileSytem extends FileSystem {
         assertPathIsFile(absPath);
 
         try {
-            return context.getBlobStore().getBlob(bucket, toBucketEntry(absPath)).getPayload().openStream();
+            return openBlob(toBucketEntry(absPath));
         } catch (IOException e) {
             throw new XenonException(adaptorName, e.getMessage());
         }
@@ -424,7 +582,7 @@ public class JCloudsFileSytem extends FileSystem {
             throw new XenonException(adaptorName, "IO error when trying to write: " + e.getMessage());
         }
 
-        new Thread(() -> context.getBlobStore().putBlob(bucket, b)).start();
+        new Thread(() -> putBlob(b, size)).start();
 
         return out;
     }
@@ -0,0 +1,672 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * Copies complete directory trees between the local file system and a blob prefix of a {@link JCloudsFileSytem}.
+ *
+ * Unlike copying file by file through the {@link nl.esciencecenter.xenon.filesystems.FileSystem} API, no existence or parent directory checks are
+ * done per file. Files are transferred concurrently, bounded by both the number of files and the number of bytes in flight, so transferring many
+ * small files is limited by bandwidth instead of request latency.
+ */
+public class JCloudsTransferManager {
+
+    /** Default maximum number of files transferred concurrently. */
+    public static final int DEFAULT_CONCURRENT_FILES = 64;
+
+    /** Default maximum number of bytes in flight. */
+    public static final long DEFAULT_BYTES_IN_FLIGHT = 256L * 1024 * 1024;
+
+    // Maximum number of files queued ahead of the transfers, so the local walk or the remote listing does not outrun them.
+    private static final int QUEUED_FILES_PER_THREAD = 16;
+
+    private static final int KIB = 1024;
+
+    private static final Pattern MD5_HEX = Pattern.compile("[0-9a-f]{32}");
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    final JCloudsFileSytem fileSystem;
+    final int maxConcurrentFiles;
+    final long maxBytesInFlight;
+
+    public JCloudsTransferManager(JCloudsFileSytem fileSystem) {
+        this(fileSystem, DEFAULT_CONCURRENT_FILES, DEFAULT_BYTES_IN_FLIGHT);
+    }
+
+    /**
+     * @param fileSystem the blob file system to transfer to and from
+     * @param maxConcurrentFiles maximum number of files transferred concurrently
+     * @param maxBytesInFlight maximum total size of the files transferred concurrently, a larger file is transferred on its own
+     */
+    public JCloudsTransferManager(JCloudsFileSytem fileSystem, int maxConcurrentFiles, long maxBytesInFlight) {
+        if (maxConcurrentFiles < 1) {
+            throw new IllegalArgumentException("Number of concurrent files must be at least 1");
+        }
+        if (maxBytesInFlight < KIB) {
+            throw new IllegalArgumentException("Number of bytes in flight must be at least " + KIB);
+        }
+        this.fileSystem = fileSystem;
+        this.maxConcurrentFiles = maxConcurrentFiles;
+        this.maxBytesInFlight = maxBytesInFlight;
+    }
+
+    /**
+     * Upload all files below a local directory to a directory in the blob store, overwriting existing files.
+     *
+     * @param localDir the local directory to upload
+     * @param remoteDir the directory in the blob store to upload to
+     * @param listener receives progress updates, may be null
+     * @return the final progress of the transfer
+     * @throws XenonException if the local directory does not exist or if any of the files could not be transferred
+     */
+    public TransferProgress upload(java.nio.file.Path localDir, Path remoteDir, TransferListener listener) throws XenonException {
+        fileSystem.checkClosed();
+
+        if (!Files.isDirectory(localDir)) {
+            throw new NoSuchPathException(fileSystem.adaptorName, "No such local directory: " + localDir);
+        }
+
+        Path absRemote = fileSystem.absolutePath(remoteDir);
+        String remoteEntry = fileSystem.toBucketEntry(absRemote);
+
+        Transfer transfer = new Transfer(listener);
+
+        try {
+            walk(transfer, localDir, localDir, remoteEntry, new ArrayDeque<>());
+        } catch (RuntimeException e) {
+            transfer.abort();
+            throw e;
+        }
+
+        transfer.await();
+
+        // The uploaded files make the target directory exist, so a placeholder for it is no longer needed.
+        if (!remoteEntry.isEmpty() && transfer.progress.getFilesTransferred() > 0) {
+            fileSystem.removeDirectoryPlaceholder(absRemote);
+        }
+        return transfer.progress;
+    }
+
+    /**
+     * Download all files below a directory in the blob store to a local directory, overwriting existing local files.
+     *
+     * @param remoteDir the directory in the blob store to download
+     * @param localDir the local directory to download to, created if needed
+     * @param listener receives progress updates, may be null
+     * @return the final progress of the transfer
+     * @throws XenonException if the remote directory does not exist or if any of the files could not be transferred
+     */
+    public TransferProgress download(Path remoteDir, java.nio.file.Path localDir, TransferListener listener) throws XenonException {
+        fileSystem.checkClosed();
+
+        String prefix = toPrefix(fileSystem.toBucketEntry(fileSystem.absolutePath(remoteDir)));
+        Iterator<StorageMetadata> blobs = fileSystem.listBlobs(prefix);
+
+        if (!prefix.isEmpty() && !blobs.hasNext()) {
+            throw new NoSuchPathException(fileSystem.adaptorName, "No such directory: " + remoteDir);
+        }
+
+        java.nio.file.Path root = localDir.toAbsolutePath().normalize();
+        createLocalDirectory(root);
+
+        Transfer transfer = new Transfer(listener);
+
+        try {
+            while (blobs.hasNext()) {
+                StorageMetadata blob = blobs.next();
+
+                String name = blob.getName();
+
+                if (blob.getType() != StorageType.BLOB || name.endsWith("/")) {
+                    continue;
+                }
+
+                try {
+                    java.nio.file.Path target = toLocalPath(root, name.substring(prefix.length()));
+
+                    if (JCloudsFileSytem.isDirectoryPlaceholder(name)) {
+                        createLocalDirectory(target.getParent());
+                    } else {
+                        long size = blob.getSize() == null ? 0 : blob.getSize();
+                        transfer.progress.discovered(size);
+
+                        transfer.submitQueued(() -> transfer.copy(size, () -> downloadBlob(name, target)));
+                    }
+                } catch (XenonException e) {
+                    transfer.failed(e);
+                }
+            }
+        } catch (RuntimeException e) {
+            transfer.abort();
+            throw e;
+        }
+
+        transfer.await();
+        return transfer.progress;
+    }
+
+    /**
+     * Upload only the new and changed files below a local directory to a directory in the blob store.
+     *
+     * The sorted local tree and the sorted remote listing are walked together in a single merge pass, so memory use does not depend on the number of
+     * files. A file is uploaded when it does not exist remotely, when its size differs, or, depending on the options, when its checksum differs from
+     * the ETag or it was modified after the blob.
+     *
+     * @param localDir the local directory to upload
+     * @param remoteDir the directory in the blob store to upload to
+     * @param options determines how files are compared and if extraneous blobs are deleted
+     * @param listener receives progress updates, may be null
+     * @return the final progress of the sync
+     * @throws XenonException if the local directory does not exist or if any of the files could not be transferred or deleted
+     */
+    public TransferProgress syncUpload(java.nio.file.Path localDir, Path remoteDir, SyncOptions options, TransferListener listener) throws XenonException {
+        fileSystem.checkClosed();
+
+        if (!Files.isDirectory(localDir)) {
+            throw new NoSuchPathException(fileSystem.adaptorName, "No such local directory: " + localDir);
+        }
+
+        Path absRemote = fileSystem.absolutePath(remoteDir);
+        String remoteEntry = fileSystem.toBucketEntry(absRemote);
+        String prefix = toPrefix(remoteEntry);
+
+        TransferProgress progress = sync(true, localDir, prefix, fileSystem.listBlobs(prefix), options, listener);
+
+        if (!remoteEntry.isEmpty() && progress.getFilesTransferred() > 0) {
+            fileSystem.removeDirectoryPlaceholder(absRemote);
+        }
+        return progress;
+    }
+
+    /**
+     * Download only the new and changed files below a directory in the blob store to a local directory.
+     *
+     * Works like {@link #syncUpload(java.nio.file.Path, Path, SyncOptions, TransferListener)} in the other direction. Downloaded files get the
+     * modification time of their blob, so an unchanged blob is skipped by the next sync.
+     *
+     * @param remoteDir the directory in the blob store to download
+     * @param localDir the local directory to download to, created if needed
+     * @param options determines how files are compared and if extraneous local files are deleted
+     * @param listener receives progress updates, may be null
+     * @return the final progress of the sync
+     * @throws XenonException if the remote directory does not exist or if any of the files could not be transferred or deleted
+     */
+    public TransferProgress syncDownload(Path remoteDir, java.nio.file.Path localDir, SyncOptions options, TransferListener listener) throws XenonException {
+        fileSystem.checkClosed();
+
+        String prefix = toPrefix(fileSystem.toBucketEntry(fileSystem.absolutePath(remoteDir)));
+        Iterator<StorageMetadata> blobs = fileSystem.listBlobs(prefix);
+
+        if (!prefix.isEmpty() && !blobs.hasNext()) {
+            throw new NoSuchPathException(fileSystem.adaptorName, "No such directory: " + remoteDir);
+        }
+
+        java.nio.file.Path root = localDir.toAbsolutePath().normalize();
+        createLocalDirectory(root);
+
+        return sync(false, root, prefix, blobs, options, listener);
+    }
+
+    // Merge the sorted local and remote listings, queueing a transfer or delete for every entry that differs.
+    private TransferProgress sync(boolean upload, java.nio.file.Path localRoot, String prefix, Iterator<StorageMetadata> remoteListing, SyncOptions options,
+            TransferListener listener) throws XenonException {
+
+        Transfer transfer = new Transfer(listener);
+
+        try {
+            Iterator<LocalTreeIterator.Entry> local = new LocalTreeIterator(localRoot);
+            Iterator<StorageMetadata> remote = new RemoteFileIterator(remoteListing);
+
+            LocalTreeIterator.Entry l = local.hasNext() ? local.next() : null;
+            StorageMetadata r = remote.hasNext() ? remote.next() : null;
+
+            while (l != null || r != null) {
+                int cmp;
+                if (l == null) {
+                    cmp = 1;
+                } else if (r == null) {
+                    cmp = -1;
+                } else {
+                    cmp = LocalTreeIterator.compareKeys(l.key, r.getName().substring(prefix.length()));
+                }
+
+                if (cmp < 0) {
+                    syncLocalOnly(transfer, upload, prefix, l, options);
+                    l = local.hasNext() ? local.next() : null;
+                } else if (cmp > 0) {
+                    syncRemoteOnly(transfer, upload, prefix, localRoot, r, options);
+                    r = remote.hasNext() ? remote.next() : null;
+                } else {
+                    syncBoth(transfer, upload, prefix, l, r, options);
+                    l = local.hasNext() ? local.next() : null;
+                    r = remote.hasNext() ? remote.next() : null;
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            transfer.abort();
+            throw new XenonException(fileSystem.adaptorName, "Failed to list local directory " + localRoot + ": " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            transfer.abort();
+            throw e;
+        }
+
+        transfer.await();
+        return transfer.progress;
+    }
+
+    private void syncLocalOnly(Transfer transfer, boolean upload, String prefix, LocalTreeIterator.Entry local, SyncOptions options) {
+        if (upload) {
+            transfer.progress.discovered(local.size);
+            transfer.submitQueued(() -> transfer.copy(local.size, () -> fileSystem.putFile(prefix + local.key, local.path.toFile())));
+        } else if (options.isDeleteExtraneous()) {
+            transfer.submitQueued(() -> transfer.delete(() -> Files.delete(local.path)));
+        }
+    }
+
+    private void syncRemoteOnly(Transfer transfer, boolean upload, String prefix, java.nio.file.Path localRoot, StorageMetadata remote, SyncOptions options) {
+        String name = remote.getName();
+
+        if (upload) {
+            if (options.isDeleteExtraneous()) {
+                transfer.submitQueued(() -> transfer.delete(() -> fileSystem.removeBlob(name)));
+            }
+            return;
+        }
+
+        long size = remote.getSize() == null ? 0 : remote.getSize();
+        transfer.progress.discovered(size);
+
+        try {
+            java.nio.file.Path target = toLocalPath(localRoot, name.substring(prefix.length()));
+            transfer.submitQueued(() -> transfer.copy(size, () -> downloadBlob(name, target, remote.getLastModified())));
+        } catch (XenonException e) {
+            transfer.failed(e);
+        }
+    }
+
+    private void syncBoth(Transfer transfer, boolean upload, String prefix, LocalTreeIterator.Entry local, StorageMetadata remote, SyncOptions options) {
+        long remoteSize = remote.getSize() == null ? 0 : remote.getSize();
+        long size = upload ? local.size : remoteSize;
+        transfer.progress.discovered(size);
+
+        TransferTask copy;
+        if (upload) {
+            copy = () -> fileSystem.putFile(prefix + local.key, local.path.toFile());
+        } else {
+            copy = () -> downloadBlob(remote.getName(), local.path, remote.getLastModified());
+        }
+
+        if (local.size != remoteSize) {
+            transfer.submitQueued(() -> transfer.copy(size, copy));
+            return;
+        }
+
+        String md5 = options.isChecksum() ? md5FromETag(remote.getETag()) : null;
+
+        if (md5 != null) {
+            // Computing the checksum reads the whole file, so it is done by the transfer threads.
+            transfer.submitQueued(() -> {
+                if (md5.equals(md5Hex(local.path))) {
+                    transfer.skipped();
+                } else {
+                    transfer.copy(size, copy);
+                }
+            });
+        } else if (isNewer(upload, local, remote)) {
+            transfer.submitQueued(() -> transfer.copy(size, copy));
+        } else {
+            transfer.skipped();
+        }
+    }
+
+    private static boolean isNewer(boolean upload, LocalTreeIterator.Entry local, StorageMetadata remote) {
+        Date remoteModified = remote.getLastModified();
+
+        if (remoteModified == null) {
+            return true;
+        }
+        if (upload) {
+            return local.lastModified > remoteModified.getTime();
+        }
+        return remoteModified.getTime() > local.lastModified;
+    }
+
+    /**
+     * Extract the MD5 checksum from an ETag, which is only possible for blobs uploaded in a single part.
+     *
+     * @param eTag the ETag as returned by the blob store, possibly quoted
+     * @return the lower case hex MD5 checksum, or null if the ETag is not a plain MD5 checksum
+     */
+    static String md5FromETag(String eTag) {
+        if (eTag == null) {
+            return null;
+        }
+        String tag = eTag.replace("\"", "").toLowerCase(Locale.ROOT);
+        return MD5_HEX.matcher(tag).matches() ? tag : null;
+    }
+
+    static String md5Hex(java.nio.file.Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+
+        byte[] buffer = new byte[64 * KIB];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(32);
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    static String toPrefix(String bucketEntry) {
+        return bucketEntry.isEmpty() ? "" : bucketEntry + "/";
+    }
+
+    static String toBucketEntry(String remoteEntry, java.nio.file.Path relative) {
+        StringBuilder sb = new StringBuilder(remoteEntry);
+        for (java.nio.file.Path element : relative) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(element.toString());
+        }
+        return sb.toString();
+    }
+
+    // Resolve a name relative to the remote directory against the local root, refusing names that would end up outside of it.
+    java.nio.file.Path toLocalPath(java.nio.file.Path root, String relative) throws XenonException {
+        java.nio.file.Path target = root.resolve(relative).normalize();
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new XenonException(fileSystem.adaptorName, "Refusing to download blob outside of target directory: " + relative);
+        }
+        return target;
+    }
+
+    void createLocalDirectory(java.nio.file.Path dir) throws XenonException {
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new XenonException(fileSystem.adaptorName, "Failed to create local directory " + dir + ": " + e.getMessage(), e);
+        }
+    }
+
+    void downloadBlob(String name, java.nio.file.Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try (InputStream in = fileSystem.openBlob(name)) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    void downloadBlob(String name, java.nio.file.Path target, Date lastModified) throws IOException {
+        downloadBlob(name, target);
+        if (lastModified != null) {
+            Files.setLastModifiedTime(target, FileTime.fromMillis(lastModified.getTime()));
+        }
+    }
+
+    // Only the files of a recursive remote listing, without directory placeholders and markers.
+    private static class RemoteFileIterator implements Iterator<StorageMetadata> {
+
+        private final Iterator<StorageMetadata> listing;
+        private StorageMetadata next;
+
+        RemoteFileIterator(Iterator<StorageMetadata> listing) {
+            this.listing = listing;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && listing.hasNext()) {
+                StorageMetadata m = listing.next();
+                if (m.getType() == StorageType.BLOB && !m.getName().endsWith("/") && !JCloudsFileSytem.isDirectoryPlaceholder(m.getName())) {
+                    next = m;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public StorageMetadata next() {
+            if (next == null) {
+                throw new NoSuchElementException("No more elements");
+            }
+            StorageMetadata result = next;
+            advance();
+            return result;
+        }
+    }
+
+    // Walk a local directory on the calling thread, queueing its files for upload. A directory that links back to one of its ancestors is skipped.
+    private void walk(Transfer transfer, java.nio.file.Path localRoot, java.nio.file.Path dir, String remoteEntry, Deque<java.nio.file.Path> ancestors) {
+        boolean empty = true;
+
+        try {
+            java.nio.file.Path real = dir.toRealPath();
+
+            if (ancestors.contains(real)) {
+                return;
+            }
+            ancestors.push(real);
+
+            try (DirectoryStream<java.nio.file.Path> entries = Files.newDirectoryStream(dir)) {
+                for (java.nio.file.Path entry : entries) {
+                    empty = false;
+
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+
+                    if (attributes.isDirectory()) {
+                        walk(transfer, localRoot, entry, remoteEntry, ancestors);
+                    } else if (attributes.isRegularFile()) {
+                        String name = toBucketEntry(remoteEntry, localRoot.relativize(entry));
+                        long size = attributes.size();
+                        transfer.progress.discovered(size);
+                        transfer.submitQueued(() -> transfer.copy(size, () -> fileSystem.putFile(name, entry.toFile())));
+                    }
+                }
+            } finally {
+                ancestors.pop();
+            }
+        } catch (IOException e) {
+            transfer.failed(e);
+            return;
+        }
+
+        if (empty && !dir.equals(localRoot)) {
+            String placeholder = toBucketEntry(remoteEntry, localRoot.relativize(dir));
+            transfer.submitQueued(() -> fileSystem.makeDirectoryPlaceholder(placeholder));
+        }
+    }
+
+    interface TransferTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * The state of a single bulk transfer. Tasks are run on a pool of at most maxConcurrentFiles threads, the total size of the files being copied is
+     * bounded by a semaphore counting KiB.
+     */
+    class Transfer {
+
+        final TransferProgress progress = new TransferProgress();
+
+        private final TransferListener listener;
+        private final ExecutorService executor;
+        private final int budget;
+        private final Semaphore bytesInFlight;
+        private final Semaphore queued;
+
+        // Number of submitted tasks that did not finish yet, plus one for the thread that started the transfer.
+        private final AtomicLong pending = new AtomicLong(1);
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final AtomicReference<Exception> firstError = new AtomicReference<>();
+
+        Transfer(TransferListener listener) {
+            this.listener = listener;
+            this.budget = (int) Math.min(Integer.MAX_VALUE, maxBytesInFlight / KIB);
+            this.bytesInFlight = new Semaphore(budget);
+            this.queued = new Semaphore(maxConcurrentFiles * QUEUED_FILES_PER_THREAD);
+            this.executor = Executors.newFixedThreadPool(maxConcurrentFiles, r -> {
+                Thread t = new Thread(r, "xenon-" + fileSystem.adaptorName + "-transfer-" + THREAD_COUNTER.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        void submit(TransferTask task) {
+            pending.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    failed(e);
+                } finally {
+                    done();
+                }
+            });
+        }
+
+        // Submit a task from a producer outside of the pool, blocking while too many tasks are queued. Must not be called by the pool threads.
+        void submitQueued(TransferTask task) {
+            queued.acquireUninterruptibly();
+            submit(() -> {
+                try {
+                    task.run();
+                } finally {
+                    queued.release();
+                }
+            });
+        }
+
+        // Copy a single file of the given size once enough of the byte budget is available.
+        void copy(long size, TransferTask task) throws InterruptedException {
+            int permits = (int) Math.min(budget, Math.max(1, (size + KIB - 1) / KIB));
+
+            bytesInFlight.acquire(permits);
+            try {
+                task.run();
+                progress.transferred(size);
+                notifyListener();
+            } catch (Exception e) {
+                failed(e);
+            } finally {
+                bytesInFlight.release(permits);
+            }
+        }
+
+        void delete(TransferTask task) {
+            try {
+                task.run();
+                progress.deleted();
+            } catch (Exception e) {
+                failed(e);
+            }
+        }
+
+        void skipped() {
+            progress.skipped();
+            notifyListener();
+        }
+
+        void failed(Exception e) {
+            firstError.compareAndSet(null, e);
+            progress.failed();
+            notifyListener();
+        }
+
+        void notifyListener() {
+            if (listener != null) {
+                listener.progress(progress);
+            }
+        }
+
+        void abort() {
+            executor.shutdownNow();
+        }
+
+        private void done() {
+            if (pending.decrementAndGet() == 0) {
+                finished.countDown();
+            }
+        }
+
+        void await() throws XenonException {
+            done();
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XenonException(fileSystem.adaptorName, "Interrupted while waiting for transfer", e);
+            } finally {
+                executor.shutdownNow();
+            }
+
+            Exception error = firstError.get();
+            if (error != null) {
+                throw new XenonException(fileSystem.adaptorName,
+                        progress.getFilesFailed() + " of " + progress.getFilesDiscovered() + " files could not be transferred, first error: " + error.getMessage(),
+                        error);
+            }
+        }
+    }
+}
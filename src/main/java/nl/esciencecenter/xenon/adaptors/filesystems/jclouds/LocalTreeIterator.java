@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the regular files below a local directory in the order in which a blob store lists their keys.
+ *
+ * Blob stores list keys in binary (code point) order of the complete key, so a directory "a" is sorted as "a/" among its siblings. Only the entries
+ * of the directories on the path to the current file are kept in memory, not the entire tree.
+ */
+class LocalTreeIterator implements Iterator<LocalTreeIterator.Entry> {
+
+    static final class Entry {
+
+        final String key;
+        final java.nio.file.Path path;
+        final boolean directory;
+        final long size;
+        final long lastModified;
+
+        Entry(String key, java.nio.file.Path path, boolean directory, long size, long lastModified) {
+            this.key = key;
+            this.path = path;
+            this.directory = directory;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final Deque<Iterator<Entry>> stack = new ArrayDeque<>();
+
+    // The real paths of the directories on the stack, so a directory that links back to one of its ancestors is skipped.
+    private final Deque<java.nio.file.Path> ancestors = new ArrayDeque<>();
+
+    private Entry next;
+
+    LocalTreeIterator(java.nio.file.Path root) throws IOException {
+        stack.push(readDirectory(root, ""));
+        ancestors.push(root.toRealPath());
+        advance();
+    }
+
+    /**
+     * Compare two keys in the order used by blob stores, which is the order of their UTF-8 encoding, or equivalently of their code points.
+     *
+     * @param a the first key
+     * @param b the second key
+     * @return a negative number, zero, or a positive number if a is less than, equal to, or greater than b
+     */
+    static int compareKeys(String a, String b) {
+        int i = 0;
+        int j = 0;
+
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    private static Iterator<Entry> readDirectory(java.nio.file.Path dir, String keyPrefix) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+
+        try (DirectoryStream<java.nio.file.Path> stream = Files.newDirectoryStream(dir)) {
+            for (java.nio.file.Path path : stream) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                String key = keyPrefix + path.getFileName().toString();
+
+                if (attributes.isDirectory()) {
+                    entries.add(new Entry(key + "/", path, true, 0, 0));
+                } else if (attributes.isRegularFile()) {
+                    entries.add(new Entry(key, path, false, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        }
+
+        entries.sort((x, y) -> compareKeys(x.key, y.key));
+        return entries.iterator();
+    }
+
+    private void advance() {
+        next = null;
+
+        while (next == null && !stack.isEmpty()) {
+            Iterator<Entry> top = stack.peek();
+
+            if (!top.hasNext()) {
+                stack.pop();
+                ancestors.pop();
+                continue;
+            }
+
+            Entry entry = top.next();
+
+            if (entry.directory) {
+                try {
+                    java.nio.file.Path real = entry.path.toRealPath();
+
+                    if (!ancestors.contains(real)) {
+                        stack.push(readDirectory(entry.path, entry.key));
+                        ancestors.push(real);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                next = entry;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Entry next() {
+        if (next == null) {
+            throw new NoSuchElementException("No more elements");
+        }
+        Entry result = next;
+        advance();
+        return result;
+    }
+}
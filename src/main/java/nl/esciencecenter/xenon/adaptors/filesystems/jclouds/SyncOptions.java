@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+/**
+ * Options for the incremental sync operations of {@link JCloudsTransferManager}.
+ *
+ * By default files are considered changed when their size differs, or when the source was modified after the target.
+ */
+public class SyncOptions {
+
+    private boolean checksum = false;
+
+    private boolean deleteExtraneous = false;
+
+    /**
+     * Compare the MD5 checksum of the local file against the ETag of the blob when the sizes are equal, instead of the modification times. Blobs
+     * uploaded in multiple parts have no MD5 ETag and are compared by modification time.
+     *
+     * @param checksum if checksums should be compared
+     * @return these options
+     */
+    public SyncOptions withChecksum(boolean checksum) {
+        this.checksum = checksum;
+        return this;
+    }
+
+    /**
+     * Delete files in the target that do not exist in the source.
+     *
+     * @param deleteExtraneous if extraneous files should be deleted
+     * @return these options
+     */
+    public SyncOptions withDeleteExtraneous(boolean deleteExtraneous) {
+        this.deleteExtraneous = deleteExtraneous;
+        return this;
+    }
+
+    public boolean isChecksum() {
+        return checksum;
+    }
+
+    public boolean isDeleteExtraneous() {
+        return deleteExtraneous;
+    }
+}
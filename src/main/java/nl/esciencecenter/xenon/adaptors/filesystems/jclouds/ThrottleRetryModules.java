@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import javax.inject.Singleton;
+
+import org.jclouds.aws.handlers.AWSClientErrorRetryHandler;
+import org.jclouds.aws.handlers.AWSServerErrorRetryHandler;
+import org.jclouds.aws.s3.config.AWSS3HttpApiModule;
+import org.jclouds.azure.storage.handlers.AzureStorageClientErrorRetryHandler;
+import org.jclouds.azureblob.config.AzureBlobHttpApiModule;
+import org.jclouds.http.HttpCommand;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpRetryHandler;
+import org.jclouds.http.annotation.ClientError;
+import org.jclouds.http.annotation.Redirection;
+import org.jclouds.http.annotation.ServerError;
+import org.jclouds.http.handlers.BackoffLimitedRetryHandler;
+import org.jclouds.rest.ConfiguresHttpApi;
+import org.jclouds.s3.S3Client;
+import org.jclouds.s3.config.S3HttpApiModule;
+import org.jclouds.s3.handlers.S3RedirectionRetryHandler;
+
+import com.google.inject.Provides;
+
+/**
+ * jclouds API modules for blob stores used with an {@link AdaptiveConcurrencyLimiter}. They replace the default API module of the store and retry
+ * failed requests with the same retry handlers, except throttling responses. Those are only retried by the limiter, so the limit reacts to them at
+ * once and the retries of jclouds and of the limiter do not add up. Pass a module to {@link org.jclouds.ContextBuilder#modules(Iterable)}.
+ */
+public final class ThrottleRetryModules {
+
+    private ThrottleRetryModules() {
+        // utility class
+    }
+
+    /**
+     * Retry handler which does not retry throttling responses, and passes all other responses to the retry handler of the store.
+     */
+    static final class SkipThrottlingRetryHandler implements HttpRetryHandler {
+
+        private final HttpRetryHandler delegate;
+
+        SkipThrottlingRetryHandler(HttpRetryHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean shouldRetryRequest(HttpCommand command, HttpResponse response) {
+            if (AdaptiveConcurrencyLimiter.isThrottled(response)) {
+                return false;
+            }
+            return delegate.shouldRetryRequest(command, response);
+        }
+    }
+
+    /** API module for the aws-s3 provider. */
+    @ConfiguresHttpApi
+    public static class AWSS3 extends AWSS3HttpApiModule {
+
+        @Override
+        protected void bindRetryHandlers() {
+            bind(HttpRetryHandler.class).annotatedWith(Redirection.class).to(S3RedirectionRetryHandler.class);
+        }
+
+        @Provides
+        @Singleton
+        @ClientError
+        HttpRetryHandler provideClientErrorRetryHandler(AWSClientErrorRetryHandler handler) {
+            return new SkipThrottlingRetryHandler(handler);
+        }
+
+        @Provides
+        @Singleton
+        @ServerError
+        HttpRetryHandler provideServerErrorRetryHandler(AWSServerErrorRetryHandler handler) {
+            return new SkipThrottlingRetryHandler(handler);
+        }
+    }
+
+    /** API module for the generic s3 API. */
+    @ConfiguresHttpApi
+    public static class S3 extends S3HttpApiModule<S3Client> {
+
+        public S3() {
+            super(S3Client.class);
+        }
+
+        @Override
+        protected void bindRetryHandlers() {
+            bind(HttpRetryHandler.class).annotatedWith(Redirection.class).to(S3RedirectionRetryHandler.class);
+        }
+
+        @Provides
+        @Singleton
+        @ClientError
+        HttpRetryHandler provideClientErrorRetryHandler(AWSClientErrorRetryHandler handler) {
+            return new SkipThrottlingRetryHandler(handler);
+        }
+
+        @Provides
+        @Singleton
+        @ServerError
+        HttpRetryHandler provideServerErrorRetryHandler(AWSServerErrorRetryHandler handler) {
+            return new SkipThrottlingRetryHandler(handler);
+        }
+    }
+
+    /** API module for the azureblob API. */
+    @ConfiguresHttpApi
+    public static class AzureBlob extends AzureBlobHttpApiModule {
+
+        @Override
+        protected void bindRetryHandlers() {
+            // the client and server error handlers are provided below
+        }
+
+        @Provides
+        @Singleton
+        @ClientError
+        HttpRetryHandler provideClientErrorRetryHandler(AzureStorageClientErrorRetryHandler handler) {
+            return new SkipThrottlingRetryHandler(handler);
+        }
+
+        @Provides
+        @Singleton
+        @ServerError
+        HttpRetryHandler provideServerErrorRetryHandler(BackoffLimitedRetryHandler handler) {
+            return new SkipThrottlingRetryHandler(handler);
+        }
+    }
+}
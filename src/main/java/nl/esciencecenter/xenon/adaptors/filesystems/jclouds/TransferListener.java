@@ -0,0 +1,29 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+/**
+ * Receives the aggregate progress of a bulk transfer. Called from the transfer threads, so implementations must be thread safe and fast.
+ */
+public interface TransferListener {
+
+    /**
+     * Called after every file that was transferred or failed.
+     *
+     * @param progress the progress of the complete transfer
+     */
+    void progress(TransferProgress progress);
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate progress of a bulk transfer between a local directory tree and a blob prefix.
+ */
+public class TransferProgress {
+
+    private final AtomicLong filesDiscovered = new AtomicLong();
+    private final AtomicLong bytesDiscovered = new AtomicLong();
+    private final AtomicLong filesTransferred = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+    private final AtomicLong filesDeleted = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+
+    void discovered(long bytes) {
+        filesDiscovered.incrementAndGet();
+        bytesDiscovered.addAndGet(bytes);
+    }
+
+    void transferred(long bytes) {
+        filesTransferred.incrementAndGet();
+        bytesTransferred.addAndGet(bytes);
+    }
+
+    void skipped() {
+        filesSkipped.incrementAndGet();
+    }
+
+    void deleted() {
+        filesDeleted.incrementAndGet();
+    }
+
+    void failed() {
+        filesFailed.incrementAndGet();
+    }
+
+    /** @return the number of files found so far */
+    public long getFilesDiscovered() {
+        return filesDiscovered.get();
+    }
+
+    /** @return the total size of the files found so far */
+    public long getBytesDiscovered() {
+        return bytesDiscovered.get();
+    }
+
+    /** @return the number of files that were copied */
+    public long getFilesTransferred() {
+        return filesTransferred.get();
+    }
+
+    /** @return the number of bytes that were copied */
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    /** @return the number of files that were up to date and not copied */
+    public long getFilesSkipped() {
+        return filesSkipped.get();
+    }
+
+    /** @return the number of extraneous files that were deleted */
+    public long getFilesDeleted() {
+        return filesDeleted.get();
+    }
+
+    /** @return the number of files that could not be copied or deleted */
+    public long getFilesFailed() {
+        return filesFailed.get();
+    }
+
+    /** @return if all discovered files have been handled */
+    public boolean isDone() {
+        return getFilesTransferred() + getFilesSkipped() + getFilesFailed() >= getFilesDiscovered();
+    }
+
+    @Override
+    public String toString() {
+        return "TransferProgress [files=" + getFilesTransferred() + "/" + getFilesDiscovered() + ", bytes=" + getBytesTransferred() + "/" + getBytesDiscovered()
+                + ", skipped=" + getFilesSkipped() + ", deleted=" + getFilesDeleted() + ", failed=" + getFilesFailed() + "]";
+    }
+}
@@ -16,6 +16,7 @@
 package nl.esciencecenter.xenon.adaptors.filesystems.s3;
 
 import java.net.URI;
+import java.util.List;
 import java.util.Map;
 
 import org.jclouds.ContextBuilder;
@@ -29,7 +30,9 @@ import nl.esciencecenter.xenon.XenonPropertyDescription;
 import nl.esciencecenter.xenon.XenonPropertyDescription.Type;
 import nl.esciencecenter.xenon.adaptors.XenonProperties;
 import nl.esciencecenter.xenon.adaptors.filesystems.FileAdaptor;
+import nl.esciencecenter.xenon.adaptors.filesystems.jclouds.AdaptiveConcurrencyLimiter;
 import nl.esciencecenter.xenon.adaptors.filesystems.jclouds.JCloudsFileSytem;
+import nl.esciencecenter.xenon.adaptors.filesystems.jclouds.ThrottleRetryModules;
 import nl.esciencecenter.xenon.credentials.Credential;
 import nl.esciencecenter.xenon.credentials.PasswordCredential;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
@@ -52,13 +55,23 @@ public class S3FileAdaptor extends FileAdaptor {
     /** The buffer size to use when copying data. */
     public static final String BUFFER_SIZE = PREFIX + "bufferSize";
 
+    /** The number of concurrent requests per top-level prefix before the adaptive limit has adjusted itself. */
+    public static final String INITIAL_CONCURRENCY = PREFIX + "concurrency.initial";
+
+    /** The upper bound of the adaptive number of concurrent requests per top-level prefix. */
+    public static final String MAX_CONCURRENCY = PREFIX + "concurrency.max";
+
     /** The locations supported by this adaptor */
     private static final String[] ADAPTOR_LOCATIONS = new String[] { "http[s]://host[:port]/bucketname[/workdir]",
             "https://s3.region.amazonaws.com/bucketname[/workdir]", };
 
     /** List of properties supported by this FTP adaptor */
     private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
-            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes).") };
+            new XenonPropertyDescription(BUFFER_SIZE, Type.SIZE, "64K", "The buffer size to use when copying files (in bytes)."),
+            new XenonPropertyDescription(INITIAL_CONCURRENCY, Type.INTEGER, String.valueOf(JCloudsFileSytem.DEFAULT_INITIAL_CONCURRENCY),
+                    "The initial number of concurrent requests per top-level prefix, adjusted when the store throttles requests."),
+            new XenonPropertyDescription(MAX_CONCURRENCY, Type.INTEGER, String.valueOf(JCloudsFileSytem.DEFAULT_MAX_CONCURRENCY),
+                    "The maximum number of concurrent requests per top-level prefix.") };
 
     public S3FileAdaptor() {
         super(ADAPTOR_NAME, ADAPTOR_DESCRIPTION, ADAPTOR_LOCATIONS, VALID_PROPERTIES);
@@ -135,6 +148,14 @@ public class S3FileAdaptor extends FileAdaptor {
                     "Invalid value for " + BUFFER_SIZE + ": " + bufferSize + " (must be between 1 and " + Integer.MAX_VALUE + ")");
         }
 
+        int initialConcurrency = xp.getIntegerProperty(INITIAL_CONCURRENCY);
+        int maxConcurrency = xp.getIntegerProperty(MAX_CONCURRENCY);
+
+        if (initialConcurrency < 1 || maxConcurrency < initialConcurrency) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, "Invalid value for " + INITIAL_CONCURRENCY + " or " + MAX_CONCURRENCY + ": " + initialConcurrency
+                    + ", " + maxConcurrency + " (must satisfy 1 <= initial <= max)");
+        }
+
         BlobStoreContext context = null;
 
         if (credential instanceof PasswordCredential) {
@@ -143,10 +164,10 @@ public class S3FileAdaptor extends FileAdaptor {
                 boolean aws_like = server.endsWith(".amazonaws.com");
                 if (aws_like) {
                     context = ContextBuilder.newBuilder("aws-s3").endpoint(server).credentials(pwUser.getUsername(), new String(pwUser.getPassword()))
-                            .buildView(BlobStoreContext.class);
+                            .modules(List.of(new ThrottleRetryModules.AWSS3())).buildView(BlobStoreContext.class);
                 } else {
                     context = ContextBuilder.newBuilder("s3").endpoint(server).credentials(pwUser.getUsername(), new String(pwUser.getPassword()))
-                            .buildView(BlobStoreContext.class);
+                            .modules(List.of(new ThrottleRetryModules.S3())).buildView(BlobStoreContext.class);
                 }
             } else {
                 // jclouds has us-east-1 as default region, so if bucket is located somewhere else it errors with auth region mismatch errors
@@ -156,7 +177,8 @@ public class S3FileAdaptor extends FileAdaptor {
             throw new InvalidCredentialException(ADAPTOR_NAME, "Default credentials not supported yet!");
         }
 
-        return new JCloudsFileSytem(getNewUniqueID(), ADAPTOR_NAME, server, credential, path, context, bucket, (int) bufferSize, xp);
+        return new JCloudsFileSytem(getNewUniqueID(), ADAPTOR_NAME, server, credential, path, context, bucket, (int) bufferSize, xp,
+                new AdaptiveConcurrencyLimiter(initialConcurrency, maxConcurrency));
     }
 
     @Override
@@ -15,14 +15,17 @@
  */
 package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
-import com.amazonaws.services.batch.AWSBatch;
-import com.amazonaws.services.batch.AWSBatchClientBuilder;
+import com.amazonaws.services.batch.AWSBatchAsync;
+import com.amazonaws.services.batch.AWSBatchAsyncClientBuilder;
 
 import nl.esciencecenter.xenon.InvalidCredentialException;
 import nl.esciencecenter.xenon.XenonException;
@@ -43,7 +46,8 @@ public class AWSBatchAdaptor extends SchedulerAdaptor {
         "To authenticate use PasswordCredential with access key id as username and secret access key as password. " +
         "Adaptor expects job queues and job definitions to have been created before use. " +
         "The scheduler queues are combinations of AWS Batch job definitions and AWS Batch job queues. " +
-        "Logs of jobs are available in the AWS CloudWatch logs service and can be optionally fetched using the AWSBatchUtils.getLog method." +
+        "Multiple tasks are submitted as an array job, or as a multi-node parallel job when the job definition is of type multinode. " +
+        "Logs of jobs are available in the AWS CloudWatch logs service and can be optionally fetched using the AWSBatchUtils.getLog method, or followed while the job runs using the AWSBatchScheduler.tailLog method. " +
         "AWS Batch submit fields that can not be mapped to a Xenon JobDescription field can be passed as a JSON string in AWS Batch SubmitJob request format as scheduler argument in the job description";
 
     /** All our own properties start with this prefix. */
@@ -52,12 +56,104 @@ public class AWSBatchAdaptor extends SchedulerAdaptor {
     /** Polling delay for jobs started by this adaptor. */
     public static final String POLL_DELAY_PROPERTY = PREFIX + "poll.delay";
 
+    /** Adapt the polling delay to the state of jobs. */
+    public static final String POLL_ADAPTIVE_PROPERTY = PREFIX + "poll.adaptive";
+
+    /** Minimum adaptive polling delay. */
+    public static final String POLL_DELAY_MIN_PROPERTY = PREFIX + "poll.delay.min";
+
+    /** Maximum adaptive polling delay. */
+    public static final String POLL_DELAY_MAX_PROPERTY = PREFIX + "poll.delay.max";
+
+    /** Delay between listings of queues with subscribed listeners. */
+    public static final String POLL_QUEUE_DELAY_PROPERTY = PREFIX + "poll.queue.delay";
+
+    /** Maximum number of concurrent requests to the AWS Batch API made by operations on many jobs. */
+    public static final String REQUEST_CONCURRENCY_PROPERTY = PREFIX + "request.concurrency";
+
+    /** Time to live of the cached job queues and job definitions. */
+    public static final String QUEUE_CACHE_TTL_PROPERTY = PREFIX + "queue.cache.ttl";
+
+    /** Only use ACTIVE job definitions for queues. */
+    public static final String QUEUE_ACTIVE_ONLY_PROPERTY = PREFIX + "queue.active.only";
+
+    /** Maximum number of SubmitJob requests per second sent by all schedulers of an account. */
+    public static final String SUBMIT_RATE_PROPERTY = PREFIX + "submit.rate";
+
+    /** Maximum number of CancelJob and TerminateJob requests per second sent by all schedulers of an account. */
+    public static final String CANCEL_RATE_PROPERTY = PREFIX + "cancel.rate";
+
+    /** Maximum number of DescribeJobs requests per second sent by all schedulers of an account. */
+    public static final String DESCRIBE_RATE_PROPERTY = PREFIX + "describe.rate";
+
+    /** Maximum number of ListJobs requests per second sent by all schedulers of an account. */
+    public static final String LIST_RATE_PROPERTY = PREFIX + "list.rate";
+
+    /** Time getJobStatus waits for lookups of other jobs to describe them together. */
+    public static final String STATUS_BATCH_WINDOW_PROPERTY = PREFIX + "status.batch.window";
+
+    /** Time to live of job statuses cached by getJobStatus. */
+    public static final String STATUS_CACHE_TTL_PROPERTY = PREFIX + "status.cache.ttl";
+
+    /** Keep an incremental index of the jobs in each job queue for getJobs and queue statuses. */
+    public static final String JOB_INDEX_PROPERTY = PREFIX + "job.index";
+
+    /** Time the job index is used before it is refreshed. */
+    public static final String JOB_INDEX_REFRESH_PROPERTY = PREFIX + "job.index.refresh";
+
+    /** Time after which the job index is rebuilt by listing all jobs. */
+    public static final String JOB_INDEX_RESCAN_PROPERTY = PREFIX + "job.index.rescan";
+
+    /** Local file in which submitted jobs are journaled, so they can be recovered after a restart. */
+    public static final String JOURNAL_PROPERTY = PREFIX + "journal";
+
+    /** Minimum number of milliseconds between removing done jobs from the journal. */
+    public static final String JOURNAL_COMPACT_PROPERTY = PREFIX + "journal.compact";
+
+    /** Maximum number of open HTTP connections of the AWS Batch client. */
+    public static final String CLIENT_MAX_CONNECTIONS_PROPERTY = PREFIX + "client.max.connections";
+
+    /** Timeout for opening a connection of the AWS Batch client. */
+    public static final String CLIENT_CONNECTION_TIMEOUT_PROPERTY = PREFIX + "client.connection.timeout";
+
+    /** Timeout for reading from a connection of the AWS Batch client. */
+    public static final String CLIENT_SOCKET_TIMEOUT_PROPERTY = PREFIX + "client.socket.timeout";
+
+    /** Maximum number of retries of a failed request by the AWS Batch client. */
+    public static final String CLIENT_MAX_ERROR_RETRY_PROPERTY = PREFIX + "client.max.error.retry";
+
+    /** Use TCP keep-alive on the connections of the AWS Batch client. */
+    public static final String CLIENT_TCP_KEEP_ALIVE_PROPERTY = PREFIX + "client.tcp.keepalive";
+
     /** The locations supported by this adaptor */
     private static final String[] ADAPTOR_LOCATIONS = new String[] { "region", "http://hostname:port"};
 
     /** List of properties supported by this AWS Batch adaptor */
     private static final XenonPropertyDescription[] VALID_PROPERTIES = new XenonPropertyDescription[] {
-        new XenonPropertyDescription(POLL_DELAY_PROPERTY, XenonPropertyDescription.Type.LONG, "5000", "Number of milliseconds between polling the status of a job.")
+        new XenonPropertyDescription(POLL_DELAY_PROPERTY, XenonPropertyDescription.Type.LONG, "5000", "Number of milliseconds between polling the status of a job, when the polling delay is not adaptive. Setting it disables adaptive polling, unless " + POLL_ADAPTIVE_PROPERTY + " is set as well."),
+        new XenonPropertyDescription(POLL_ADAPTIVE_PROPERTY, XenonPropertyDescription.Type.BOOLEAN, "true", "Poll jobs which are submitted, starting or just started at the minimum delay, and back off while jobs stay pending, runnable or running. Defaults to false when " + POLL_DELAY_PROPERTY + " is set."),
+        new XenonPropertyDescription(POLL_DELAY_MIN_PROPERTY, XenonPropertyDescription.Type.LONG, "1000", "Minimum number of milliseconds between polling the status of a job, when the polling delay is adaptive."),
+        new XenonPropertyDescription(POLL_DELAY_MAX_PROPERTY, XenonPropertyDescription.Type.LONG, "60000", "Maximum number of milliseconds between polling the status of a job, when the polling delay is adaptive."),
+        new XenonPropertyDescription(POLL_QUEUE_DELAY_PROPERTY, XenonPropertyDescription.Type.LONG, "10000", "Number of milliseconds between listing the jobs of a queue to find new jobs for the listeners subscribed to the queue."),
+        new XenonPropertyDescription(REQUEST_CONCURRENCY_PROPERTY, XenonPropertyDescription.Type.INTEGER, "8", "Maximum number of concurrent requests to the AWS Batch API made by operations on many jobs, like getJobStatuses, and by the asynchronous scheduler."),
+        new XenonPropertyDescription(QUEUE_CACHE_TTL_PROPERTY, XenonPropertyDescription.Type.LONG, "300000", "Number of milliseconds job queues and job definitions are cached, 0 disables the cache. Expired entries are refreshed in the background."),
+        new XenonPropertyDescription(QUEUE_ACTIVE_ONLY_PROPERTY, XenonPropertyDescription.Type.BOOLEAN, "false", "Only combine ACTIVE job definitions with job queues into queues, skipping inactive revisions."),
+        new XenonPropertyDescription(SUBMIT_RATE_PROPERTY, XenonPropertyDescription.Type.DOUBLE, "50", "Maximum number of jobs submitted per second, 0 for no limit. Throttled submissions are retried with backoff. The limit is shared by all schedulers in the JVM with the same location and account, and set by the first of them."),
+        new XenonPropertyDescription(CANCEL_RATE_PROPERTY, XenonPropertyDescription.Type.DOUBLE, "50", "Maximum number of jobs cancelled per second, 0 for no limit. Throttled cancellations are retried with backoff. The limit is shared like " + SUBMIT_RATE_PROPERTY + "."),
+        new XenonPropertyDescription(DESCRIBE_RATE_PROPERTY, XenonPropertyDescription.Type.DOUBLE, "20", "Maximum number of DescribeJobs requests per second, 0 for no limit. Throttled requests are retried with backoff. The limit is shared like " + SUBMIT_RATE_PROPERTY + "."),
+        new XenonPropertyDescription(LIST_RATE_PROPERTY, XenonPropertyDescription.Type.DOUBLE, "20", "Maximum number of ListJobs requests per second, 0 for no limit. Throttled requests are retried with backoff. The limit is shared like " + SUBMIT_RATE_PROPERTY + "."),
+        new XenonPropertyDescription(STATUS_BATCH_WINDOW_PROPERTY, XenonPropertyDescription.Type.LONG, "0", "Number of milliseconds getJobStatus waits for concurrent lookups of other jobs, to describe them in a single request. 0 describes each job on its own. Concurrent lookups of the same job always share a request."),
+        new XenonPropertyDescription(STATUS_CACHE_TTL_PROPERTY, XenonPropertyDescription.Type.LONG, "0", "Number of milliseconds a status returned by getJobStatus is reused, 0 disables caching."),
+        new XenonPropertyDescription(JOB_INDEX_PROPERTY, XenonPropertyDescription.Type.BOOLEAN, "false", "Answer getJobs from an index of the jobs in each job queue, which is refreshed by listing only active jobs and describing the active jobs which were not listed anymore. Queue statuses then contain the number of jobs in each state as jobs.<STATE>."),
+        new XenonPropertyDescription(JOB_INDEX_REFRESH_PROPERTY, XenonPropertyDescription.Type.LONG, "0", "Number of milliseconds the job index is used before it is refreshed, 0 refreshes it on every use."),
+        new XenonPropertyDescription(JOB_INDEX_RESCAN_PROPERTY, XenonPropertyDescription.Type.LONG, "600000", "Number of milliseconds after which the job index is rebuilt by listing the jobs in all states, which also finds jobs that were submitted and done between two refreshes."),
+        new XenonPropertyDescription(JOURNAL_PROPERTY, XenonPropertyDescription.Type.STRING, "", "Local file to which the identifier, queue and submit time of every submitted job is appended, see AWSBatchScheduler.recoverJobs(). The file can only be used by one scheduler at a time. Empty disables the journal."),
+        new XenonPropertyDescription(JOURNAL_COMPACT_PROPERTY, XenonPropertyDescription.Type.LONG, "600000", "Minimum number of milliseconds between removing the jobs which are done from the journal."),
+        new XenonPropertyDescription(CLIENT_MAX_CONNECTIONS_PROPERTY, XenonPropertyDescription.Type.INTEGER, "50", "Maximum number of open HTTP connections of the AWS Batch client."),
+        new XenonPropertyDescription(CLIENT_CONNECTION_TIMEOUT_PROPERTY, XenonPropertyDescription.Type.INTEGER, "10000", "Number of milliseconds to wait for a connection of the AWS Batch client to be established."),
+        new XenonPropertyDescription(CLIENT_SOCKET_TIMEOUT_PROPERTY, XenonPropertyDescription.Type.INTEGER, "50000", "Number of milliseconds to wait for data on an open connection of the AWS Batch client."),
+        new XenonPropertyDescription(CLIENT_MAX_ERROR_RETRY_PROPERTY, XenonPropertyDescription.Type.INTEGER, "3", "Maximum number of times the AWS Batch client retries a failed request, using the default retry policy of the AWS SDK. Throttled requests are not retried by the client but by the scheduler, within its rate limits."),
+        new XenonPropertyDescription(CLIENT_TCP_KEEP_ALIVE_PROPERTY, XenonPropertyDescription.Type.BOOLEAN, "false", "Use TCP keep-alive on the connections of the AWS Batch client.")
     };
 
     public AWSBatchAdaptor() {
@@ -66,25 +162,57 @@ public class AWSBatchAdaptor extends SchedulerAdaptor {
 
     @Override
     public Scheduler createScheduler(String location, Credential credential, Map<String, String> properties) throws XenonException {
-        AWSBatchClientBuilder builder = AWSBatchClientBuilder.standard();
+        XenonProperties xp = new XenonProperties(VALID_PROPERTIES, properties);
+        String username;
+        String password;
         if (credential instanceof PasswordCredential) {
             PasswordCredential pwCred = (PasswordCredential) credential;
-            AWSCredentials awsCredentials = new BasicAWSCredentials(pwCred.getUsername(), new String(pwCred.getPassword()));
-            AWSStaticCredentialsProvider credentialsProvider = new AWSStaticCredentialsProvider(awsCredentials);
-            builder.setCredentials(credentialsProvider);
+            username = pwCred.getUsername();
+            password = new String(pwCred.getPassword());
         } else if (credential instanceof DefaultCredential) {
-            // use builder default
+            username = null;
+            password = null;
         } else {
             throw new InvalidCredentialException(ADAPTOR_NAME, "Password of Default credential required");
         }
+
+        ClientConfiguration configuration = new ClientConfiguration()
+            .withMaxConnections(xp.getIntegerProperty(CLIENT_MAX_CONNECTIONS_PROPERTY))
+            .withConnectionTimeout(xp.getIntegerProperty(CLIENT_CONNECTION_TIMEOUT_PROPERTY))
+            .withSocketTimeout(xp.getIntegerProperty(CLIENT_SOCKET_TIMEOUT_PROPERTY))
+            .withMaxErrorRetry(xp.getIntegerProperty(CLIENT_MAX_ERROR_RETRY_PROPERTY))
+            .withRetryPolicy(AWSBatchUtils.clientRetryPolicy())
+            .withTcpKeepAlive(xp.getBooleanProperty(CLIENT_TCP_KEEP_ALIVE_PROPERTY));
+        // the asynchronous client sends at most as many requests at once as the other operations on many jobs
+        int concurrency = Math.max(1, xp.getIntegerProperty(REQUEST_CONCURRENCY_PROPERTY));
+
+        // Schedulers with the same location, credential and client configuration share a client, the password is only kept as a hash
+        List<Object> key = Arrays.asList(location, username, AWSBatchUtils.credentialHash(password), configuration.getMaxConnections(), configuration.getConnectionTimeout(),
+                configuration.getSocketTimeout(), configuration.getMaxErrorRetry(), configuration.useTcpKeepAlive(), concurrency);
+        AWSBatchAsync client = BatchClients.acquire(key, () -> createClient(location, username, password, configuration, concurrency));
+        try {
+            return new AWSBatchScheduler(getNewUniqueID(), ADAPTOR_NAME, location, credential, client, xp);
+        } catch (XenonException e) {
+            BatchClients.release(client);
+            throw e;
+        }
+    }
+
+    private static AWSBatchAsync createClient(String location, String username, String password, ClientConfiguration configuration, int concurrency) {
+        AWSBatchAsyncClientBuilder builder = AWSBatchAsyncClientBuilder.standard();
+        if (username != null) {
+            AWSCredentials awsCredentials = new BasicAWSCredentials(username, password);
+            AWSStaticCredentialsProvider credentialsProvider = new AWSStaticCredentialsProvider(awsCredentials);
+            builder.setCredentials(credentialsProvider);
+        }
         if (location.matches("^http://.+:[0-9]+$")) {
             builder.setEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(location, "us-east-1"));
         } else {
             builder.setRegion(location);
         }
-        AWSBatch client = builder.build();
-        XenonProperties xp = new XenonProperties(VALID_PROPERTIES, properties);
-        return new AWSBatchScheduler(getNewUniqueID(), ADAPTOR_NAME, location, credential, client, xp);
+        builder.setClientConfiguration(configuration);
+        builder.setExecutorFactory(() -> AWSBatchScheduler.newExecutor("xenon-awsbatch-async-", concurrency));
+        return builder.build();
     }
 
     @Override
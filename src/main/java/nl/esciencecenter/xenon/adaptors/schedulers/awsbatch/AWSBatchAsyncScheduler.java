@@ -0,0 +1,284 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchScheduler.MAX_THROTTLE_RETRIES;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.batch.AWSBatchAsync;
+import com.amazonaws.services.batch.model.ClientException;
+import com.amazonaws.services.batch.model.DescribeJobsRequest;
+import com.amazonaws.services.batch.model.DescribeJobsResult;
+import com.amazonaws.services.batch.model.SubmitJobRequest;
+import com.amazonaws.services.batch.model.SubmitJobResult;
+import com.amazonaws.services.batch.model.TerminateJobRequest;
+import com.amazonaws.services.batch.model.TerminateJobResult;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.schedulers.JobDescription;
+import nl.esciencecenter.xenon.schedulers.JobStatus;
+import nl.esciencecenter.xenon.schedulers.NoSuchJobException;
+import nl.esciencecenter.xenon.schedulers.QueueStatus;
+
+/**
+ * Asynchronous variant of the job operations of an {@link AWSBatchScheduler}, obtained with {@link AWSBatchScheduler#async()}.
+ *
+ * Requests are sent with the asynchronous AWS Batch client, whose fixed pool of {@link AWSBatchAdaptor#REQUEST_CONCURRENCY_PROPERTY} threads
+ * performs the HTTP calls. Waiting for jobs is done by the status poller of the scheduler, and delays for rate limiting, retries and timeouts are
+ * scheduled instead of slept, so no thread is blocked for an outstanding operation. Futures complete exceptionally with the same exceptions as
+ * the corresponding blocking methods of the scheduler.
+ */
+public class AWSBatchAsyncScheduler {
+
+    private interface AsyncCall<Q extends AmazonWebServiceRequest, R> {
+        Future<R> send(Q request, AsyncHandler<Q, R> handler);
+    }
+
+    private final AWSBatchScheduler scheduler;
+
+    private final AWSBatchAsync client;
+
+    private final Executor executor;
+
+    private final RateLimits limits;
+
+    private final JobStatusPoller poller;
+
+    AWSBatchAsyncScheduler(AWSBatchScheduler scheduler, AWSBatchAsync client, Executor executor, RateLimits limits, JobStatusPoller poller) {
+        this.scheduler = scheduler;
+        this.client = client;
+        this.executor = executor;
+        this.limits = limits;
+        this.poller = poller;
+    }
+
+    private static Executor delayed(long delay, TimeUnit unit) {
+        // the delayed task only sends a request, so it runs on the single timer thread of CompletableFuture
+        return CompletableFuture.delayedExecutor(delay, unit, Runnable::run);
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    // Send a request once the bucket allows it, retrying with backoff while the request is throttled by AWS
+    private <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> call(TokenBucket bucket, AsyncCall<Q, R> call, Q request) {
+        return call(bucket, call, request, 0, 0);
+    }
+
+    private <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> call(TokenBucket bucket, AsyncCall<Q, R> call, Q request, int attempt, long previousDelay) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        long delay = bucket.reserve();
+
+        Runnable send = () -> {
+            try {
+                call.send(request, new AsyncHandler<Q, R>() {
+                    @Override
+                    public void onError(Exception e) {
+                        result.completeExceptionally(e);
+                    }
+
+                    @Override
+                    public void onSuccess(Q sent, R response) {
+                        result.complete(response);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // for example when the client has been shut down
+                result.completeExceptionally(e);
+            }
+        };
+        if (delay > 0) {
+            delayed(delay, TimeUnit.NANOSECONDS).execute(send);
+        } else {
+            send.run();
+        }
+
+        return result.handle((response, e) -> {
+            if (e == null) {
+                return CompletableFuture.completedFuture(response);
+            }
+            Throwable cause = unwrap(e);
+            if (attempt < MAX_THROTTLE_RETRIES && cause instanceof AmazonServiceException && AWSBatchUtils.isThrottled((AmazonServiceException) cause)) {
+                long backoff = AWSBatchUtils.backoffDelay(previousDelay);
+                return CompletableFuture.supplyAsync(() -> request, delayed(backoff, TimeUnit.MILLISECONDS))
+                        .thenCompose(r -> call(bucket, call, r, attempt + 1, backoff));
+            }
+            return CompletableFuture.<R> failedFuture(cause);
+        }).thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<QueueStatus> getSubmitQueue(String queueName) {
+        // usually served from the queue cache, but resolving a queue may need blocking requests, so do it on the request pool
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return scheduler.getSubmitQueue(queueName);
+            } catch (XenonException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private CompletableFuture<String> submit(JobDescription description, QueueStatus queue) {
+        SubmitJobRequest request;
+        try {
+            request = AWSBatchUtils.mapToSubmitJobRequest(description, queue.getSchedulerSpecificInformation().get("queue.arn"),
+                    queue.getSchedulerSpecificInformation().get("definition.arn"), AWSBatchScheduler.isMultinode(queue));
+        } catch (XenonException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return this.<SubmitJobRequest, SubmitJobResult> call(limits.submit, client::submitJobAsync, request).thenApply(result -> {
+            try {
+                scheduler.journal(result.getJobId(), queue.getQueueName());
+            } catch (XenonException e) {
+                throw new CompletionException(e);
+            }
+            return result.getJobId();
+        });
+    }
+
+    /**
+     * Submit a batch job, see {@link AWSBatchScheduler#submitBatchJob(JobDescription)}.
+     *
+     * @param description the description of the job
+     * @return a future which completes with the identifier of the submitted job
+     */
+    public CompletableFuture<String> submitBatchJob(JobDescription description) {
+        String queueName = description.getQueueName();
+        return getSubmitQueue(queueName).thenCompose(queue -> submit(description, queue).handle((jobIdentifier, e) -> {
+            if (e == null) {
+                return CompletableFuture.completedFuture(jobIdentifier);
+            }
+            Throwable cause = unwrap(e);
+            if (!(cause instanceof ClientException)) {
+                return CompletableFuture.<String> failedFuture(cause);
+            }
+            // The cached queue or job definition may have been removed, retry once if they resolve to something else now
+            scheduler.invalidateSubmitQueue(queueName);
+            return getSubmitQueue(queueName).thenCompose(current -> {
+                if (AWSBatchScheduler.sameArns(current, queue)) {
+                    return CompletableFuture.<String> failedFuture(cause);
+                }
+                return submit(description, current);
+            });
+        }).thenCompose(Function.identity()));
+    }
+
+    /**
+     * Get the status of a job, see {@link AWSBatchScheduler#getJobStatus(String)}.
+     *
+     * @param jobIdentifier the job
+     * @return a future which completes with the status of the job, or exceptionally with a NoSuchJobException if the job does not exist
+     */
+    public CompletableFuture<JobStatus> getJobStatus(String jobIdentifier) {
+        if (jobIdentifier == null) {
+            throw new IllegalArgumentException("jobidentifier can not be null");
+        }
+        return this.<DescribeJobsRequest, DescribeJobsResult> call(limits.describe, client::describeJobsAsync, new DescribeJobsRequest().withJobs(jobIdentifier)).thenApply(result -> {
+            if (result.getJobs().isEmpty()) {
+                throw new CompletionException(new NoSuchJobException(scheduler.getAdaptorName(), jobIdentifier + " not found"));
+            }
+            return AWSBatchUtils.mapJobStatus(scheduler, result.getJobs().get(0));
+        });
+    }
+
+    /**
+     * Cancel a job, see {@link AWSBatchScheduler#cancelJob(String)}.
+     *
+     * @param jobIdentifier the job
+     * @return a future which completes with the status of the job after it has been cancelled
+     */
+    public CompletableFuture<JobStatus> cancelJob(String jobIdentifier) {
+        return getJobStatus(jobIdentifier).thenCompose(status -> {
+            if (status.isDone()) {
+                return CompletableFuture.completedFuture(status);
+            }
+            TerminateJobRequest request = new TerminateJobRequest().withJobId(jobIdentifier).withReason("Cancelled by Xenon cancelJob call");
+            return this.<TerminateJobRequest, TerminateJobResult> call(limits.cancel, client::terminateJobAsync, request).thenCompose(result -> getJobStatus(jobIdentifier));
+        });
+    }
+
+    /**
+     * Wait until a job is done, see {@link AWSBatchScheduler#whenDone(String)}.
+     *
+     * @param jobIdentifier the job
+     * @param timeout the maximum time to wait in milliseconds, 0 to wait indefinitely
+     * @return a future which completes with the status of the job once it is done, or with its latest status when the timeout expires first
+     */
+    public CompletableFuture<JobStatus> waitUntilDone(String jobIdentifier, long timeout) {
+        return waitUntil(jobIdentifier, timeout, scheduler.whenDone(jobIdentifier));
+    }
+
+    /**
+     * Wait until a job is running or done, see {@link AWSBatchScheduler#whenRunning(String)}.
+     *
+     * @param jobIdentifier the job
+     * @param timeout the maximum time to wait in milliseconds, 0 to wait indefinitely
+     * @return a future which completes with the status of the job once it is running or done, or with its latest status when the timeout expires
+     *         first
+     */
+    public CompletableFuture<JobStatus> waitUntilRunning(String jobIdentifier, long timeout) {
+        return waitUntil(jobIdentifier, timeout, scheduler.whenRunning(jobIdentifier));
+    }
+
+    private CompletableFuture<JobStatus> waitUntil(String jobIdentifier, long timeout, CompletableFuture<JobStatus> watch) {
+        if (timeout < 0) {
+            watch.cancel(false);
+            throw new IllegalArgumentException("Illegal timeout " + timeout);
+        }
+
+        CompletableFuture<JobStatus> result = new CompletableFuture<>();
+        watch.whenComplete((status, e) -> {
+            if (e == null) {
+                result.complete(status);
+            } else {
+                result.completeExceptionally(unwrap(e));
+            }
+        });
+        // stop watching once the result is known, expired or cancelled
+        result.whenComplete((status, e) -> watch.cancel(false));
+
+        if (timeout > 0) {
+            delayed(timeout, TimeUnit.MILLISECONDS).execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                JobStatus latest = poller.getLatest(jobIdentifier);
+                if (latest != null) {
+                    result.complete(latest);
+                    return;
+                }
+                getJobStatus(jobIdentifier).whenComplete((status, e) -> {
+                    if (e == null) {
+                        result.complete(status);
+                    } else {
+                        result.completeExceptionally(unwrap(e));
+                    }
+                });
+            });
+        }
+        return result;
+    }
+}
@@ -16,26 +16,68 @@
 package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
 
 import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.ADAPTOR_NAME;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.JOB_INDEX_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.JOB_INDEX_REFRESH_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.JOB_INDEX_RESCAN_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.JOURNAL_COMPACT_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.JOURNAL_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.POLL_ADAPTIVE_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.QUEUE_ACTIVE_ONLY_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.POLL_DELAY_MAX_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.POLL_DELAY_MIN_PROPERTY;
 import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.POLL_DELAY_PROPERTY;
-import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchUtils.JOBDEFINITION_SEPARATOR;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.POLL_QUEUE_DELAY_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.QUEUE_CACHE_TTL_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.REQUEST_CONCURRENCY_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.STATUS_BATCH_WINDOW_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.STATUS_CACHE_TTL_PROPERTY;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.batch.AWSBatch;
-import com.amazonaws.services.batch.model.DescribeJobDefinitionsRequest;
-import com.amazonaws.services.batch.model.DescribeJobDefinitionsResult;
-import com.amazonaws.services.batch.model.DescribeJobQueuesRequest;
-import com.amazonaws.services.batch.model.DescribeJobQueuesResult;
+import com.amazonaws.services.batch.AWSBatchAsync;
+import com.amazonaws.services.batch.model.ArrayProperties;
+import com.amazonaws.services.batch.model.CancelJobRequest;
+import com.amazonaws.services.batch.model.ClientException;
+import com.amazonaws.services.batch.model.ComputeEnvironmentDetail;
+import com.amazonaws.services.batch.model.DescribeComputeEnvironmentsRequest;
+import com.amazonaws.services.batch.model.DescribeComputeEnvironmentsResult;
 import com.amazonaws.services.batch.model.DescribeJobsRequest;
-import com.amazonaws.services.batch.model.DescribeJobsResult;
 import com.amazonaws.services.batch.model.JobDefinition;
 import com.amazonaws.services.batch.model.JobDetail;
 import com.amazonaws.services.batch.model.JobQueueDetail;
@@ -46,12 +88,15 @@ import com.amazonaws.services.batch.model.SubmitJobRequest;
 import com.amazonaws.services.batch.model.SubmitJobResult;
 import com.amazonaws.services.batch.model.TerminateJobRequest;
 
+import nl.esciencecenter.xenon.InvalidPropertyException;
 import nl.esciencecenter.xenon.UnsupportedOperationException;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.XenonProperties;
 import nl.esciencecenter.xenon.adaptors.schedulers.Deadline;
+import nl.esciencecenter.xenon.adaptors.schedulers.JobStatusImplementation;
 import nl.esciencecenter.xenon.credentials.Credential;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.schedulers.InvalidJobDescriptionException;
 import nl.esciencecenter.xenon.schedulers.JobDescription;
 import nl.esciencecenter.xenon.schedulers.JobStatus;
 import nl.esciencecenter.xenon.schedulers.NoSuchJobException;
@@ -61,33 +106,157 @@ import nl.esciencecenter.xenon.schedulers.Scheduler;
 import nl.esciencecenter.xenon.schedulers.Streams;
 
 public class AWSBatchScheduler extends Scheduler {
+    /** Maximum number of job identifiers in a single DescribeJobs request */
+    static final int DESCRIBE_JOBS_LIMIT = 100;
+    /** Maximum number of times a throttled request is retried */
+    static final int MAX_THROTTLE_RETRIES = 8;
+    /** Number of job descriptions of a bulk submission queued per thread, which bounds how far ahead the input is read */
+    private static final int QUEUED_SUBMISSIONS_PER_THREAD = 16;
+
     private final AWSBatch client;
-    private boolean isShutdown = false;
+    private final int concurrency;
+    private final ExecutorService executor;
+    private final RateLimits limits;
+    private final JobStatusCoalescer statuses;
+    private final JobIndex index;
+    private final SubmitJournal journal;
+    private final JobStatusPoller poller;
+    // Queues used for submitting by queue name, the default queue is cached under the empty name
+    private final ExpiringCache<String, QueueStatus> submitQueues;
+    private final QueueCatalogue catalogue;
+    private final AWSBatchAsyncScheduler async;
+    private volatile boolean isShutdown = false;
 
-    public AWSBatchScheduler(String uniqueID, String adaptorName, String location, Credential credential, AWSBatch client, XenonProperties properties) {
+    public AWSBatchScheduler(String uniqueID, String adaptorName, String location, Credential credential, AWSBatch client, XenonProperties properties) throws XenonException {
         super(uniqueID, adaptorName, location, credential, properties);
         this.client = client;
+        this.concurrency = properties.getIntegerProperty(REQUEST_CONCURRENCY_PROPERTY);
+        if (concurrency < 1) {
+            throw new InvalidPropertyException(ADAPTOR_NAME, REQUEST_CONCURRENCY_PROPERTY + " should be at least 1, got " + concurrency);
+        }
+        this.executor = newExecutor("xenon-awsbatch-", concurrency);
+        this.limits = new RateLimits(location, credential, properties);
+        if (properties.getBooleanProperty(JOB_INDEX_PROPERTY)) {
+            this.index = new JobIndex(this, properties.getLongProperty(JOB_INDEX_REFRESH_PROPERTY), properties.getLongProperty(JOB_INDEX_RESCAN_PROPERTY));
+        } else {
+            this.index = null;
+        }
+        String journalPath = properties.getStringProperty(JOURNAL_PROPERTY);
+        if (journalPath.isEmpty()) {
+            this.journal = null;
+        } else {
+            try {
+                this.journal = new SubmitJournal(Paths.get(journalPath), properties.getLongProperty(JOURNAL_COMPACT_PROPERTY));
+            } catch (IOException e) {
+                executor.shutdownNow();
+                throw new XenonException(ADAPTOR_NAME, "Unable to open journal " + journalPath + ": " + e.getMessage(), e);
+            }
+        }
+        this.statuses = new JobStatusCoalescer(this::describeJobs, properties.getLongProperty(STATUS_BATCH_WINDOW_PROPERTY),
+                properties.getLongProperty(STATUS_CACHE_TTL_PROPERTY));
+        this.submitQueues = new ExpiringCache<>(properties.getLongProperty(QUEUE_CACHE_TTL_PROPERTY));
+        this.catalogue = new QueueCatalogue(request -> call(limits.describe, () -> client.describeJobQueues(request)),
+                request -> call(limits.describe, () -> client.describeJobDefinitions(request)), executor, properties.getLongProperty(QUEUE_CACHE_TTL_PROPERTY),
+                properties.getBooleanProperty(QUEUE_ACTIVE_ONLY_PROPERTY));
+        PollPolicy pollPolicy;
+        // An explicitly set poll delay keeps meaning a fixed delay, unless adaptive polling is explicitly enabled as well
+        boolean adaptive = properties.getBooleanProperty(POLL_ADAPTIVE_PROPERTY)
+                && (properties.propertySet(POLL_ADAPTIVE_PROPERTY) || !properties.propertySet(POLL_DELAY_PROPERTY));
+        if (adaptive) {
+            pollPolicy = PollPolicy.adaptive(properties.getLongProperty(POLL_DELAY_MIN_PROPERTY), properties.getLongProperty(POLL_DELAY_MAX_PROPERTY));
+        } else {
+            pollPolicy = PollPolicy.fixed(properties.getLongProperty(POLL_DELAY_PROPERTY));
+        }
+        this.poller = new JobStatusPoller(this, pollPolicy, properties.getLongProperty(POLL_QUEUE_DELAY_PROPERTY));
+        if (client instanceof AWSBatchAsync) {
+            this.async = new AWSBatchAsyncScheduler(this, (AWSBatchAsync) client, executor, limits, poller);
+        } else {
+            this.async = null;
+        }
     }
 
-    @Override
-    public String[] getQueueNames() throws XenonException {
-        DescribeJobDefinitionsResult jobDefinitions = client.describeJobDefinitions(new DescribeJobDefinitionsRequest());
-        DescribeJobQueuesResult jobQueues = client.describeJobQueues(new DescribeJobQueuesRequest());
-        List<String> queueNames = new ArrayList<>();
-        for (JobQueueDetail queue : jobQueues.getJobQueues()) {
-            for (JobDefinition jobDefinition : jobDefinitions.getJobDefinitions()) {
-                String queueName = jobDefinition.getJobDefinitionName() + JOBDEFINITION_SEPARATOR + jobDefinition.getRevision() + AWSBatchUtils.QUEUE_SEPARATOR + queue.getJobQueueName();
-                queueNames.add(queueName);
+    /**
+     * Get the asynchronous variant of the job operations of this scheduler. Its futures share the request pool, rate limits and status poller of
+     * this scheduler.
+     *
+     * @return the asynchronous scheduler
+     * @throws UnsupportedOperationException if this scheduler was not created with an asynchronous AWS Batch client
+     */
+    public AWSBatchAsyncScheduler async() throws UnsupportedOperationException {
+        if (async == null) {
+            throw new UnsupportedOperationException(getAdaptorName(), "Scheduler has no asynchronous AWS Batch client");
+        }
+        return async;
+    }
+
+    /**
+     * Get the queueing delays of the rate limits of the AWS Batch APIs, which are shared with the other schedulers of the same account, see
+     * {@link AWSBatchAdaptor#SUBMIT_RATE_PROPERTY}. A growing delay means requests are made faster than the limit allows.
+     *
+     * @return the time in milliseconds a request would currently wait before it is sent, by API: submit, describe, list and cancel
+     */
+    public Map<String, Long> getRateLimitDelays() {
+        return limits.getQueueingDelays();
+    }
+
+    // Send a request once the bucket allows it, retrying with backoff while the request is throttled by AWS
+    private <T> T call(TokenBucket bucket, Supplier<T> request) throws XenonException {
+        long delay = 0;
+        for (int attempt = 0;; attempt++) {
+            try {
+                bucket.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XenonException(getAdaptorName(), "Interrupted while waiting to send request", e);
+            }
+            try {
+                return request.get();
+            } catch (AmazonServiceException e) {
+                if (attempt >= MAX_THROTTLE_RETRIES || !AWSBatchUtils.isThrottled(e)) {
+                    throw e;
+                }
+            }
+            delay = AWSBatchUtils.backoffDelay(delay);
+            if (AWSBatchUtils.sleep(delay)) {
+                throw new XenonException(getAdaptorName(), "Interrupted while waiting to retry throttled request");
             }
         }
+    }
+
+    static ExecutorService newExecutor(String namePrefix, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, namePrefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
-        return queueNames.toArray(String[]::new);
+    @Override
+    public String[] getQueueNames() throws XenonException {
+        return catalogue.get().queueNames.clone();
     }
 
     @Override
     public void close() {
-        client.shutdown();
-        isShutdown = true;
+        synchronized (this) {
+            if (isShutdown) {
+                // releasing the client again would shut it down while other schedulers still use it
+                return;
+            }
+            isShutdown = true;
+        }
+        poller.close();
+        executor.shutdownNow();
+        // the client may still be used by other schedulers
+        BatchClients.release(client);
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // every line was already flushed
+            }
+        }
     }
 
     @Override
@@ -108,39 +277,150 @@ public class AWSBatchScheduler extends Scheduler {
 
     @Override
     public String[] getJobs(String... queueNames) throws XenonException {
+        Set<String> jobQueueNames = getJobQueueNames(queueNames);
+        if (index != null) {
+            List<String> jobIdentifiers = new ArrayList<>();
+            for (String jobQueueName : jobQueueNames) {
+                jobIdentifiers.addAll(index.getJobs(jobQueueName));
+            }
+            return jobIdentifiers.toArray(String[]::new);
+        }
+        List<ListJobsRequest> requests = listJobsRequests(jobQueueNames, JobIndex.ALL_STATES);
+
+        // List the jobs of every combination of queue and status concurrently
+        List<Future<List<String>>> futures = new ArrayList<>();
+        for (ListJobsRequest request : requests) {
+            futures.add(executor.submit(() -> {
+                List<String> jobIdentifiers = new ArrayList<>();
+                JobPages pages = new JobPages(List.of(request));
+                while (pages.hasNext()) {
+                    jobIdentifiers.add(pages.next().getJobId());
+                }
+                return jobIdentifiers;
+            }));
+        }
+
         List<String> jobIdentifiers = new ArrayList<>();
-        String[] allQueueNames = getQueueNames();
+        try {
+            for (Future<List<String>> future : futures) {
+                jobIdentifiers.addAll(future.get());
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new XenonException(getAdaptorName(), "Unable to list jobs: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new XenonException(getAdaptorName(), "Interrupted while listing jobs", e);
+        }
+        return jobIdentifiers.toArray(String[]::new);
+    }
+
+    /**
+     * Get the jobs in queues as a lazily paged stream. A page of at most 100 job identifiers is requested when the stream needs it, so the jobs are
+     * never all in memory at the same time. The queues and job states are listed one after another, in the same order as by {@link #getJobs}.
+     *
+     * @param queueNames the names of the queues, or none for all queues
+     * @return the identifiers of the jobs in the queues
+     * @throws NoSuchQueueException if one of the queues does not exist
+     * @throws XenonException if the queues could not be retrieved
+     */
+    public Stream<String> streamJobs(String... queueNames) throws XenonException {
+        return streamJobSummaries(queueNames).map(JobSummary::getJobId);
+    }
+
+    // Same as streamJobs, but with the summaries of the jobs
+    Stream<JobSummary> streamJobSummaries(String... queueNames) throws XenonException {
+        return listJobSummaries(getJobQueueNames(queueNames), JobIndex.ALL_STATES);
+    }
+
+    // Lazily list the jobs in some states of AWS Batch job queues
+    Stream<JobSummary> listJobSummaries(Collection<String> jobQueueNames, List<com.amazonaws.services.batch.model.JobStatus> states) {
+        JobPages pages = new JobPages(listJobsRequests(jobQueueNames, states));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    // Get the AWS Batch job queues of queues, which are combinations of job definitions and job queues
+    private Set<String> getJobQueueNames(String... queueNames) throws XenonException {
+        QueueCatalogue.Snapshot snapshot = catalogue.get();
         if (queueNames == null || queueNames.length == 0) {
             // use all queues when no selection is given
-            queueNames = allQueueNames;
+            queueNames = snapshot.queueNames.clone();
         }
         // check for invalid queues
         Set<String> invalidQueues = new HashSet<>(Set.of(queueNames));
-        invalidQueues.removeAll(Set.of(allQueueNames));
+        invalidQueues.removeAll(Set.of(snapshot.queueNames));
+        if (!invalidQueues.isEmpty()) {
+            // The queues may have been created after the catalogue was loaded
+            invalidQueues.removeAll(Set.of(catalogue.load(snapshot).queueNames));
+        }
         if (!invalidQueues.isEmpty()) {
             throw new NoSuchQueueException(ADAPTOR_NAME, "Invalid queues given: " + Arrays.toString(queueNames));
         }
-        Set<com.amazonaws.services.batch.model.JobStatus> statusFilters = Set.of(
-            com.amazonaws.services.batch.model.JobStatus.SUBMITTED,
-            com.amazonaws.services.batch.model.JobStatus.PENDING,
-            com.amazonaws.services.batch.model.JobStatus.RUNNABLE,
-            com.amazonaws.services.batch.model.JobStatus.STARTING,
-            com.amazonaws.services.batch.model.JobStatus.RUNNING,
-            com.amazonaws.services.batch.model.JobStatus.SUCCEEDED,
-            com.amazonaws.services.batch.model.JobStatus.FAILED
-        );
-        Set<String> jobQueueNames = Arrays.stream(queueNames).map(q -> q.split(AWSBatchUtils.QUEUE_SEPARATOR)[1]).collect(Collectors.toSet());
+        return Arrays.stream(queueNames).map(q -> q.split(AWSBatchUtils.QUEUE_SEPARATOR)[1]).collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    // Create a ListJobs request for every combination of job queue and status
+    private List<ListJobsRequest> listJobsRequests(Collection<String> jobQueueNames, List<com.amazonaws.services.batch.model.JobStatus> statusFilters) {
+        List<ListJobsRequest> requests = new ArrayList<>();
         for (String jobQueueName: jobQueueNames) {
             for (com.amazonaws.services.batch.model.JobStatus statusFilter : statusFilters) {
-                ListJobsResult result = client.listJobs(
-                    new ListJobsRequest().withJobStatus(statusFilter).withJobQueue(jobQueueName)
-                );
-                List<String> qJobs = result.getJobSummaryList().stream()
-                    .map(JobSummary::getJobId).collect(Collectors.toList());
-                jobIdentifiers.addAll(qJobs);
+                requests.add(new ListJobsRequest().withJobStatus(statusFilter).withJobQueue(jobQueueName));
             }
         }
-        return jobIdentifiers.toArray(String[]::new);
+        return requests;
+    }
+
+    /**
+     * Iterates over the jobs returned by a sequence of ListJobs requests, following the next token of each request to its last page.
+     * Pages are requested when needed.
+     */
+    private class JobPages implements Iterator<JobSummary> {
+        private final Iterator<ListJobsRequest> requests;
+        private ListJobsRequest request;
+        private Iterator<JobSummary> page = Collections.emptyIterator();
+
+        JobPages(List<ListJobsRequest> requests) {
+            this.requests = requests.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext()) {
+                if (request == null) {
+                    if (!requests.hasNext()) {
+                        return false;
+                    }
+                    request = requests.next().clone();
+                }
+                ListJobsResult result;
+                try {
+                    ListJobsRequest current = request;
+                    result = call(limits.list, () -> client.listJobs(current));
+                } catch (XenonException e) {
+                    // only thrown when interrupted
+                    throw new CancellationException(e.getMessage());
+                }
+                page = result.getJobSummaryList().iterator();
+                if (result.getNextToken() == null) {
+                    request = null;
+                } else {
+                    request.setNextToken(result.getNextToken());
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public JobSummary next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more jobs");
+            }
+            return page.next();
+        }
     }
 
     @Override
@@ -148,17 +428,34 @@ public class AWSBatchScheduler extends Scheduler {
         if (queueName == null) {
             throw new IllegalArgumentException("Queue name can not be null");
         }
-        try {
-            // Strip job definition from queue name
-            String[] queueParts = queueName.split(AWSBatchUtils.QUEUE_SEPARATOR);
-            String jobDefinitionName = queueParts[0].split(JOBDEFINITION_SEPARATOR)[0];
-            String jobQueueName = queueParts[1];
-            JobQueueDetail jobQueueDetail = client.describeJobQueues(new DescribeJobQueuesRequest().withJobQueues(jobQueueName)).getJobQueues().get(0);
-            JobDefinition jobDefinition = client.describeJobDefinitions(new DescribeJobDefinitionsRequest().withJobDefinitions(jobDefinitionName)).getJobDefinitions().get(0);
-            return AWSBatchUtils.mapToQueueStatus(this, jobQueueDetail, jobDefinition);
-        } catch (IndexOutOfBoundsException e ) {
+        return getQueueStatus(catalogue.get(), queueName);
+    }
+
+    private QueueStatus getQueueStatus(QueueCatalogue.Snapshot snapshot, String queueName) throws XenonException {
+        String[] queueParts = queueName.split(AWSBatchUtils.QUEUE_SEPARATOR);
+        if (queueParts.length != 2) {
             throw new NoSuchQueueException(ADAPTOR_NAME, "Queue `" + queueName + "` does not exist");
         }
+        JobQueueDetail jobQueueDetail = snapshot.queues.get(queueParts[1]);
+        JobDefinition jobDefinition = snapshot.findDefinition(queueParts[0]);
+        if (jobQueueDetail == null || jobDefinition == null) {
+            // The queue or job definition may have been created after the catalogue was loaded
+            QueueCatalogue.Snapshot current = catalogue.load(snapshot);
+            jobQueueDetail = current.queues.get(queueParts[1]);
+            jobDefinition = current.findDefinition(queueParts[0]);
+            if (jobQueueDetail == null || jobDefinition == null) {
+                throw new NoSuchQueueException(ADAPTOR_NAME, "Queue `" + queueName + "` does not exist");
+            }
+        }
+        Map<String, Integer> jobCounts = null;
+        if (index != null) {
+            try {
+                jobCounts = index.countJobs(queueParts[1]);
+            } catch (XenonException e) {
+                // the status is still useful without counts
+            }
+        }
+        return AWSBatchUtils.mapToQueueStatus(this, jobQueueDetail, jobDefinition, jobCounts);
     }
 
     @Override
@@ -166,43 +463,380 @@ public class AWSBatchScheduler extends Scheduler {
         if (queueNames == null) {
             throw new IllegalArgumentException("Queue name can not be null");
         }
+        QueueCatalogue.Snapshot snapshot = catalogue.get();
         if (queueNames.length == 0) {
             // use all queues when no selection is given
-            queueNames = getQueueNames();
+            queueNames = snapshot.queueNames;
         }
-        List<String> finalQueueNameList = List.of(queueNames);
-        Supplier<Stream<String[]>> qstream = () -> finalQueueNameList.stream().map(q -> q.split(AWSBatchUtils.QUEUE_SEPARATOR));
-        Set<String> defs2fetch = qstream.get().map(q -> q[0].split(JOBDEFINITION_SEPARATOR)[0]).collect(Collectors.toSet());
-        Set<String> queues2fetch = qstream.get().map(q -> q[1]).collect(Collectors.toSet());
+        QueueStatus[] result = new QueueStatus[queueNames.length];
+        for (int i = 0; i < queueNames.length; i++) {
+            result[i] = getQueueStatus(snapshot, queueNames[i]);
+        }
+        return result;
+    }
 
-        Map<String, JobQueueDetail> queues = client.describeJobQueues(new DescribeJobQueuesRequest().withJobQueues(queues2fetch)).getJobQueues().stream().collect(
-            Collectors.toMap(JobQueueDetail::getJobQueueName, q -> q)
-        );
-        Map<String, JobDefinition> definitions = client.describeJobDefinitions(new DescribeJobDefinitionsRequest().withJobDefinitions(defs2fetch)).getJobDefinitions().stream().collect(
-            Collectors.toMap(d -> d.getJobDefinitionName() + JOBDEFINITION_SEPARATOR + d.getRevision(), d -> d)
-        );
-        return qstream.get().map(qp -> AWSBatchUtils.mapToQueueStatus(this, queues.get(qp[1]), definitions.get(qp[0]))).toArray(QueueStatus[]::new);
+    /**
+     * Forget the cached job queues and job definitions, for example after registering a new revision of a job definition. They are described
+     * again on next use.
+     */
+    public void invalidateQueueCache() {
+        catalogue.invalidate();
+        submitQueues.invalidateAll();
     }
 
-    @Override
-    public String submitBatchJob(JobDescription description) throws XenonException {
-        String fullQueueName;
-        if (description.getQueueName() == null) {
-            fullQueueName = getDefaultQueueName();
+    /**
+     * Determine the load of the AWS Batch job queue of a queue, see {@link QueueRouter}. The waiting jobs are counted with the job index when it is
+     * enabled, otherwise by listing them. The capacity is the maximum number of vCPUs of the enabled compute environments of the job queue.
+     *
+     * @param queueName the queue
+     * @return the load of its job queue
+     * @throws NoSuchQueueException if the queue does not exist
+     * @throws XenonException if the jobs or compute environments could not be retrieved
+     */
+    QueueLoad getQueueLoad(String queueName) throws XenonException {
+        String jobQueueName = getQueueStatus(queueName).getSchedulerSpecificInformation().get("queue.name");
+        JobQueueDetail jobQueue = catalogue.get().queues.get(jobQueueName);
+        if (jobQueue == null) {
+            throw new NoSuchQueueException(ADAPTOR_NAME, "Queue `" + queueName + "` does not exist");
+        }
+
+        int waiting = 0;
+        if (index != null) {
+            Map<String, Integer> counts = index.countJobs(jobQueueName);
+            for (com.amazonaws.services.batch.model.JobStatus state : QueueLoad.WAITING_STATES) {
+                waiting += counts.get(state.toString());
+            }
         } else {
-            fullQueueName = description.getQueueName();
+            try (Stream<JobSummary> jobs = listJobSummaries(List.of(jobQueueName), QueueLoad.WAITING_STATES)) {
+                waiting = (int) jobs.count();
+            } catch (CancellationException e) {
+                throw new XenonException(getAdaptorName(), "Interrupted while listing jobs", e);
+            }
         }
+
+        List<String> computeEnvironments = new ArrayList<>();
+        jobQueue.getComputeEnvironmentOrder().forEach(order -> computeEnvironments.add(order.getComputeEnvironment()));
+        int capacity = 0;
+        DescribeComputeEnvironmentsRequest request = new DescribeComputeEnvironmentsRequest().withComputeEnvironments(computeEnvironments);
+        do {
+            DescribeComputeEnvironmentsResult result = call(limits.describe, () -> client.describeComputeEnvironments(request));
+            for (ComputeEnvironmentDetail computeEnvironment : result.getComputeEnvironments()) {
+                // unmanaged compute environments have no known capacity
+                if ("ENABLED".equals(computeEnvironment.getState()) && computeEnvironment.getComputeResources() != null
+                        && computeEnvironment.getComputeResources().getMaxvCpus() != null) {
+                    capacity += computeEnvironment.getComputeResources().getMaxvCpus();
+                }
+            }
+            request.setNextToken(result.getNextToken());
+        } while (request.getNextToken() != null);
+
+        int priority = jobQueue.getPriority() == null ? 0 : jobQueue.getPriority();
+        return new QueueLoad(waiting, priority, capacity, "ENABLED".equals(jobQueue.getState()));
+    }
+
+    // Get the queue to submit to, from the cache when possible
+    QueueStatus getSubmitQueue(String queueName) throws XenonException {
+        return submitQueues.get(queueName == null ? "" : queueName, name -> getQueueStatus(name.isEmpty() ? getDefaultQueueName() : name));
+    }
+
+    void invalidateSubmitQueue(String queueName) {
+        submitQueues.invalidate(queueName == null ? "" : queueName);
+    }
+
+    @Override
+    public String submitBatchJob(JobDescription description) throws XenonException {
+        return submit(description.getQueueName(), (jobQueue, jobDefinition, multinode) -> AWSBatchUtils.mapToSubmitJobRequest(description, jobQueue, jobDefinition, multinode));
+    }
+
+    private interface RequestMapper {
+        SubmitJobRequest map(String jobQueue, String jobDefinition, boolean multinode) throws XenonException;
+    }
+
+    private String submit(String queueName, RequestMapper mapper) throws XenonException {
         // Moto accepts arns, but rejects names so translate names to arns
-        QueueStatus queue = getQueueStatus(fullQueueName);
+        QueueStatus queue = getSubmitQueue(queueName);
+        try {
+            return submit(queue, mapper);
+        } catch (ClientException e) {
+            // The cached queue or job definition may have been removed, retry once if they resolve to something else now
+            invalidateSubmitQueue(queueName);
+            QueueStatus current = getSubmitQueue(queueName);
+            if (sameArns(current, queue)) {
+                throw e;
+            }
+            return submit(current, mapper);
+        }
+    }
+
+    // If the job definition of a queue is for multi-node parallel jobs
+    static boolean isMultinode(QueueStatus queue) {
+        return "multinode".equals(queue.getSchedulerSpecificInformation().get("definition.type"));
+    }
+
+    static boolean sameArns(QueueStatus a, QueueStatus b) {
+        Map<String, String> aInfo = a.getSchedulerSpecificInformation();
+        Map<String, String> bInfo = b.getSchedulerSpecificInformation();
+        return aInfo.get("queue.arn").equals(bInfo.get("queue.arn")) && aInfo.get("definition.arn").equals(bInfo.get("definition.arn"));
+    }
+
+    private String submit(QueueStatus queue, RequestMapper mapper) throws XenonException {
         String jobDefinition = queue.getSchedulerSpecificInformation().get("definition.arn");
         String jobQueue = queue.getSchedulerSpecificInformation().get("queue.arn");
 
-        SubmitJobRequest submitJobRequest = AWSBatchUtils.mapToSubmitJobRequest(description, jobQueue, jobDefinition);
+        SubmitJobRequest submitJobRequest = mapper.map(jobQueue, jobDefinition, isMultinode(queue));
 
-        SubmitJobResult result = client.submitJob(submitJobRequest);
+        SubmitJobResult result = call(limits.submit, () -> client.submitJob(submitJobRequest));
+        journal(result.getJobId(), queue.getQueueName());
         return result.getJobId();
     }
 
+    // Append a submitted job to the journal, and remove the done jobs from it in the background when that is due
+    void journal(String jobIdentifier, String queueName) throws XenonException {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.append(jobIdentifier, queueName, System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new XenonException(getAdaptorName(), "Job " + jobIdentifier + " was submitted but could not be journaled: " + e.getMessage(), e);
+        }
+        if (journal.claimCompaction()) {
+            // not on the request pool, describing the jobs needs its threads
+            Thread thread = new Thread(this::compactJournal, "xenon-awsbatch-journal");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void compactJournal() {
+        boolean compacted = false;
+        try {
+            if (!isOpen()) {
+                return;
+            }
+            List<String> jobIdentifiers = new ArrayList<>();
+            journal.getEntries().forEach(entry -> jobIdentifiers.add(entry.jobIdentifier));
+            compactJournal(getJobStatuses(jobIdentifiers.toArray(new String[0])));
+            compacted = true;
+        } catch (RejectedExecutionException e) {
+            // the request pool was shut down because the scheduler was closed
+        } finally {
+            // for example when the scheduler was closed while describing the jobs, a later submission claims the compaction again
+            if (!compacted) {
+                journal.releaseCompaction();
+            }
+        }
+    }
+
+    // Remove the jobs which are done or do not exist anymore from the journal, jobs whose status is unknown are kept
+    private void compactJournal(JobStatus[] statuses) {
+        List<String> done = new ArrayList<>();
+        for (JobStatus status : statuses) {
+            if (status.isDone() || status.getException() instanceof NoSuchJobException) {
+                done.add(status.getJobIdentifier());
+            }
+        }
+        try {
+            journal.compact(done);
+        } catch (IOException e) {
+            // the journal still contains all jobs, the next compaction tries again
+        }
+    }
+
+    /**
+     * Get the status of the jobs in the journal, see {@link AWSBatchAdaptor#JOURNAL_PROPERTY}. This finds the jobs submitted before a restart
+     * without listing all job queues. The jobs which are done or do not exist anymore are removed from the journal.
+     *
+     * @return the status of each job in the journal, in the order they were submitted
+     * @throws XenonException if this scheduler has no journal
+     */
+    public JobStatus[] recoverJobs() throws XenonException {
+        if (journal == null) {
+            throw new XenonException(getAdaptorName(), "Scheduler has no journal, set " + JOURNAL_PROPERTY);
+        }
+        List<String> jobIdentifiers = new ArrayList<>();
+        journal.getEntries().forEach(entry -> jobIdentifiers.add(entry.jobIdentifier));
+        JobStatus[] result = getJobStatuses(jobIdentifiers.toArray(new String[0]));
+        if (journal.claimCompaction()) {
+            compactJournal(result);
+        }
+        return result;
+    }
+
+    /**
+     * Submit many batch jobs concurrently. The descriptions are mapped to requests and submitted on the request pool of this scheduler, at most
+     * {@link AWSBatchAdaptor#SUBMIT_RATE_PROPERTY} per second, and throttled submissions are retried with backoff. The stream is consumed lazily,
+     * only a bounded number of descriptions is read ahead of the submissions.
+     *
+     * A description which can not be submitted does not stop the submission of the others, its error is returned in the result instead.
+     *
+     * @param descriptions the descriptions of the jobs to submit
+     * @return the job identifiers and errors, in the order of the descriptions
+     * @throws BulkSubmitException if reading the descriptions fails, after the descriptions read before the failure have been submitted
+     */
+    public BulkSubmitResult submitBatchJobs(Stream<JobDescription> descriptions) throws XenonException {
+        if (descriptions == null) {
+            throw new IllegalArgumentException("Job descriptions can not be null");
+        }
+        Semaphore queued = new Semaphore(concurrency * QUEUED_SUBMISSIONS_PER_THREAD);
+        List<Future<String>> futures = new ArrayList<>();
+        boolean interrupted = false;
+        RuntimeException readError = null;
+
+        try {
+            Iterator<JobDescription> iterator = descriptions.iterator();
+            while (iterator.hasNext()) {
+                JobDescription description = iterator.next();
+                try {
+                    queued.acquire();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+                futures.add(executor.submit(() -> {
+                    try {
+                        if (description == null) {
+                            throw new IllegalArgumentException("Job description can not be null");
+                        }
+                        return submitBatchJob(description);
+                    } finally {
+                        queued.release();
+                    }
+                }));
+            }
+        } catch (RuntimeException e) {
+            // the jobs submitted so far are still collected, so their identifiers are not lost
+            readError = e;
+        }
+
+        String[] jobIdentifiers = new String[futures.size()];
+        XenonException[] errors = new XenonException[futures.size()];
+        for (int i = 0; i < futures.size(); i++) {
+            Future<String> future = futures.get(i);
+            if (interrupted) {
+                future.cancel(true);
+            }
+            try {
+                jobIdentifiers[i] = future.get();
+            } catch (ExecutionException e) {
+                errors[i] = toXenonException(e.getCause());
+            } catch (InterruptedException | CancellationException e) {
+                interrupted = true;
+                future.cancel(true);
+                errors[i] = new XenonException(getAdaptorName(), "Interrupted while submitting, job may or may not have been submitted");
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        BulkSubmitResult result = new BulkSubmitResult(jobIdentifiers, errors);
+        if (readError != null) {
+            throw new BulkSubmitException(getAdaptorName(), "Stopped reading job descriptions after " + futures.size() + " submissions: " + readError.getMessage(),
+                    readError, result);
+        }
+        return result;
+    }
+
+    /**
+     * Submit many batch jobs, optionally coalescing jobs into array jobs.
+     *
+     * When coalescing, descriptions which only differ in their arguments and environment are submitted as a single AWS Batch array job, with up to
+     * 10000 children per array job. Each child runs a generated shell script which selects the executable, arguments and environment of its
+     * description using AWS_BATCH_JOB_ARRAY_INDEX, so the container image must provide /bin/sh. The identifier of a child job is the identifier of
+     * the array job followed by ':' and the index of the child, which can be used like any other job identifier.
+     *
+     * Only descriptions with an executable, a single task and no scheduler arguments are coalesced, others are submitted on their own. The stream
+     * is read completely before submitting, to find the descriptions which can be coalesced.
+     *
+     * @param descriptions the descriptions of the jobs to submit
+     * @param coalesce if similar jobs should be submitted as array jobs
+     * @return the job identifiers and errors, in the order of the descriptions
+     * @throws BulkSubmitException if reading the descriptions fails, when coalescing no job has been submitted then
+     */
+    public BulkSubmitResult submitBatchJobs(Stream<JobDescription> descriptions, boolean coalesce) throws XenonException {
+        if (!coalesce) {
+            return submitBatchJobs(descriptions);
+        }
+        if (descriptions == null) {
+            throw new IllegalArgumentException("Job descriptions can not be null");
+        }
+        List<JobDescription> all;
+        try {
+            all = descriptions.collect(Collectors.toList());
+        } catch (RuntimeException e) {
+            throw new BulkSubmitException(getAdaptorName(), "Unable to read job descriptions: " + e.getMessage(), e,
+                    new BulkSubmitResult(new String[0], new XenonException[0]));
+        }
+        List<List<Integer>> arrays = ArrayJobCoalescer.partition(all);
+        String[] jobIdentifiers = new String[all.size()];
+        XenonException[] errors = new XenonException[all.size()];
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (List<Integer> array : arrays) {
+            futures.add(executor.submit(() -> {
+                if (array.size() == 1) {
+                    JobDescription description = all.get(array.get(0));
+                    if (description == null) {
+                        throw new IllegalArgumentException("Job description can not be null");
+                    }
+                    jobIdentifiers[array.get(0)] = submitBatchJob(description);
+                } else {
+                    List<JobDescription> children = array.stream().map(all::get).collect(Collectors.toList());
+                    String arrayJobIdentifier = submitArrayJob(children);
+                    for (int i = 0; i < array.size(); i++) {
+                        jobIdentifiers[array.get(i)] = arrayJobIdentifier + ArrayJobCoalescer.CHILD_SEPARATOR + i;
+                    }
+                }
+                return null;
+            }));
+        }
+
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<?> future = futures.get(i);
+            XenonException error = null;
+            if (interrupted) {
+                future.cancel(true);
+            }
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                error = toXenonException(e.getCause());
+            } catch (InterruptedException | CancellationException e) {
+                interrupted = true;
+                future.cancel(true);
+                error = new XenonException(getAdaptorName(), "Interrupted while submitting, job may or may not have been submitted");
+            }
+            if (error != null) {
+                for (int index : arrays.get(i)) {
+                    jobIdentifiers[index] = null;
+                    errors[index] = error;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return new BulkSubmitResult(jobIdentifiers, errors);
+    }
+
+    private String submitArrayJob(List<JobDescription> children) throws XenonException {
+        JobDescription arrayDescription = ArrayJobCoalescer.arrayDescription(children);
+        return submit(arrayDescription.getQueueName(), (jobQueue, jobDefinition, multinode) -> {
+            if (multinode) {
+                throw new InvalidJobDescriptionException(getAdaptorName(), "AWS Batch can not run multi-node parallel jobs as an array job, do not coalesce them");
+            }
+            return AWSBatchUtils.mapToSubmitJobRequest(arrayDescription, jobQueue, jobDefinition).withArrayProperties(new ArrayProperties().withSize(children.size()));
+        });
+    }
+
+    private XenonException toXenonException(Throwable e) {
+        if (e instanceof XenonException) {
+            return (XenonException) e;
+        }
+        return new XenonException(getAdaptorName(), "Unable to submit job: " + e.getMessage(), e);
+    }
+
     @Override
     public Streams submitInteractiveJob(JobDescription description) throws XenonException {
         throw new UnsupportedOperationException(getAdaptorName(), "AWS Batch does not support submitInteractiveJob");
@@ -213,65 +847,356 @@ public class AWSBatchScheduler extends Scheduler {
         if (jobIdentifier == null) {
             throw new IllegalArgumentException("jobidentifier can not be null");
         }
-        DescribeJobsRequest request = new DescribeJobsRequest().withJobs(jobIdentifier);
-        DescribeJobsResult result = client.describeJobs(request);
-        if (result.getJobs().isEmpty()) {
+        // concurrent lookups of the same job share a request, see AWSBatchAdaptor.STATUS_BATCH_WINDOW_PROPERTY
+        JobDetail jobResult = statuses.get(jobIdentifier);
+        if (jobResult == null) {
             throw new NoSuchJobException(getAdaptorName(), jobIdentifier + " not found");
         }
-        JobDetail jobResult = result.getJobs().get(0);
         return AWSBatchUtils.mapJobStatus(this, jobResult);
     }
 
+    /**
+     * Get the status of each node of a multi-node parallel job. The scheduler specific information of a node status tells its index and if it is
+     * the main node.
+     *
+     * @param jobIdentifier the identifier of the multi-node parallel job
+     * @return the status of each node, in order of node index
+     * @throws NoSuchJobException if the job does not exist
+     * @throws XenonException if the job is not a multi-node parallel job or its status could not be retrieved
+     */
+    public JobStatus[] getNodeStatuses(String jobIdentifier) throws XenonException {
+        JobStatus status = getJobStatus(jobIdentifier);
+        String numNodes = status.getSchedulerSpecificInformation().get("numNodes");
+        if (numNodes == null) {
+            throw new XenonException(getAdaptorName(), "Job " + jobIdentifier + " is not a multi-node parallel job");
+        }
+        String[] nodeIdentifiers = new String[Integer.parseInt(numNodes)];
+        for (int i = 0; i < nodeIdentifiers.length; i++) {
+            nodeIdentifiers[i] = jobIdentifier + AWSBatchUtils.NODE_SEPARATOR + i;
+        }
+        return getJobStatuses(nodeIdentifiers);
+    }
+
+    @Override
+    public JobStatus[] getJobStatuses(String... jobIdentifiers) {
+        if (jobIdentifiers == null) {
+            throw new IllegalArgumentException("Job identifiers can not be null");
+        }
+        Set<String> uniqueIdentifiers = new LinkedHashSet<>();
+        for (String jobIdentifier : jobIdentifiers) {
+            if (jobIdentifier != null) {
+                uniqueIdentifiers.add(jobIdentifier);
+            }
+        }
+        Map<String, XenonException> errors = new HashMap<>();
+        Map<String, JobDetail> details = describeJobs(uniqueIdentifiers, errors);
+
+        JobStatus[] result = new JobStatus[jobIdentifiers.length];
+        for (int i = 0; i < jobIdentifiers.length; i++) {
+            String jobIdentifier = jobIdentifiers[i];
+            if (jobIdentifier == null) {
+                continue;
+            }
+            JobDetail detail = details.get(jobIdentifier);
+            if (detail != null) {
+                result[i] = AWSBatchUtils.mapJobStatus(this, detail);
+            } else {
+                XenonException error = errors.get(jobIdentifier);
+                if (error == null) {
+                    error = new NoSuchJobException(getAdaptorName(), jobIdentifier + " not found");
+                }
+                result[i] = new JobStatusImplementation(jobIdentifier, null, null, null, error, false, false, null);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Describe jobs with as few DescribeJobs requests as possible, by sending up to {@link #DESCRIBE_JOBS_LIMIT} job identifiers per request. The
+     * requests are sent concurrently.
+     *
+     * @param jobIdentifiers the jobs to describe
+     * @param errors receives the error for each job identifier whose request failed
+     * @return the details of the found jobs by job identifier, jobs which do not exist are absent
+     */
+    Map<String, JobDetail> describeJobs(Collection<String> jobIdentifiers, Map<String, XenonException> errors) {
+        List<String> identifiers = new ArrayList<>(jobIdentifiers);
+        List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < identifiers.size(); i += DESCRIBE_JOBS_LIMIT) {
+            chunks.add(identifiers.subList(i, Math.min(i + DESCRIBE_JOBS_LIMIT, identifiers.size())));
+        }
+
+        List<Future<List<JobDetail>>> futures = new ArrayList<>();
+        for (List<String> chunk : chunks) {
+            futures.add(executor.submit(() -> call(limits.describe, () -> client.describeJobs(new DescribeJobsRequest().withJobs(chunk))).getJobs()));
+        }
+
+        Map<String, JobDetail> details = new HashMap<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            try {
+                for (JobDetail detail : futures.get(i).get()) {
+                    details.put(detail.getJobId(), detail);
+                }
+            } catch (ExecutionException e) {
+                XenonException error = new XenonException(getAdaptorName(), "Unable to describe jobs: " + e.getCause().getMessage(), e.getCause());
+                chunks.get(i).forEach(id -> errors.put(id, error));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                XenonException error = new XenonException(getAdaptorName(), "Interrupted while describing jobs", e);
+                for (int j = i; j < chunks.size(); j++) {
+                    futures.get(j).cancel(true);
+                    chunks.get(j).forEach(id -> errors.put(id, error));
+                }
+                break;
+            }
+        }
+        return details;
+    }
+
     @Override
     public JobStatus cancelJob(String jobIdentifier) throws XenonException {
         JobStatus status = getJobStatus(jobIdentifier);
         if (status.isDone()) {
             return status;
         }
-        client.terminateJob(new TerminateJobRequest().withJobId(jobIdentifier).withReason("Cancelled by Xenon cancelJob call"));
+        TerminateJobRequest request = new TerminateJobRequest().withJobId(jobIdentifier).withReason("Cancelled by Xenon cancelJob call");
+        call(limits.cancel, () -> client.terminateJob(request));
+        statuses.invalidate(jobIdentifier);
         return getJobStatus(jobIdentifier);
     }
 
-    @Override
-    public JobStatus waitUntilDone(String jobIdentifier, long timeout) throws XenonException {
+    /**
+     * Cancel many jobs. The current states of the jobs are described in batches of {@link #DESCRIBE_JOBS_LIMIT}, and jobs which are already done
+     * are skipped. Jobs which have not started yet are cancelled with CancelJob, the others with TerminateJob. These requests are sent concurrently
+     * on the request pool of this scheduler, at most {@link AWSBatchAdaptor#CANCEL_RATE_PROPERTY} per second, and throttled requests are retried
+     * with backoff. Finally the states of the cancelled jobs are described once more.
+     *
+     * A job which does not exist or could not be cancelled does not stop the cancellation of the others, its status contains the error instead.
+     *
+     * @param jobIdentifiers the jobs to cancel
+     * @return the status of each job after it has been cancelled, in the order of the job identifiers. Null identifiers get a null status.
+     */
+    public JobStatus[] cancelJobs(String... jobIdentifiers) {
+        if (jobIdentifiers == null) {
+            throw new IllegalArgumentException("Job identifiers can not be null");
+        }
+        Set<String> uniqueIdentifiers = new LinkedHashSet<>();
+        for (String jobIdentifier : jobIdentifiers) {
+            if (jobIdentifier != null) {
+                uniqueIdentifiers.add(jobIdentifier);
+            }
+        }
+        Map<String, XenonException> errors = new HashMap<>();
+        Map<String, JobDetail> details = describeJobs(uniqueIdentifiers, errors);
+
+        Map<String, Future<?>> cancellations = new LinkedHashMap<>();
+        for (JobDetail detail : details.values()) {
+            String jobIdentifier = detail.getJobId();
+            com.amazonaws.services.batch.model.JobStatus state = com.amazonaws.services.batch.model.JobStatus.fromValue(detail.getStatus());
+            switch (state) {
+            case SUCCEEDED:
+            case FAILED:
+                break;
+            case SUBMITTED:
+            case PENDING:
+            case RUNNABLE:
+                CancelJobRequest cancel = new CancelJobRequest().withJobId(jobIdentifier).withReason("Cancelled by Xenon cancelJobs call");
+                cancellations.put(jobIdentifier, executor.submit(() -> call(limits.cancel, () -> client.cancelJob(cancel))));
+                break;
+            default:
+                TerminateJobRequest terminate = new TerminateJobRequest().withJobId(jobIdentifier).withReason("Cancelled by Xenon cancelJobs call");
+                cancellations.put(jobIdentifier, executor.submit(() -> call(limits.cancel, () -> client.terminateJob(terminate))));
+                break;
+            }
+        }
+
+        boolean interrupted = false;
+        for (Map.Entry<String, Future<?>> cancellation : cancellations.entrySet()) {
+            String jobIdentifier = cancellation.getKey();
+            try {
+                cancellation.getValue().get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                errors.put(jobIdentifier, cause instanceof XenonException ? (XenonException) cause
+                        : new XenonException(getAdaptorName(), "Unable to cancel job " + jobIdentifier + ": " + cause.getMessage(), cause));
+            } catch (InterruptedException | CancellationException e) {
+                interrupted = true;
+                cancellation.getValue().cancel(true);
+                errors.put(jobIdentifier, new XenonException(getAdaptorName(), "Interrupted while cancelling, job may or may not have been cancelled"));
+            }
+        }
+        cancellations.keySet().forEach(statuses::invalidate);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        } else {
+            // confirm the states of the jobs which were cancelled successfully
+            Set<String> cancelled = new LinkedHashSet<>(cancellations.keySet());
+            cancelled.removeAll(errors.keySet());
+            details.putAll(describeJobs(cancelled, errors));
+        }
+
+        JobStatus[] result = new JobStatus[jobIdentifiers.length];
+        for (int i = 0; i < jobIdentifiers.length; i++) {
+            String jobIdentifier = jobIdentifiers[i];
+            if (jobIdentifier == null) {
+                continue;
+            }
+            JobDetail detail = details.get(jobIdentifier);
+            XenonException error = errors.get(jobIdentifier);
+            if (detail == null && error == null) {
+                error = new NoSuchJobException(getAdaptorName(), jobIdentifier + " not found");
+            }
+            if (error != null) {
+                result[i] = new JobStatusImplementation(jobIdentifier, detail == null ? null : detail.getJobName(), null, null, error, false, false, null);
+            } else {
+                result[i] = AWSBatchUtils.mapJobStatus(this, detail);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get a future which completes when a job is done. The status of all jobs watched this way is polled by a single background thread of the
+     * scheduler, which describes up to 100 jobs per request. How often a job is polled depends on its state, see
+     * {@link AWSBatchAdaptor#POLL_ADAPTIVE_PROPERTY}.
+     *
+     * @param jobIdentifier the job to watch
+     * @return a future which completes with the status of the done job, or exceptionally with a NoSuchJobException if the job does not exist.
+     *         Cancel the future to stop watching the job.
+     */
+    public CompletableFuture<JobStatus> whenDone(String jobIdentifier) {
         assertNonNullOrEmpty(jobIdentifier, "Job identifier cannot be null or empty");
+        return poller.watch(jobIdentifier, JobStatusPoller.DONE);
+    }
 
-        long deadline = Deadline.getDeadline(timeout);
+    /**
+     * Get a future which completes when a job is running or done, see {@link #whenDone(String)}.
+     *
+     * @param jobIdentifier the job to watch
+     * @return a future which completes with the status of the running or done job, or exceptionally with a NoSuchJobException if the job does not
+     *         exist. Cancel the future to stop watching the job.
+     */
+    public CompletableFuture<JobStatus> whenRunning(String jobIdentifier) {
+        assertNonNullOrEmpty(jobIdentifier, "Job identifier cannot be null or empty");
+        return poller.watch(jobIdentifier, JobStatusPoller.RUNNING);
+    }
 
-        JobStatus status = getJobStatus(jobIdentifier);
+    /**
+     * Follow the log of a job while it runs. Once the job reports a log stream, every event written to the AWS CloudWatch log stream is passed to
+     * the callback shortly after it has been written, on a background thread of the tail. See {@link LogTail} for how often the stream is read.
+     *
+     * @param jobIdentifier the job to follow
+     * @param accessKey Access key used for AWS Cloudwatch logs client
+     * @param secretKey Secret key used for AWS Cloudwatch logs client
+     * @param lines callback which receives each log event
+     * @return the tail, which can be closed to stop following the log
+     */
+    public LogTail tailLog(String jobIdentifier, String accessKey, String secretKey, Consumer<String> lines) {
+        assertNonNullOrEmpty(jobIdentifier, "Job identifier cannot be null or empty");
+        return LogTail.start(this, jobIdentifier, accessKey, secretKey, lines);
+    }
 
-        // wait until we are done, or the timeout expires
-        long pollDelay = properties.getLongProperty(POLL_DELAY_PROPERTY);
-        while (!status.isDone() && System.currentTimeMillis() < deadline) {
+    /**
+     * Follow the log of a job while it runs, see {@link #tailLog(String, String, String, Consumer)}. Each log event is a line in the returned UTF-8
+     * stream, which ends when the job is done and its log has been read. Closing the stream stops following the log.
+     *
+     * @param jobIdentifier the job to follow
+     * @param accessKey Access key used for AWS Cloudwatch logs client
+     * @param secretKey Secret key used for AWS Cloudwatch logs client
+     * @return a stream of the log of the job
+     * @throws XenonException if the stream could not be created
+     */
+    public InputStream tailLog(String jobIdentifier, String accessKey, String secretKey) throws XenonException {
+        assertNonNullOrEmpty(jobIdentifier, "Job identifier cannot be null or empty");
+        try {
+            return LogTail.stream(this, jobIdentifier, accessKey, secretKey);
+        } catch (IOException e) {
+            throw new XenonException(getAdaptorName(), "Unable to tail log of job " + jobIdentifier, e);
+        }
+    }
 
-            if (AWSBatchUtils.sleep(pollDelay)) {
-                return status;
-            }
+    /**
+     * Subscribe a listener to the state transitions of jobs. The jobs are polled by the status poller of the scheduler together with all other
+     * watched jobs, see {@link #whenDone(String)}, and the listener is called when a job is first polled and whenever a poll sees it in a new state,
+     * until it is done.
+     *
+     * @param listener the listener
+     * @param jobIdentifiers the jobs to follow
+     * @return the subscription, close it to stop following the jobs
+     */
+    public Subscription subscribe(JobStatusListener listener, String... jobIdentifiers) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener can not be null");
+        }
+        Set<String> uniqueIdentifiers = new LinkedHashSet<>();
+        for (String jobIdentifier : jobIdentifiers) {
+            assertNonNullOrEmpty(jobIdentifier, "Job identifier cannot be null or empty");
+            uniqueIdentifiers.add(jobIdentifier);
+        }
+        return poller.subscribe(uniqueIdentifiers, listener);
+    }
 
-            status = getJobStatus(jobIdentifier);
+    /**
+     * Subscribe a listener to the state transitions of all jobs in a queue. The queue is listed every {@link AWSBatchAdaptor#POLL_QUEUE_DELAY_PROPERTY}
+     * milliseconds for jobs which are not done, and new jobs in it are followed like by {@link #subscribe(JobStatusListener, String...)}. Jobs which
+     * are already done when the queue is first listed are not reported, nor are jobs which start and finish between two listings.
+     *
+     * @param queueName the queue
+     * @param listener the listener
+     * @return the subscription, close it to stop following the queue
+     * @throws NoSuchQueueException if the queue does not exist
+     * @throws XenonException if the queue could not be looked up
+     */
+    public Subscription subscribeQueue(String queueName, JobStatusListener listener) throws XenonException {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener can not be null");
         }
-        return status;
+        getQueueStatus(queueName);
+        return poller.subscribeQueue(queueName, listener);
+    }
+
+    @Override
+    public JobStatus waitUntilDone(String jobIdentifier, long timeout) throws XenonException {
+        return waitUntil(jobIdentifier, timeout, JobStatusPoller.DONE);
     }
 
     @Override
     public JobStatus waitUntilRunning(String jobIdentifier, long timeout) throws XenonException {
+        return waitUntil(jobIdentifier, timeout, JobStatusPoller.RUNNING);
+    }
+
+    private JobStatus waitUntil(String jobIdentifier, long timeout, Predicate<JobStatus> condition) throws XenonException {
         assertNonNullOrEmpty(jobIdentifier, "Job identifier cannot be null or empty");
 
         long deadline = Deadline.getDeadline(timeout);
 
         JobStatus status = getJobStatus(jobIdentifier);
+        if (condition.test(status)) {
+            return status;
+        }
 
-        // wait until we are done, or the timeout expires
-        long pollDelay = properties.getLongProperty(POLL_DELAY_PROPERTY);
-        while (!(status.isRunning() || status.isDone()) && System.currentTimeMillis() < deadline) {
-
-            if (AWSBatchUtils.sleep(pollDelay)) {
-                return status;
+        // wait until the poller sees the condition, or the timeout expires
+        CompletableFuture<JobStatus> future = poller.watch(jobIdentifier, condition);
+        try {
+            if (deadline == Long.MAX_VALUE) {
+                return future.get();
             }
-
-            status = getJobStatus(jobIdentifier);
+            return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            JobStatus latest = poller.getLatest(jobIdentifier);
+            return latest == null ? status : latest;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            JobStatus latest = poller.getLatest(jobIdentifier);
+            return latest == null ? status : latest;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof XenonException) {
+                throw (XenonException) e.getCause();
+            }
+            throw new XenonException(getAdaptorName(), "Unable to get status of job " + jobIdentifier, e.getCause());
+        } finally {
+            future.cancel(false);
         }
-        return status;
     }
 
     @Override
@@ -15,16 +15,31 @@
  */
 package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.SdkClientException;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
 import com.amazonaws.services.batch.model.ArrayProperties;
 import com.amazonaws.services.batch.model.ContainerDetail;
 import com.amazonaws.services.batch.model.ContainerOverrides;
@@ -33,10 +48,14 @@ import com.amazonaws.services.batch.model.JobDetail;
 import com.amazonaws.services.batch.model.JobQueueDetail;
 import com.amazonaws.services.batch.model.JobTimeout;
 import com.amazonaws.services.batch.model.KeyValuePair;
+import com.amazonaws.services.batch.model.NodeDetails;
+import com.amazonaws.services.batch.model.NodeOverrides;
+import com.amazonaws.services.batch.model.NodeProperties;
+import com.amazonaws.services.batch.model.NodePropertyOverride;
 import com.amazonaws.services.batch.model.SubmitJobRequest;
 import com.amazonaws.services.logs.AWSLogs;
-import com.amazonaws.services.logs.AWSLogsClient;
 import com.amazonaws.services.logs.model.GetLogEventsRequest;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
 import com.amazonaws.services.logs.model.OutputLogEvent;
 
 import nl.esciencecenter.xenon.XenonException;
@@ -50,9 +69,16 @@ import nl.esciencecenter.xenon.schedulers.QueueStatus;
 public class AWSBatchUtils {
     static final String QUEUE_SEPARATOR = "!";
     static final String JOBDEFINITION_SEPARATOR = ":";
+    /** Separates the identifier of a multi-node parallel job from the index of one of its nodes */
+    static final String NODE_SEPARATOR = "#";
+    /** Node range of all nodes of a multi-node parallel job */
+    static final String ALL_NODES = "0:";
     private static final String DEFAULT_JOBNAME = "xenon";
+    static final String LOG_GROUP = "/aws/batch/job";
+    private static final long BACKOFF_BASE = 100;
+    private static final long BACKOFF_CAP = 10000;
 
-    static QueueStatus mapToQueueStatus(AWSBatchScheduler awsBatchScheduler, JobQueueDetail queue, JobDefinition definition) {
+    static QueueStatus mapToQueueStatus(AWSBatchScheduler awsBatchScheduler, JobQueueDetail queue, JobDefinition definition, Map<String, Integer> jobCounts) {
         Map<String, String> info = new HashMap<>();
         info.put("queue.arn", queue.getJobQueueArn());
         info.put("queue.name", queue.getJobQueueName());
@@ -70,6 +96,10 @@ public class AWSBatchUtils {
         info.put("definition.parameters", String.valueOf(definition.getParameters()));
         info.put("definition.retryStrategy", String.valueOf(definition.getRetryStrategy()));
         info.put("definition.type", definition.getType());
+        if (jobCounts != null) {
+            // counts of the whole job queue, for all job definitions
+            jobCounts.forEach((state, count) -> info.put("jobs." + state, String.valueOf(count)));
+        }
 
         String queueName = definition.getJobDefinitionName() + JOBDEFINITION_SEPARATOR + definition.getRevision() + QUEUE_SEPARATOR + queue.getJobQueueName();
         return new QueueStatusImplementation(awsBatchScheduler, queueName, null, info);
@@ -100,6 +130,21 @@ public class AWSBatchUtils {
             info.put("containerInstanceArn", container.getContainerInstanceArn());
             info.put("taskArn", container.getTaskArn());
         }
+        NodeProperties nodeProperties = jobResult.getNodeProperties();
+        if (nodeProperties != null) {
+            // multi-node parallel job, the status of its nodes is available as job identifier#node index
+            if (exitCode == null && done) {
+                exitCode = com.amazonaws.services.batch.model.JobStatus.FAILED.equals(awsJobStatus) ? 1 : 0;
+            }
+            info.put("numNodes", String.valueOf(nodeProperties.getNumNodes()));
+            info.put("mainNode", String.valueOf(nodeProperties.getMainNode()));
+        }
+        NodeDetails nodeDetails = jobResult.getNodeDetails();
+        if (nodeDetails != null) {
+            // node of a multi-node parallel job
+            info.put("nodeIndex", String.valueOf(nodeDetails.getNodeIndex()));
+            info.put("isMainNode", String.valueOf(nodeDetails.getIsMainNode()));
+        }
         info.put("createdAt", String.valueOf(jobResult.getCreatedAt()));
         info.put("stoppedAt", String.valueOf(jobResult.getStartedAt()));
         info.put("status", jobResult.getStatus());
@@ -110,11 +155,60 @@ public class AWSBatchUtils {
         return new JobStatusImplementation(jobResult.getJobId(), jobResult.getJobName(), awsJobStatus.toString(), exitCode, exception, running, done, info);
     }
 
-    private static String getRegionFromArn(String arn) {
+    // Multi-node parallel jobs take container overrides per range of nodes instead of for the whole job
+    private static void mapNodeOverrides(SubmitJobRequest submitJobRequest, int nodes, ContainerOverrides containerOverride) throws InvalidJobDescriptionException {
+        if (submitJobRequest.getContainerOverrides() != null) {
+            throw new InvalidJobDescriptionException("awsbatch", "Scheduler argument of a multi-node parallel job should contain container overrides in node overrides");
+        }
+        NodeOverrides nodeOverrides = submitJobRequest.getNodeOverrides();
+        if (nodeOverrides == null) {
+            nodeOverrides = new NodeOverrides();
+        }
+        if (nodes > 1) {
+            if (nodeOverrides.getNumNodes() != null) {
+                throw new InvalidJobDescriptionException("awsbatch", "Scheduler argument contains a number of nodes which conflicts with tasks of description");
+            }
+            nodeOverrides.setNumNodes(nodes);
+        }
+        if (containerOverride != null) {
+            if (nodeOverrides.getNodePropertyOverrides() != null && !nodeOverrides.getNodePropertyOverrides().isEmpty()) {
+                throw new InvalidJobDescriptionException("awsbatch", "Scheduler argument contains node property overrides which conflict with executable, command, memory, environment or cores of description");
+            }
+            nodeOverrides.setNodePropertyOverrides(List.of(new NodePropertyOverride().withTargetNodes(ALL_NODES).withContainerOverrides(containerOverride)));
+        }
+        if (nodeOverrides.getNumNodes() != null || nodeOverrides.getNodePropertyOverrides() != null) {
+            submitJobRequest.setNodeOverrides(nodeOverrides);
+        }
+    }
+
+    static String getRegionFromArn(String arn) {
         // ARN format = arn:aws:<vendor>:<region>:<namespace>:<relative-id>
         return arn.split(":")[3];
     }
 
+    /**
+     * Hash a secret, so it can be used as part of the key of a pool of clients without keeping the secret itself.
+     *
+     * @param secret the secret, may be null
+     * @return the hex encoded SHA-256 hash of the secret, or null if the secret is null
+     */
+    static String credentialHash(String secret) {
+        if (secret == null) {
+            return null;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest(secret.getBytes(StandardCharsets.UTF_8))) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     static boolean sleep(long pollDelay) {
         try {
             Thread.sleep(pollDelay);
@@ -125,7 +219,74 @@ public class AWSBatchUtils {
         }
     }
 
+    /**
+     * Check if a request was rejected because the request rate of the account was exceeded.
+     *
+     * @param e exception thrown by the AWS client
+     * @return true if the request was throttled and can be retried later
+     */
+    static boolean isThrottled(AmazonServiceException e) {
+        return e.getStatusCode() == 429 || RetryUtils.isThrottlingException(e);
+    }
+
+    /**
+     * Retry condition of the AWS Batch client. Failed requests are retried like with the default retry policy of the AWS SDK, except throttled
+     * requests. Those are retried by the scheduler within its rate limits, so they are not retried twice with unrelated backoffs.
+     *
+     * @param request the failed request
+     * @param e exception thrown by the AWS client
+     * @param retriesAttempted the number of retries so far
+     * @return true if the AWS client should retry the request
+     */
+    static boolean shouldRetry(AmazonWebServiceRequest request, AmazonClientException e, int retriesAttempted) {
+        if (e instanceof AmazonServiceException && isThrottled((AmazonServiceException) e)) {
+            return false;
+        }
+        return PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(request, e, retriesAttempted);
+    }
+
+    /**
+     * Retry policy of the AWS Batch client, see {@link #shouldRetry(AmazonWebServiceRequest, AmazonClientException, int)}. The maximum number of
+     * retries is taken from the client configuration.
+     *
+     * @return the retry policy
+     */
+    static RetryPolicy clientRetryPolicy() {
+        return new RetryPolicy(AWSBatchUtils::shouldRetry, PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY, PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY,
+                true);
+    }
+
+    /**
+     * Delay before retrying a throttled request, with decorrelated jitter: a random delay between the base delay and three times the previous
+     * delay, capped. Unlike exponential backoff with full jitter, the delays of competing clients do not fall back to zero together, which keeps
+     * retries from arriving in waves.
+     *
+     * @param previousDelay the previous delay in milliseconds, 0 for the first retry
+     * @return delay in milliseconds
+     */
+    static long backoffDelay(long previousDelay) {
+        long ceiling = Math.min(BACKOFF_CAP, Math.max(BACKOFF_BASE, previousDelay) * 3);
+        return BACKOFF_BASE + ThreadLocalRandom.current().nextLong(ceiling - BACKOFF_BASE + 1);
+    }
+
     static SubmitJobRequest mapToSubmitJobRequest(JobDescription description, String jobQueue, String jobDefinition) throws InvalidJobDescriptionException {
+        return mapToSubmitJobRequest(description, jobQueue, jobDefinition, false);
+    }
+
+    /**
+     * Map a job description to a SubmitJob request.
+     *
+     * For a job definition of type multinode the tasks are spread over the nodes of a multi-node parallel job, with tasks per node tasks on each
+     * node, and the container overrides apply to all nodes. Otherwise multiple tasks are run as an array job of single node jobs.
+     *
+     * @param description the description of the job
+     * @param jobQueue the arn of the job queue
+     * @param jobDefinition the arn of the job definition
+     * @param multinode if the job definition is of type multinode
+     * @return the request
+     * @throws InvalidJobDescriptionException if the description can not be run by AWS Batch
+     */
+    static SubmitJobRequest mapToSubmitJobRequest(JobDescription description, String jobQueue, String jobDefinition, boolean multinode) throws InvalidJobDescriptionException {
         SubmitJobRequest submitJobRequest;
         if (description.getSchedulerArguments().size() == 1) {
             String schedulerArgument = description.getSchedulerArguments().get(0);
@@ -166,10 +327,19 @@ public class AWSBatchUtils {
             containerFilled = true;
         }
 
-        if (description.getTasksPerNode() > 1) {
+        int vcpus = description.getCoresPerTask();
+        int nodes = 1;
+        if (multinode) {
+            int tasksPerNode = Math.max(description.getTasksPerNode(), 1);
+            if (tasksPerNode > 1 && description.isStartPerTask()) {
+                throw new InvalidJobDescriptionException("awsbatch", "AWS Batch can not run multiple tasks per node, it starts a single container on each node");
+            }
+            // the container of a node runs all its tasks, for example with mpirun
+            vcpus *= tasksPerNode;
+            nodes = (description.getTasks() + tasksPerNode - 1) / tasksPerNode;
+        } else if (description.getTasksPerNode() > 1) {
             throw new InvalidJobDescriptionException("awsbatch", "AWS Batch can not run multiple tasks per node");
-        }
-        if (description.getTasks() > 1) {
+        } else if (description.getTasks() > 1) {
             if (description.isStartPerTask()) {
                 throw new InvalidJobDescriptionException("awsbatch", "AWS Batch can not run multiple tasks per node");
             } else {
@@ -178,11 +348,13 @@ public class AWSBatchUtils {
                 submitJobRequest.withArrayProperties(arrayProperties);
             }
         }
-        if (description.getCoresPerTask() != 1 ) {
-            containerOverride.setVcpus(description.getCoresPerTask());
+        if (vcpus != 1 ) {
+            containerOverride.setVcpus(vcpus);
             containerFilled = true;
         }
-        if (submitJobRequest.getContainerOverrides() != null && containerFilled) {
+        if (multinode) {
+            mapNodeOverrides(submitJobRequest, nodes, containerFilled ? containerOverride : null);
+        } else if (submitJobRequest.getContainerOverrides() != null && containerFilled) {
             throw new InvalidJobDescriptionException("awsbatch", "Scheduler argument contains a container overrides which conflicts with executable, command, memory or environment of description. " +
                 "Use either scheduler argument without container overrides and set executable|command|memory|environment in description or " +
                 "use scheduler argument with container overrides and don't set executable|command|memory|environment in description");
@@ -214,14 +386,71 @@ public class AWSBatchUtils {
      * @return Log of job
      */
     public static String getLog(JobStatus status, String accessKey, String secretKey) {
-        AWSStaticCredentialsProvider credProv = new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, secretKey));
+        StringWriter log = new StringWriter();
+        try {
+            writeLog(status, accessKey, secretKey, log);
+        } catch (IOException e) {
+            // StringWriter does not throw
+            throw new UncheckedIOException(e);
+        }
+        return log.toString();
+    }
+
+    /**
+     * Writes the log of a done AWS Batch job from AWS Cloudwatch to a writer, one page of events at a time, so logs of any size can be retrieved.
+     * The events are separated by line separators. Logs clients are shared between calls with the same region and credentials.
+     *
+     * @param status Status of an AWS Batch job, the job should be done (status.isDone() == true)
+     * @param accessKey Access key used for AWS Cloudwatch logs client
+     * @param secretKey Secret key used for AWS Cloudwatch logs client
+     * @param writer Writer to write the log to, it is flushed but not closed
+     * @throws IOException if writing fails
+     */
+    public static void writeLog(JobStatus status, String accessKey, String secretKey, Writer writer) throws IOException {
         // Use same region as the where the task was run
         String region = getRegionFromArn(status.getSchedulerSpecificInformation().get("taskArn"));
-        AWSLogs lclient = AWSLogsClient.builder().withCredentials(credProv).withRegion(region).build();
+        AWSLogs lclient = LogsClients.acquire(region, accessKey, secretKey);
+        try {
+            writeLog(lclient, status, writer);
+        } finally {
+            LogsClients.release(lclient);
+        }
+    }
+
+    // Write the log of a job, following the forward tokens until the end of the stream.
+    static void writeLog(AWSLogs lclient, JobStatus status, Writer writer) throws IOException {
         String logStreamName = status.getSchedulerSpecificInformation().get("logStreamName");
-        List<OutputLogEvent> events = lclient.getLogEvents(new GetLogEventsRequest().withLogGroupName("/aws/batch/job").withLogStreamName(logStreamName)).getEvents();
-        String log = events.stream().map(OutputLogEvent::getMessage).collect(Collectors.joining(System.lineSeparator()));
-        lclient.shutdown();
-        return log;
+        GetLogEventsRequest request = new GetLogEventsRequest().withLogGroupName(LOG_GROUP).withLogStreamName(logStreamName).withStartFromHead(true);
+        boolean first = true;
+        while (true) {
+            GetLogEventsResult result = lclient.getLogEvents(request);
+            for (OutputLogEvent event : result.getEvents()) {
+                if (!first) {
+                    writer.write(System.lineSeparator());
+                }
+                writer.write(event.getMessage());
+                first = false;
+            }
+            // At the end of the stream the same forward token is returned again
+            String nextToken = result.getNextForwardToken();
+            if (nextToken == null || nextToken.equals(request.getNextToken())) {
+                break;
+            }
+            request.setNextToken(nextToken);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the log of a done AWS Batch job from AWS Cloudwatch to a stream in UTF-8, see {@link #writeLog(JobStatus, String, String, Writer)}.
+     *
+     * @param status Status of an AWS Batch job, the job should be done (status.isDone() == true)
+     * @param accessKey Access key used for AWS Cloudwatch logs client
+     * @param secretKey Secret key used for AWS Cloudwatch logs client
+     * @param out Stream to write the log to, it is flushed but not closed
+     * @throws IOException if writing fails
+     */
+    public static void writeLog(JobStatus status, String accessKey, String secretKey, OutputStream out) throws IOException {
+        writeLog(status, accessKey, secretKey, new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
     }
 }
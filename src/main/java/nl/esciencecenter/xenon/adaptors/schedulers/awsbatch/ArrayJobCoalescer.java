@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import nl.esciencecenter.xenon.schedulers.JobDescription;
+
+/**
+ * Coalesces job descriptions which differ only in their arguments and environment into AWS Batch array jobs.
+ *
+ * All children of an array job run the same container command: a shell which evaluates the manifest in the {@link #MANIFEST_VARIABLE} environment
+ * variable. The manifest is a case statement on AWS_BATCH_JOB_ARRAY_INDEX, which exports the environment of the child and executes its executable
+ * with its arguments. Child n of an array job with identifier id has identifier id:n.
+ */
+class ArrayJobCoalescer {
+    static final String MANIFEST_VARIABLE = "XENON_ARRAY_MANIFEST";
+    static final String CHILD_SEPARATOR = ":";
+    static final int MAX_ARRAY_SIZE = 10000;
+    // A SubmitJob request may be at most 30 KiB, leave room for the other fields
+    static final int MAX_MANIFEST_BYTES = 24 * 1024;
+
+    private static final Pattern VARIABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final String MANIFEST_HEADER = "case \"$AWS_BATCH_JOB_ARRAY_INDEX\" in\n";
+    private static final String MANIFEST_FOOTER = "*) echo \"No job for array index $AWS_BATCH_JOB_ARRAY_INDEX\" >&2; exit 1 ;;\nesac\n";
+
+    private ArrayJobCoalescer() {
+        // utility class
+    }
+
+    /**
+     * Get the part of a description which must be equal for descriptions to be coalesced: everything except the arguments and environment.
+     *
+     * Descriptions without executable, with multiple tasks, with scheduler arguments or with environment variables which are not valid shell
+     * variable names are not coalesced.
+     *
+     * @param description the description
+     * @return a description without arguments and environment, or null if the description must be submitted on its own
+     */
+    static JobDescription shapeOf(JobDescription description) {
+        if (description == null || description.getExecutable() == null || description.getTasks() > 1 || !description.getSchedulerArguments().isEmpty()) {
+            return null;
+        }
+        for (String name : description.getEnvironment().keySet()) {
+            if (!VARIABLE_NAME.matcher(name).matches() || MANIFEST_VARIABLE.equals(name)) {
+                return null;
+            }
+        }
+        JobDescription shape = new JobDescription(description);
+        shape.setArguments();
+        shape.setEnvironment(new HashMap<>());
+        return shape;
+    }
+
+    /**
+     * Partition descriptions into array jobs. Descriptions with the same shape are grouped in input order and split in arrays which fit in a
+     * single request.
+     *
+     * @param descriptions the descriptions
+     * @return the indices of the descriptions of each array job, arrays of size 1 should be submitted as a normal job
+     */
+    static List<List<Integer>> partition(List<JobDescription> descriptions) {
+        List<List<Integer>> result = new ArrayList<>();
+        Map<JobDescription, List<Integer>> groups = new LinkedHashMap<>();
+
+        for (int i = 0; i < descriptions.size(); i++) {
+            JobDescription shape = shapeOf(descriptions.get(i));
+            if (shape == null) {
+                result.add(List.of(i));
+            } else {
+                groups.computeIfAbsent(shape, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        for (List<Integer> group : groups.values()) {
+            List<Integer> array = new ArrayList<>();
+            int size = utf8Length(MANIFEST_HEADER) + utf8Length(MANIFEST_FOOTER);
+            for (int index : group) {
+                int clauseSize = utf8Length(clause(array.size(), descriptions.get(index)));
+                if (!array.isEmpty() && (array.size() == MAX_ARRAY_SIZE || size + clauseSize > MAX_MANIFEST_BYTES)) {
+                    result.add(array);
+                    array = new ArrayList<>();
+                    size = utf8Length(MANIFEST_HEADER) + utf8Length(MANIFEST_FOOTER);
+                    clauseSize = utf8Length(clause(0, descriptions.get(index)));
+                }
+                array.add(index);
+                size += clauseSize;
+            }
+            result.add(array);
+        }
+        return result;
+    }
+
+    /**
+     * Create the description of the array job which runs the given children.
+     *
+     * @param children descriptions with the same shape
+     * @return description of the array job, without the array size
+     */
+    static JobDescription arrayDescription(List<JobDescription> children) {
+        JobDescription array = new JobDescription(children.get(0));
+        array.setExecutable("/bin/sh");
+        array.setArguments("-c", "eval \"$" + MANIFEST_VARIABLE + "\"");
+        Map<String, String> environment = new HashMap<>();
+        environment.put(MANIFEST_VARIABLE, manifest(children));
+        array.setEnvironment(environment);
+        return array;
+    }
+
+    static String manifest(List<JobDescription> children) {
+        StringBuilder manifest = new StringBuilder(MANIFEST_HEADER);
+        for (int i = 0; i < children.size(); i++) {
+            manifest.append(clause(i, children.get(i)));
+        }
+        return manifest.append(MANIFEST_FOOTER).toString();
+    }
+
+    private static String clause(int index, JobDescription description) {
+        StringBuilder clause = new StringBuilder().append(index).append(')');
+        for (Map.Entry<String, String> variable : description.getEnvironment().entrySet()) {
+            clause.append(" export ").append(variable.getKey()).append('=').append(quote(variable.getValue())).append(';');
+        }
+        clause.append(" exec ").append(quote(description.getExecutable()));
+        for (String argument : description.getArguments()) {
+            clause.append(' ').append(quote(argument));
+        }
+        return clause.append(" ;;\n").toString();
+    }
+
+    static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
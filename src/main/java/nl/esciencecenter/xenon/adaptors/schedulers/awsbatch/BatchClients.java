@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.amazonaws.services.batch.AWSBatch;
+import com.amazonaws.services.batch.AWSBatchAsync;
+
+/**
+ * Reference counted pool of AWS Batch clients, shared by all schedulers in the JVM with the same location, credential and client configuration.
+ * Each client has its own connection pool and threads, so sharing them makes creating a scheduler cheap. A client is shut down when the last
+ * scheduler using it is closed.
+ */
+class BatchClients {
+
+    private static final class Entry {
+
+        final List<Object> key;
+        final AWSBatchAsync client;
+        int references = 0;
+
+        Entry(List<Object> key, AWSBatchAsync client) {
+            this.key = key;
+            this.client = client;
+        }
+    }
+
+    private static final Map<List<Object>, Entry> CLIENTS = new HashMap<>();
+
+    private static final Map<AWSBatch, Entry> ENTRIES = new IdentityHashMap<>();
+
+    private BatchClients() {
+        // utility class
+    }
+
+    /**
+     * Get the client for a key, creating it when no scheduler uses a client with this key. Every call must be paired with a call to
+     * {@link #release(AWSBatch)}.
+     *
+     * @param key everything which determines how the client is built
+     * @param factory builds the client
+     * @return the shared client
+     */
+    static synchronized AWSBatchAsync acquire(List<Object> key, Supplier<AWSBatchAsync> factory) {
+        Entry entry = CLIENTS.get(key);
+        if (entry == null) {
+            entry = new Entry(key, factory.get());
+            CLIENTS.put(key, entry);
+            ENTRIES.put(entry.client, entry);
+        }
+        entry.references++;
+        return entry.client;
+    }
+
+    /**
+     * Release a client, shutting it down when it is no longer used. Clients which were not acquired from this pool are shut down immediately.
+     *
+     * @param client the client to release
+     */
+    static void release(AWSBatch client) {
+        synchronized (BatchClients.class) {
+            Entry entry = ENTRIES.get(client);
+            if (entry != null) {
+                entry.references--;
+                if (entry.references > 0) {
+                    return;
+                }
+                CLIENTS.remove(entry.key);
+                ENTRIES.remove(client);
+            }
+        }
+        client.shutdown();
+    }
+}
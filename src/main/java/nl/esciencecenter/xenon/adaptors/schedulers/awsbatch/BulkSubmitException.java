@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import nl.esciencecenter.xenon.XenonException;
+
+/**
+ * Thrown by {@link AWSBatchScheduler#submitBatchJobs(java.util.stream.Stream)} when reading the job descriptions fails. The descriptions read
+ * before the failure were still submitted, their job identifiers and errors are in the partial result.
+ */
+public class BulkSubmitException extends XenonException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient BulkSubmitResult partialResult;
+
+    public BulkSubmitException(String adaptorName, String message, Throwable cause, BulkSubmitResult partialResult) {
+        super(adaptorName, message, cause);
+        this.partialResult = partialResult;
+    }
+
+    /**
+     * @return the job identifiers and errors of the descriptions read before the failure, in input order
+     */
+    public BulkSubmitResult getPartialResult() {
+        return partialResult;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.Arrays;
+
+import nl.esciencecenter.xenon.XenonException;
+
+/**
+ * Result of {@link AWSBatchScheduler#submitBatchJobs(java.util.stream.Stream)}. For every submitted job description, in input order, it contains
+ * either the job identifier or the error which prevented the submission.
+ */
+public class BulkSubmitResult {
+
+    private final String[] jobIdentifiers;
+
+    private final XenonException[] errors;
+
+    BulkSubmitResult(String[] jobIdentifiers, XenonException[] errors) {
+        this.jobIdentifiers = jobIdentifiers;
+        this.errors = errors;
+    }
+
+    /**
+     * @return number of job descriptions which were submitted
+     */
+    public int size() {
+        return jobIdentifiers.length;
+    }
+
+    /**
+     * @return job identifiers in input order, null for descriptions that could not be submitted
+     */
+    public String[] getJobIdentifiers() {
+        return jobIdentifiers.clone();
+    }
+
+    /**
+     * @return errors in input order, null for descriptions that were submitted
+     */
+    public XenonException[] getErrors() {
+        return errors.clone();
+    }
+
+    public String getJobIdentifier(int index) {
+        return jobIdentifiers[index];
+    }
+
+    public XenonException getError(int index) {
+        return errors[index];
+    }
+
+    public boolean hasErrors() {
+        return Arrays.stream(errors).anyMatch(e -> e != null);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nl.esciencecenter.xenon.XenonException;
+
+/**
+ * Cache of values which expire a fixed time after they were loaded. A missing or expired value is loaded on request, at most once at a time per key,
+ * so concurrent requests for the same key share a single load.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+class ExpiringCache<K, V> {
+
+    interface Loader<K, V> {
+        V load(K key) throws XenonException;
+    }
+
+    private static final class Entry<V> {
+        V value;
+        long loadedAt;
+    }
+
+    private final long ttlNanos;
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttl time to live of values in milliseconds, 0 or less disables caching
+     */
+    ExpiringCache(long ttl) {
+        this.ttlNanos = ttl * 1_000_000L;
+    }
+
+    V get(K key, Loader<K, V> loader) throws XenonException {
+        if (ttlNanos <= 0) {
+            return loader.load(key);
+        }
+        Entry<V> entry = entries.computeIfAbsent(key, k -> new Entry<>());
+        synchronized (entry) {
+            long now = System.nanoTime();
+            if (entry.value == null || now - entry.loadedAt >= ttlNanos) {
+                entry.value = loader.load(key);
+                entry.loadedAt = now;
+            }
+            return entry.value;
+        }
+    }
+
+    void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    void invalidateAll() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import com.amazonaws.services.batch.model.JobDetail;
+import com.amazonaws.services.batch.model.JobStatus;
+import com.amazonaws.services.batch.model.JobSummary;
+
+import nl.esciencecenter.xenon.XenonException;
+
+/**
+ * In memory index of the jobs in AWS Batch job queues, with their states.
+ *
+ * The index of a job queue is seeded by listing the jobs in all states. After that it is kept current by listing only the jobs in active states,
+ * which finds new jobs and state changes of active jobs, and by describing the indexed active jobs which were not listed anymore, in batches.
+ * Jobs which are submitted and done between two refreshes are only found by the next full listing, which is repeated every rescan interval.
+ */
+class JobIndex {
+
+    static final List<JobStatus> ACTIVE_STATES = List.of(JobStatus.SUBMITTED, JobStatus.PENDING, JobStatus.RUNNABLE, JobStatus.STARTING,
+            JobStatus.RUNNING);
+
+    static final List<JobStatus> ALL_STATES = List.of(JobStatus.SUBMITTED, JobStatus.PENDING, JobStatus.RUNNABLE, JobStatus.STARTING,
+            JobStatus.RUNNING, JobStatus.SUCCEEDED, JobStatus.FAILED);
+
+    private static final Set<String> DONE_STATES = Set.of(JobStatus.SUCCEEDED.toString(), JobStatus.FAILED.toString());
+
+    private static final class QueueIndex {
+        // State of each job, in the order the jobs were found
+        final Map<String, String> states = new LinkedHashMap<>();
+        long refreshedAt;
+        long scannedAt;
+        boolean seeded = false;
+    }
+
+    private final AWSBatchScheduler scheduler;
+
+    private final long refresh;
+
+    private final long rescan;
+
+    private final Map<String, QueueIndex> queues = new ConcurrentHashMap<>();
+
+    /**
+     * @param scheduler the scheduler whose job queues are indexed
+     * @param refresh number of milliseconds an index is used before it is refreshed, 0 to refresh it on every use
+     * @param rescan number of milliseconds after which all jobs are listed again instead of refreshing the index
+     */
+    JobIndex(AWSBatchScheduler scheduler, long refresh, long rescan) {
+        this.scheduler = scheduler;
+        this.refresh = refresh;
+        this.rescan = rescan;
+    }
+
+    /**
+     * @param jobQueueName an AWS Batch job queue
+     * @return the identifiers of the jobs in the job queue
+     * @throws XenonException if the index could not be refreshed
+     */
+    List<String> getJobs(String jobQueueName) throws XenonException {
+        QueueIndex index = queues.computeIfAbsent(jobQueueName, k -> new QueueIndex());
+        synchronized (index) {
+            refresh(jobQueueName, index);
+            return new ArrayList<>(index.states.keySet());
+        }
+    }
+
+    /**
+     * @param jobQueueName an AWS Batch job queue
+     * @return the number of jobs in the job queue by state
+     * @throws XenonException if the index could not be refreshed
+     */
+    Map<String, Integer> countJobs(String jobQueueName) throws XenonException {
+        QueueIndex index = queues.computeIfAbsent(jobQueueName, k -> new QueueIndex());
+        synchronized (index) {
+            refresh(jobQueueName, index);
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            ALL_STATES.forEach(state -> counts.put(state.toString(), 0));
+            index.states.values().forEach(state -> counts.merge(state, 1, Integer::sum));
+            return counts;
+        }
+    }
+
+    private void refresh(String jobQueueName, QueueIndex index) throws XenonException {
+        long now = System.currentTimeMillis();
+        if (!index.seeded || now - index.scannedAt >= rescan) {
+            scan(jobQueueName, index, now);
+        } else if (now - index.refreshedAt >= refresh) {
+            update(jobQueueName, index, now);
+        }
+    }
+
+    private void scan(String jobQueueName, QueueIndex index, long now) throws XenonException {
+        Map<String, String> states = new LinkedHashMap<>();
+        list(jobQueueName, ALL_STATES, states);
+        index.states.clear();
+        index.states.putAll(states);
+        index.scannedAt = now;
+        index.refreshedAt = now;
+        index.seeded = true;
+    }
+
+    private void update(String jobQueueName, QueueIndex index, long now) throws XenonException {
+        Map<String, String> active = new HashMap<>();
+        list(jobQueueName, ACTIVE_STATES, active);
+
+        // Indexed active jobs which are no longer listed as active are done, or have expired
+        List<String> left = new ArrayList<>();
+        index.states.forEach((jobIdentifier, state) -> {
+            if (!DONE_STATES.contains(state) && !active.containsKey(jobIdentifier)) {
+                left.add(jobIdentifier);
+            }
+        });
+        Map<String, XenonException> errors = new HashMap<>();
+        Map<String, JobDetail> details = scheduler.describeJobs(left, errors);
+        if (!errors.isEmpty()) {
+            throw errors.values().iterator().next();
+        }
+
+        index.states.putAll(active);
+        for (String jobIdentifier : left) {
+            JobDetail detail = details.get(jobIdentifier);
+            if (detail == null) {
+                index.states.remove(jobIdentifier);
+            } else {
+                index.states.put(jobIdentifier, detail.getStatus());
+            }
+        }
+        index.refreshedAt = now;
+    }
+
+    private void list(String jobQueueName, List<JobStatus> states, Map<String, String> result) throws XenonException {
+        try (Stream<JobSummary> jobs = scheduler.listJobSummaries(List.of(jobQueueName), states)) {
+            jobs.forEach(job -> result.put(job.getJobId(), job.getStatus()));
+        } catch (CancellationException e) {
+            throw new XenonException(scheduler.getAdaptorName(), "Interrupted while listing jobs", e);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import com.amazonaws.services.batch.model.JobDetail;
+
+import nl.esciencecenter.xenon.XenonException;
+
+/**
+ * Coalesces lookups of single jobs into as few DescribeJobs requests as possible.
+ *
+ * Concurrent lookups of the same job share one request. Optionally, the first lookup waits for a short window in which lookups of other jobs join
+ * it, and all of them are described together. Optionally, looked up jobs are cached for a short time.
+ */
+class JobStatusCoalescer {
+
+    interface Describer {
+        Map<String, JobDetail> describe(Collection<String> jobIdentifiers, Map<String, XenonException> errors);
+    }
+
+    private static final class Cached {
+        final JobDetail detail;
+        final long loadedAt;
+
+        Cached(JobDetail detail, long loadedAt) {
+            this.detail = detail;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /** Number of cached jobs above which expired jobs are removed from the cache */
+    private static final int CACHE_PRUNE_SIZE = 10000;
+
+    private final Describer describer;
+
+    private final long window;
+
+    private final long ttlNanos;
+
+    private final Map<String, CompletableFuture<JobDetail>> inFlight = new ConcurrentHashMap<>();
+
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+
+    // Lookups waiting for the current window to close, null when no window is open
+    private Map<String, CompletableFuture<JobDetail>> batch;
+
+    /**
+     * @param describer describes jobs in as few requests as possible
+     * @param window number of milliseconds a lookup waits for lookups of other jobs, 0 or less to describe each job on its own
+     * @param ttl number of milliseconds a looked up job is cached, 0 or less disables caching
+     */
+    JobStatusCoalescer(Describer describer, long window, long ttl) {
+        this.describer = describer;
+        this.window = window;
+        this.ttlNanos = ttl * 1_000_000L;
+    }
+
+    /**
+     * Look up a job.
+     *
+     * @param jobIdentifier the job
+     * @return the details of the job, or null if it does not exist
+     * @throws XenonException if the job could not be described
+     */
+    JobDetail get(String jobIdentifier) throws XenonException {
+        if (ttlNanos > 0) {
+            Cached cached = cache.get(jobIdentifier);
+            if (cached != null && System.nanoTime() - cached.loadedAt < ttlNanos) {
+                return cached.detail;
+            }
+        }
+
+        CompletableFuture<JobDetail> future = new CompletableFuture<>();
+        CompletableFuture<JobDetail> shared = inFlight.putIfAbsent(jobIdentifier, future);
+        if (shared == null) {
+            shared = future;
+            if (window > 0) {
+                join(jobIdentifier, future);
+            } else {
+                describe(Map.of(jobIdentifier, future));
+            }
+        }
+
+        try {
+            return shared.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof XenonException) {
+                throw (XenonException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new XenonException(AWSBatchAdaptor.ADAPTOR_NAME, "Unable to describe job " + jobIdentifier, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XenonException(AWSBatchAdaptor.ADAPTOR_NAME, "Interrupted while describing job " + jobIdentifier, e);
+        }
+    }
+
+    /**
+     * Forget the cached details of a job, for example because it has just been changed. Later lookups do not share a request which was already
+     * in flight, as it may return the job as it was before the change, and the result of such a request is not cached.
+     *
+     * @param jobIdentifier the job
+     */
+    synchronized void invalidate(String jobIdentifier) {
+        inFlight.remove(jobIdentifier);
+        cache.remove(jobIdentifier);
+    }
+
+    // Add a lookup to the open window, or open one and describe all its jobs when it closes
+    private void join(String jobIdentifier, CompletableFuture<JobDetail> future) {
+        synchronized (this) {
+            if (batch != null) {
+                CompletableFuture<JobDetail> joined = batch.putIfAbsent(jobIdentifier, future);
+                if (joined != null) {
+                    // looked up again after an invalidate, while the request of the window has not been sent yet. The result is not cached,
+                    // and the lookup is no longer in flight once it completes.
+                    joined.whenComplete((detail, e) -> {
+                        inFlight.remove(jobIdentifier, future);
+                        if (e == null) {
+                            future.complete(detail);
+                        } else {
+                            future.completeExceptionally(e);
+                        }
+                    });
+                }
+                return;
+            }
+            batch = new LinkedHashMap<>();
+            batch.put(jobIdentifier, future);
+        }
+
+        // even when interrupted the window is closed, so the jobs which joined it get their result
+        AWSBatchUtils.sleep(window);
+
+        Map<String, CompletableFuture<JobDetail>> lookups;
+        synchronized (this) {
+            lookups = batch;
+            batch = null;
+        }
+        describe(lookups);
+    }
+
+    private void describe(Map<String, CompletableFuture<JobDetail>> lookups) {
+        Map<String, JobDetail> details;
+        Map<String, XenonException> errors = new HashMap<>();
+        try {
+            details = describer.describe(lookups.keySet(), errors);
+        } catch (RuntimeException e) {
+            fail(lookups, e);
+            return;
+        } catch (Error e) {
+            // the lookups which joined this one would otherwise wait forever
+            fail(lookups, e);
+            throw e;
+        }
+
+        long now = System.nanoTime();
+        if (ttlNanos > 0 && cache.size() > CACHE_PRUNE_SIZE) {
+            cache.values().removeIf(cached -> now - cached.loadedAt >= ttlNanos);
+        }
+        for (Map.Entry<String, CompletableFuture<JobDetail>> lookup : lookups.entrySet()) {
+            String jobIdentifier = lookup.getKey();
+            CompletableFuture<JobDetail> future = lookup.getValue();
+            JobDetail detail = details.get(jobIdentifier);
+            synchronized (this) {
+                // a lookup which is no longer in flight was invalidated, its result may predate the change
+                if (inFlight.remove(jobIdentifier, future) && ttlNanos > 0 && detail != null) {
+                    cache.put(jobIdentifier, new Cached(detail, now));
+                }
+            }
+            XenonException error = errors.get(jobIdentifier);
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(detail);
+            }
+        }
+    }
+
+    private void fail(Map<String, CompletableFuture<JobDetail>> lookups, Throwable e) {
+        lookups.forEach((jobIdentifier, future) -> {
+            inFlight.remove(jobIdentifier, future);
+            future.completeExceptionally(e);
+        });
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import nl.esciencecenter.xenon.schedulers.JobStatus;
+
+/**
+ * Receives the state transitions of AWS Batch jobs, see {@link AWSBatchScheduler#subscribe(JobStatusListener, String...)}.
+ */
+public interface JobStatusListener {
+
+    /**
+     * Called by the status poller of the scheduler when a job is seen in a new state. The poller is not blocked by listeners of other schedulers,
+     * but a slow listener delays the polling of its own scheduler. Exceptions thrown by the listener are ignored.
+     *
+     * @param previous the status in which the job was seen before, or null when the job is seen for the first time
+     * @param current the new status of the job
+     */
+    void onStatusChange(JobStatus previous, JobStatus current);
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.amazonaws.services.batch.model.JobDetail;
+import com.amazonaws.services.batch.model.JobSummary;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.schedulers.JobStatus;
+import nl.esciencecenter.xenon.schedulers.NoSuchJobException;
+
+/**
+ * Polls the status of all watched jobs of a scheduler in a single background thread. Every poll describes all watched jobs which are due according
+ * to the poll policy with as few DescribeJobs requests as possible, and completes the futures of the jobs which reached the state they were watched
+ * for.
+ *
+ * Listeners subscribed to jobs are called when a poll sees a job in another state than the previous poll. Listeners subscribed to a queue are
+ * additionally attached to every job which appears in the queue, which is listed every queue delay.
+ *
+ * A job which can not be polled is polled again later. After {@link #MAX_POLL_FAILURES} failed polls in a row, or when the request pool of the
+ * scheduler has been shut down, the futures waiting for the job complete exceptionally with the error.
+ */
+class JobStatusPoller {
+
+    static final Predicate<JobStatus> DONE = JobStatus::isDone;
+
+    static final Predicate<JobStatus> RUNNING = s -> s.isRunning() || s.isDone();
+
+    /** Number of failed polls of a job in a row after which the futures waiting for it fail */
+    static final int MAX_POLL_FAILURES = 5;
+
+    private static final class Subscriber {
+        final Predicate<JobStatus> condition;
+        final CompletableFuture<JobStatus> future = new CompletableFuture<>();
+
+        Subscriber(Predicate<JobStatus> condition) {
+            this.condition = condition;
+        }
+    }
+
+    private static final class Listener implements Subscription {
+        final JobStatusListener callback;
+        volatile boolean closed = false;
+
+        Listener(JobStatusListener callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        void deliver(JobStatus previous, JobStatus current) {
+            if (closed) {
+                return;
+            }
+            try {
+                callback.onStatusChange(previous, current);
+            } catch (RuntimeException e) {
+                // a failing listener should not stop the poller
+            }
+        }
+    }
+
+    private static final class QueueWatch {
+        final Listener listener;
+        // Active jobs seen in the last listing of the queue, null before the first listing
+        Set<String> known;
+        long nextList;
+
+        QueueWatch(Listener listener) {
+            this.listener = listener;
+        }
+    }
+
+    private static final class Watch {
+        final List<Subscriber> subscribers = new ArrayList<>();
+        // The status last delivered to each listener, null before the first delivery
+        final Map<Listener, JobStatus> listeners = new LinkedHashMap<>();
+        JobStatus latest;
+        String state;
+        long stateSince;
+        long nextPoll;
+        int failures;
+    }
+
+    private final AWSBatchScheduler scheduler;
+
+    private final PollPolicy policy;
+
+    private final Map<String, Watch> watches = new HashMap<>();
+
+    private final Map<String, List<QueueWatch>> queueWatches = new HashMap<>();
+
+    private final long queueDelay;
+
+    private Thread thread;
+
+    private boolean closed = false;
+
+    /**
+     * @param scheduler the scheduler whose jobs are polled
+     * @param policy the delay between polls of a job
+     * @param queueDelay the delay between listings of a subscribed queue in milliseconds
+     */
+    JobStatusPoller(AWSBatchScheduler scheduler, PollPolicy policy, long queueDelay) {
+        this.scheduler = scheduler;
+        this.policy = policy;
+        this.queueDelay = queueDelay;
+    }
+
+    /**
+     * Watch a job until its status matches a condition.
+     *
+     * @param jobIdentifier the job to watch
+     * @param condition the condition to wait for
+     * @return a future which completes with the first polled status matching the condition, or exceptionally if the job does not exist. Cancel the
+     *         future to stop watching.
+     */
+    synchronized CompletableFuture<JobStatus> watch(String jobIdentifier, Predicate<JobStatus> condition) {
+        Subscriber subscriber = new Subscriber(condition);
+        if (closed) {
+            subscriber.future.completeExceptionally(new XenonException(scheduler.getAdaptorName(), "Scheduler is closed"));
+            return subscriber.future;
+        }
+        getWatch(jobIdentifier).subscribers.add(subscriber);
+        start();
+        return subscriber.future;
+    }
+
+    /**
+     * Call a listener on every state transition of some jobs, until they are done.
+     *
+     * @param jobIdentifiers the jobs
+     * @param callback the listener, which is first called when a job is polled for the first time
+     * @return the subscription
+     */
+    synchronized Subscription subscribe(Set<String> jobIdentifiers, JobStatusListener callback) {
+        Listener listener = new Listener(callback);
+        if (!closed) {
+            jobIdentifiers.forEach(jobIdentifier -> getWatch(jobIdentifier).listeners.put(listener, null));
+            start();
+        }
+        return listener;
+    }
+
+    /**
+     * Call a listener on every state transition of the jobs in a queue, until the subscription is closed. Jobs in the queue when it is listed for the
+     * first time are only followed if they are not done yet.
+     *
+     * @param queueName the queue
+     * @param callback the listener
+     * @return the subscription
+     */
+    synchronized Subscription subscribeQueue(String queueName, JobStatusListener callback) {
+        Listener listener = new Listener(callback);
+        if (!closed) {
+            QueueWatch queueWatch = new QueueWatch(listener);
+            queueWatch.nextList = System.currentTimeMillis();
+            queueWatches.computeIfAbsent(queueName, k -> new ArrayList<>()).add(queueWatch);
+            start();
+        }
+        return listener;
+    }
+
+    private Watch getWatch(String jobIdentifier) {
+        return watches.computeIfAbsent(jobIdentifier, k -> {
+            Watch watch = new Watch();
+            watch.stateSince = System.currentTimeMillis();
+            watch.nextPoll = watch.stateSince + policy.nextDelay(null, 0);
+            return watch;
+        });
+    }
+
+    private void start() {
+        if (thread == null) {
+            thread = new Thread(this::run, "xenon-awsbatch-poller");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * @param jobIdentifier a watched job
+     * @return the last polled status of the job, or null if it is not watched or was not polled yet
+     */
+    synchronized JobStatus getLatest(String jobIdentifier) {
+        Watch watch = watches.get(jobIdentifier);
+        return watch == null ? null : watch.latest;
+    }
+
+    void close() {
+        List<Subscriber> closing = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            watches.values().forEach(w -> closing.addAll(w.subscribers));
+            watches.clear();
+            queueWatches.clear();
+            notifyAll();
+        }
+        XenonException error = new XenonException(scheduler.getAdaptorName(), "Scheduler is closed");
+        closing.forEach(s -> s.future.completeExceptionally(error));
+    }
+
+    private void run() {
+        while (awaitNextPoll()) {
+            try {
+                listQueues();
+                poll();
+            } catch (RuntimeException e) {
+                // This is the only thread completing the futures, so it must survive anything a poll throws
+                rescheduleDue();
+            }
+        }
+    }
+
+    // Poll the jobs and list the queues which are due again later, so a failing poll is not repeated at once
+    private synchronized void rescheduleDue() {
+        long now = System.currentTimeMillis();
+        watches.values().forEach(watch -> {
+            if (watch.nextPoll <= now) {
+                watch.nextPoll = now + policy.nextDelay(watch.state, now - watch.stateSince);
+            }
+        });
+        queueWatches.values().forEach(list -> list.forEach(queueWatch -> {
+            if (queueWatch.nextList <= now) {
+                queueWatch.nextList = now + queueDelay;
+            }
+        }));
+    }
+
+    // Wait until a watched job is due, returns false when closed
+    private synchronized boolean awaitNextPoll() {
+        try {
+            while (!closed) {
+                pruneCancelled();
+                if (watches.isEmpty() && queueWatches.isEmpty()) {
+                    wait();
+                    continue;
+                }
+                long next = Stream.concat(watches.values().stream().map(w -> w.nextPoll),
+                        queueWatches.values().stream().flatMap(List::stream).map(q -> q.nextList)).mapToLong(Long::longValue).min().getAsLong();
+                long remaining = next - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !closed;
+    }
+
+    // List the active jobs of the subscribed queues which are due and follow the jobs which appeared in them. Done jobs are not listed, as a queue
+    // may hold many of them and the listing delays the polls of all watched jobs.
+    private void listQueues() {
+        List<String> queueNames;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            queueNames = queueWatches.entrySet().stream().filter(e -> e.getValue().stream().anyMatch(q -> q.nextList <= now)).map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+        }
+
+        for (String queueName : queueNames) {
+            Set<String> active = new HashSet<>();
+            String jobQueueName = queueName.split(AWSBatchUtils.QUEUE_SEPARATOR)[1];
+            try (Stream<JobSummary> jobs = scheduler.listJobSummaries(List.of(jobQueueName), JobIndex.ACTIVE_STATES)) {
+                jobs.forEach(job -> active.add(job.getJobId()));
+            } catch (RuntimeException e) {
+                // Try again later
+                continue;
+            }
+
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                for (QueueWatch queueWatch : queueWatches.getOrDefault(queueName, List.of())) {
+                    if (queueWatch.nextList > now) {
+                        continue;
+                    }
+                    queueWatch.nextList = now + queueDelay;
+                    // Jobs which left the active states since the last listing are already watched
+                    for (String jobIdentifier : active) {
+                        if (queueWatch.known == null || !queueWatch.known.contains(jobIdentifier)) {
+                            Watch watch = getWatch(jobIdentifier);
+                            watch.listeners.putIfAbsent(queueWatch.listener, null);
+                            watch.nextPoll = now;
+                        }
+                    }
+                    queueWatch.known = active;
+                }
+            }
+        }
+    }
+
+    private void poll() {
+        List<String> jobIdentifiers = new ArrayList<>();
+        synchronized (this) {
+            pruneCancelled();
+            long now = System.currentTimeMillis();
+            watches.forEach((jobIdentifier, watch) -> {
+                if (watch.nextPoll <= now) {
+                    jobIdentifiers.add(jobIdentifier);
+                }
+            });
+        }
+
+        Map<String, XenonException> errors = new HashMap<>();
+        Map<String, JobDetail> details;
+        boolean permanent = false;
+        try {
+            details = scheduler.describeJobs(jobIdentifiers, errors);
+        } catch (RuntimeException e) {
+            // For example a RejectedExecutionException once the request pool has been shut down
+            XenonException error = new XenonException(scheduler.getAdaptorName(), "Unable to poll jobs: " + e.getMessage(), e);
+            jobIdentifiers.forEach(jobIdentifier -> errors.put(jobIdentifier, error));
+            details = Map.of();
+            permanent = e instanceof RejectedExecutionException;
+        }
+
+        List<Runnable> completions = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (String jobIdentifier : jobIdentifiers) {
+                Watch watch = watches.get(jobIdentifier);
+                if (watch == null) {
+                    continue;
+                }
+                XenonException error = errors.get(jobIdentifier);
+                if (error != null) {
+                    failed(jobIdentifier, watch, error, permanent, now, completions);
+                    continue;
+                }
+                JobDetail detail = details.get(jobIdentifier);
+                if (detail == null) {
+                    NoSuchJobException noSuchJob = new NoSuchJobException(scheduler.getAdaptorName(), jobIdentifier + " not found");
+                    watch.subscribers.forEach(s -> completions.add(() -> s.future.completeExceptionally(noSuchJob)));
+                    watches.remove(jobIdentifier);
+                    continue;
+                }
+                JobStatus status;
+                try {
+                    status = AWSBatchUtils.mapJobStatus(scheduler, detail);
+                } catch (RuntimeException e) {
+                    // For example a state unknown to this version of the SDK
+                    error = new XenonException(scheduler.getAdaptorName(), "Unable to get status of job " + jobIdentifier + ": " + e.getMessage(), e);
+                    failed(jobIdentifier, watch, error, false, now, completions);
+                    continue;
+                }
+                watch.failures = 0;
+                watch.latest = status;
+                if (!detail.getStatus().equals(watch.state)) {
+                    watch.state = detail.getStatus();
+                    // Use the start time reported by AWS if available, as the job may have been running for a while already
+                    watch.stateSince = "RUNNING".equals(watch.state) && detail.getStartedAt() != null ? Math.min(now, detail.getStartedAt()) : now;
+                }
+                watch.nextPoll = now + policy.nextDelay(watch.state, now - watch.stateSince);
+                Iterator<Subscriber> iterator = watch.subscribers.iterator();
+                while (iterator.hasNext()) {
+                    Subscriber subscriber = iterator.next();
+                    if (subscriber.condition.test(status)) {
+                        completions.add(() -> subscriber.future.complete(status));
+                        iterator.remove();
+                    }
+                }
+                Iterator<Map.Entry<Listener, JobStatus>> listeners = watch.listeners.entrySet().iterator();
+                while (listeners.hasNext()) {
+                    Map.Entry<Listener, JobStatus> entry = listeners.next();
+                    Listener listener = entry.getKey();
+                    JobStatus previous = entry.getValue();
+                    if (previous == null || !previous.getState().equals(status.getState())) {
+                        completions.add(() -> listener.deliver(previous, status));
+                    }
+                    if (status.isDone()) {
+                        // a done job does not change anymore
+                        listeners.remove();
+                    } else {
+                        entry.setValue(status);
+                    }
+                }
+                if (watch.subscribers.isEmpty() && watch.listeners.isEmpty()) {
+                    watches.remove(jobIdentifier);
+                }
+            }
+        }
+        // Complete outside of the lock, as completing runs the callbacks of the futures and the listeners
+        completions.forEach(Runnable::run);
+    }
+
+    // Poll a job again later, or fail the futures waiting for it when it can not be polled anymore
+    private void failed(String jobIdentifier, Watch watch, XenonException error, boolean permanent, long now, List<Runnable> completions) {
+        watch.failures++;
+        if (permanent || watch.failures >= MAX_POLL_FAILURES) {
+            watch.subscribers.forEach(s -> completions.add(() -> s.future.completeExceptionally(error)));
+            watch.subscribers.clear();
+            watch.failures = 0;
+            if (watch.listeners.isEmpty()) {
+                watches.remove(jobIdentifier);
+                return;
+            }
+        }
+        watch.nextPoll = now + policy.nextDelay(watch.state, now - watch.stateSince);
+    }
+
+    private void pruneCancelled() {
+        Iterator<Watch> iterator = watches.values().iterator();
+        while (iterator.hasNext()) {
+            Watch watch = iterator.next();
+            watch.subscribers.removeIf(s -> s.future.isDone());
+            watch.listeners.keySet().removeIf(l -> l.closed);
+            if (watch.subscribers.isEmpty() && watch.listeners.isEmpty()) {
+                iterator.remove();
+            }
+        }
+        queueWatches.values().forEach(q -> q.removeIf(w -> w.listener.closed));
+        queueWatches.values().removeIf(List::isEmpty);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.OutputLogEvent;
+import com.amazonaws.services.logs.model.ResourceNotFoundException;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.schedulers.JobStatus;
+
+/**
+ * Follows the AWS CloudWatch log stream of an AWS Batch job while it runs, and delivers each log event to a callback as soon as it is read.
+ *
+ * The tail waits until the job reports a log stream, then reads the stream from the head using forward tokens. While new events arrive the stream
+ * is read again after {@link #MIN_POLL_DELAY} milliseconds, every empty read doubles the delay up to {@link #MAX_POLL_DELAY} milliseconds. When the
+ * job is done the stream is read once more after the current delay, to pick up events which were still being ingested, and the tail completes.
+ */
+public class LogTail implements AutoCloseable {
+
+    static final long MIN_POLL_DELAY = 500;
+
+    static final long MAX_POLL_DELAY = 10000;
+
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    private final AWSBatchScheduler scheduler;
+
+    private final String jobIdentifier;
+
+    private final LogsClients.Pool clients;
+
+    private final String accessKey;
+
+    private final String secretKey;
+
+    // Sleeps for a number of milliseconds, returns true if interrupted
+    private final LongPredicate sleep;
+
+    private final Consumer<String> lines;
+
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    private final Thread thread;
+
+    private volatile boolean closed = false;
+
+    LogTail(AWSBatchScheduler scheduler, String jobIdentifier, LogsClients.Pool clients, String accessKey, String secretKey, LongPredicate sleep,
+            Consumer<String> lines) {
+        this.scheduler = scheduler;
+        this.jobIdentifier = jobIdentifier;
+        this.clients = clients;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.sleep = sleep;
+        this.lines = lines;
+        thread = new Thread(this::run, "xenon-awsbatch-tail-" + jobIdentifier);
+        thread.setDaemon(true);
+    }
+
+    static LogTail start(AWSBatchScheduler scheduler, String jobIdentifier, String accessKey, String secretKey, Consumer<String> lines) {
+        return start(scheduler, jobIdentifier, LogsClients.SHARED, accessKey, secretKey, AWSBatchUtils::sleep, lines);
+    }
+
+    static LogTail start(AWSBatchScheduler scheduler, String jobIdentifier, LogsClients.Pool clients, String accessKey, String secretKey,
+            LongPredicate sleep, Consumer<String> lines) {
+        LogTail tail = new LogTail(scheduler, jobIdentifier, clients, accessKey, secretKey, sleep, lines);
+        tail.thread.start();
+        return tail;
+    }
+
+    /**
+     * Start a tail which writes each log event as a UTF-8 encoded line to a stream. The stream ends when the tail completes. Closing the stream
+     * closes the tail.
+     */
+    static InputStream stream(AWSBatchScheduler scheduler, String jobIdentifier, String accessKey, String secretKey) throws IOException {
+        return stream(scheduler, jobIdentifier, LogsClients.SHARED, accessKey, secretKey, AWSBatchUtils::sleep);
+    }
+
+    static InputStream stream(AWSBatchScheduler scheduler, String jobIdentifier, LogsClients.Pool clients, String accessKey, String secretKey,
+            LongPredicate sleep) throws IOException {
+        PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+        PipedOutputStream out = new PipedOutputStream(in);
+
+        LogTail tail = start(scheduler, jobIdentifier, clients, accessKey, secretKey, sleep, line -> {
+            try {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        tail.completion.whenComplete((result, error) -> {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // reader is gone, nothing to signal
+            }
+        });
+
+        return new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                tail.close();
+                super.close();
+            }
+        };
+    }
+
+    /**
+     * Get a future which completes when the job is done and its log has been read completely, or exceptionally when the log could not be read or
+     * the callback failed. The future is cancelled when the tail is closed before the job is done.
+     *
+     * @return the completion of this tail
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Stop following the log. No more lines are delivered once this method returns, except for a line which is being delivered concurrently.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        completion.cancel(false);
+    }
+
+    private void run() {
+        CompletableFuture<JobStatus> done = scheduler.whenDone(jobIdentifier);
+        try {
+            JobStatus status = awaitLogStream(done);
+            if (status != null && status.getSchedulerSpecificInformation().get("logStreamName") != null) {
+                follow(status, done);
+            }
+            completion.complete(null);
+        } catch (InterruptedException e) {
+            completion.cancel(false);
+        } catch (ExecutionException e) {
+            completion.completeExceptionally(e.getCause());
+        } catch (RuntimeException | XenonException e) {
+            completion.completeExceptionally(e);
+        } finally {
+            done.cancel(false);
+        }
+    }
+
+    /**
+     * Wait until the job reports a log stream or is done. The container of a job only gets a log stream once it starts.
+     */
+    private JobStatus awaitLogStream(CompletableFuture<JobStatus> done) throws InterruptedException, ExecutionException, XenonException {
+        CompletableFuture<JobStatus> running = scheduler.whenRunning(jobIdentifier);
+        JobStatus status;
+        try {
+            status = running.get();
+        } finally {
+            running.cancel(false);
+        }
+
+        long delay = MIN_POLL_DELAY;
+        while (status.getSchedulerSpecificInformation().get("logStreamName") == null && !status.isDone()) {
+            if (closed || sleep.test(delay)) {
+                throw new InterruptedException();
+            }
+            delay = Math.min(MAX_POLL_DELAY, delay * 2);
+            status = done.isDone() ? done.get() : scheduler.getJobStatus(jobIdentifier);
+        }
+        return status;
+    }
+
+    private void follow(JobStatus status, CompletableFuture<JobStatus> done) throws InterruptedException {
+        String region = AWSBatchUtils.getRegionFromArn(status.getSchedulerSpecificInformation().get("taskArn"));
+        AWSLogs lclient = clients.acquire(region, accessKey, secretKey);
+        try {
+            follow(lclient, status, done);
+        } finally {
+            clients.release(lclient);
+        }
+    }
+
+    private void follow(AWSLogs lclient, JobStatus status, CompletableFuture<JobStatus> done) throws InterruptedException {
+        GetLogEventsRequest request = new GetLogEventsRequest().withLogGroupName(AWSBatchUtils.LOG_GROUP)
+                .withLogStreamName(status.getSchedulerSpecificInformation().get("logStreamName")).withStartFromHead(true);
+
+        long delay = MIN_POLL_DELAY;
+        boolean lastRead = false;
+        while (true) {
+            boolean atEnd = true;
+            try {
+                GetLogEventsResult result = lclient.getLogEvents(request);
+                for (OutputLogEvent event : result.getEvents()) {
+                    if (closed) {
+                        throw new InterruptedException();
+                    }
+                    lines.accept(event.getMessage());
+                }
+                // At the end of the stream the same forward token is returned again
+                String nextToken = result.getNextForwardToken();
+                atEnd = nextToken == null || nextToken.equals(request.getNextToken());
+                request.setNextToken(nextToken);
+            } catch (ResourceNotFoundException e) {
+                // the stream is created when the first event is written
+            }
+
+            if (!atEnd) {
+                // read the next page right away
+                delay = MIN_POLL_DELAY;
+                continue;
+            }
+            if (lastRead) {
+                return;
+            }
+            if (done.isDone()) {
+                lastRead = true;
+            }
+            if (closed || sleep.test(delay)) {
+                throw new InterruptedException();
+            }
+            delay = Math.min(MAX_POLL_DELAY, delay * 2);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.AWSLogsClient;
+
+/**
+ * Reference counted pool of AWS CloudWatch logs clients, one per region and credential, shared by all log retrievals in the JVM. Each client has
+ * its own connection pool, so reusing them avoids setting up connections for every log. A client which is no longer used is kept for reuse, but
+ * only the {@link #MAX_IDLE_CLIENTS} most recently released ones, older idle clients are shut down.
+ */
+class LogsClients {
+
+    static final int MAX_IDLE_CLIENTS = 4;
+
+    /**
+     * Acquires and releases logs clients. The tails of job logs get their clients from a pool, so tests can replace the shared one.
+     */
+    interface Pool {
+
+        AWSLogs acquire(String region, String accessKey, String secretKey);
+
+        void release(AWSLogs client);
+    }
+
+    /** The clients shared by all log retrievals in the JVM. */
+    static final Pool SHARED = new Pool() {
+        @Override
+        public AWSLogs acquire(String region, String accessKey, String secretKey) {
+            return LogsClients.acquire(region, accessKey, secretKey);
+        }
+
+        @Override
+        public void release(AWSLogs client) {
+            LogsClients.release(client);
+        }
+    };
+
+    private static final class Entry {
+
+        final List<String> key;
+        final AWSLogs client;
+        int references = 0;
+
+        Entry(List<String> key, AWSLogs client) {
+            this.key = key;
+            this.client = client;
+        }
+    }
+
+    private static final Map<List<String>, Entry> CLIENTS = new HashMap<>();
+
+    private static final Map<AWSLogs, Entry> ENTRIES = new IdentityHashMap<>();
+
+    // The clients without references, least recently released first
+    private static final Map<List<String>, Entry> IDLE = new LinkedHashMap<>();
+
+    private LogsClients() {
+        // utility class
+    }
+
+    /**
+     * Get the client for a region and credential. The secret key is only kept as a hash in the key of the pool. Every call must be paired with a
+     * call to {@link #release(AWSLogs)}.
+     *
+     * @param region the region of the log
+     * @param accessKey Access key used for AWS Cloudwatch logs client
+     * @param secretKey Secret key used for AWS Cloudwatch logs client
+     * @return the shared client
+     */
+    static AWSLogs acquire(String region, String accessKey, String secretKey) {
+        return acquire(List.of(region, accessKey, AWSBatchUtils.credentialHash(secretKey)), () -> {
+            AWSStaticCredentialsProvider credProv = new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, secretKey));
+            return AWSLogsClient.builder().withCredentials(credProv).withRegion(region).build();
+        });
+    }
+
+    static synchronized AWSLogs acquire(List<String> key, Supplier<AWSLogs> factory) {
+        Entry entry = CLIENTS.get(key);
+        if (entry == null) {
+            entry = new Entry(key, factory.get());
+            CLIENTS.put(key, entry);
+            ENTRIES.put(entry.client, entry);
+        }
+        IDLE.remove(key);
+        entry.references++;
+        return entry.client;
+    }
+
+    /**
+     * Release a client. When it is no longer used it becomes idle, and the least recently released idle clients are shut down. Clients which were
+     * not acquired from this pool are shut down immediately.
+     *
+     * @param client the client to release
+     */
+    static void release(AWSLogs client) {
+        List<AWSLogs> evicted = new ArrayList<>();
+        synchronized (LogsClients.class) {
+            Entry entry = ENTRIES.get(client);
+            if (entry == null) {
+                evicted.add(client);
+            } else if (--entry.references == 0) {
+                IDLE.put(entry.key, entry);
+                Iterator<Entry> eldest = IDLE.values().iterator();
+                while (IDLE.size() > MAX_IDLE_CLIENTS) {
+                    Entry idle = eldest.next();
+                    eldest.remove();
+                    CLIENTS.remove(idle.key);
+                    ENTRIES.remove(idle.client);
+                    evicted.add(idle.client);
+                }
+            }
+        }
+        for (AWSLogs c : evicted) {
+            c.shutdown();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides how long to wait before polling the status of a job again, based on its AWS Batch state and how long it has been in that state.
+ *
+ * Jobs which were just submitted, are starting, or just started running are polled at the minimum delay, as they are likely to change state soon.
+ * While a job stays pending, runnable or running the delay grows with the time spent in the state, so the relative latency of noticing a change
+ * stays constant while the number of polls grows only logarithmically with the time in the state. This matters most for jobs pending on
+ * dependencies, which can stay pending for hours. A random jitter spreads the polls of jobs in the same state.
+ */
+class PollPolicy {
+    // Fraction of the time spent in a state to wait before polling again
+    static final double BACKOFF_FRACTION = 0.1;
+    // Relative jitter added to or subtracted from the delay
+    static final double JITTER = 0.2;
+
+    private final long minDelay;
+    private final long maxDelay;
+    private final boolean adaptive;
+
+    private PollPolicy(long minDelay, long maxDelay, boolean adaptive) {
+        this.minDelay = minDelay;
+        this.maxDelay = Math.max(minDelay, maxDelay);
+        this.adaptive = adaptive;
+    }
+
+    static PollPolicy fixed(long delay) {
+        return new PollPolicy(delay, delay, false);
+    }
+
+    static PollPolicy adaptive(long minDelay, long maxDelay) {
+        return new PollPolicy(minDelay, maxDelay, true);
+    }
+
+    long getMinDelay() {
+        return minDelay;
+    }
+
+    /**
+     * @param state AWS Batch state of the job, or null if it is not known yet
+     * @param timeInState number of milliseconds the job has been in the state
+     * @return number of milliseconds to wait before polling the job again
+     */
+    long nextDelay(String state, long timeInState) {
+        if (!adaptive) {
+            return minDelay;
+        }
+        if (!"PENDING".equals(state) && !"RUNNABLE".equals(state) && !"RUNNING".equals(state)) {
+            // Unknown, just submitted or starting
+            return minDelay;
+        }
+        double delay = Math.max(minDelay, timeInState * BACKOFF_FRACTION);
+        delay *= 1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(minDelay, Math.min(maxDelay, Math.round(delay)));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchUtils.JOBDEFINITION_SEPARATOR;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchUtils.QUEUE_SEPARATOR;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.amazonaws.services.batch.model.DescribeJobDefinitionsRequest;
+import com.amazonaws.services.batch.model.DescribeJobDefinitionsResult;
+import com.amazonaws.services.batch.model.DescribeJobQueuesRequest;
+import com.amazonaws.services.batch.model.DescribeJobQueuesResult;
+import com.amazonaws.services.batch.model.JobDefinition;
+import com.amazonaws.services.batch.model.JobQueueDetail;
+
+import nl.esciencecenter.xenon.XenonException;
+
+/**
+ * Cached catalogue of the job queues and job definitions of a scheduler, from which the Xenon queues are formed.
+ *
+ * The catalogue is loaded with paginated describe requests on first use. Once older than its time to live it is still used, while a fresh copy is
+ * loaded in the background.
+ */
+class QueueCatalogue {
+
+    interface Describer<Q, R> {
+        R describe(Q request) throws XenonException;
+    }
+
+    static final class Snapshot {
+        // In the order returned by AWS
+        final Map<String, JobQueueDetail> queues;
+        // By name:revision, in the order returned by AWS
+        final Map<String, JobDefinition> definitions;
+        final String[] queueNames;
+        final long loadedAt;
+
+        Snapshot(Map<String, JobQueueDetail> queues, Map<String, JobDefinition> definitions) {
+            this.queues = queues;
+            this.definitions = definitions;
+            this.loadedAt = System.currentTimeMillis();
+            List<String> names = new ArrayList<>();
+            for (String queue : queues.keySet()) {
+                for (String definition : definitions.keySet()) {
+                    names.add(definition + QUEUE_SEPARATOR + queue);
+                }
+            }
+            this.queueNames = names.toArray(String[]::new);
+        }
+
+        /**
+         * Find a job definition by name and revision, or by name only for its latest revision.
+         *
+         * @param definition the name:revision or name of the job definition
+         * @return the job definition or null if not found
+         */
+        JobDefinition findDefinition(String definition) {
+            if (definition.contains(JOBDEFINITION_SEPARATOR)) {
+                return definitions.get(definition);
+            }
+            JobDefinition latest = null;
+            for (JobDefinition candidate : definitions.values()) {
+                if (candidate.getJobDefinitionName().equals(definition) && (latest == null || candidate.getRevision() > latest.getRevision())) {
+                    latest = candidate;
+                }
+            }
+            return latest;
+        }
+    }
+
+    private final Describer<DescribeJobQueuesRequest, DescribeJobQueuesResult> queuesDescriber;
+    private final Describer<DescribeJobDefinitionsRequest, DescribeJobDefinitionsResult> definitionsDescriber;
+    private final Executor executor;
+    private final long ttl;
+    private final boolean activeOnly;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param queuesDescriber sends a DescribeJobQueues request, within the rate limits of the scheduler
+     * @param definitionsDescriber sends a DescribeJobDefinitions request, within the rate limits of the scheduler
+     * @param executor executor on which the catalogue is refreshed in the background
+     * @param ttl time to live in milliseconds, 0 or less disables caching
+     * @param activeOnly if only ACTIVE job definitions should be included
+     */
+    QueueCatalogue(Describer<DescribeJobQueuesRequest, DescribeJobQueuesResult> queuesDescriber,
+            Describer<DescribeJobDefinitionsRequest, DescribeJobDefinitionsResult> definitionsDescriber, Executor executor, long ttl, boolean activeOnly) {
+        this.queuesDescriber = queuesDescriber;
+        this.definitionsDescriber = definitionsDescriber;
+        this.executor = executor;
+        this.ttl = ttl;
+        this.activeOnly = activeOnly;
+    }
+
+    Snapshot get() throws XenonException {
+        Snapshot current = snapshot;
+        if (current == null || ttl <= 0) {
+            return load(current);
+        }
+        if (System.currentTimeMillis() - current.loadedAt >= ttl && refreshing.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        load(current);
+                    } catch (XenonException | RuntimeException e) {
+                        // Keep using the current snapshot, the next get will try again
+                    } finally {
+                        refreshing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                refreshing.set(false);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Load the catalogue again, unless it was already replaced since the given snapshot was returned. After {@link #invalidate()} it is always
+     * loaded again.
+     *
+     * @param expected the snapshot which was found to be outdated or incomplete
+     * @return the new snapshot
+     * @throws XenonException if the queues or definitions could not be described
+     */
+    synchronized Snapshot load(Snapshot expected) throws XenonException {
+        if (snapshot != null && snapshot != expected && ttl > 0) {
+            return snapshot;
+        }
+        Map<String, JobQueueDetail> queues = new LinkedHashMap<>();
+        DescribeJobQueuesRequest queuesRequest = new DescribeJobQueuesRequest();
+        do {
+            DescribeJobQueuesResult result = queuesDescriber.describe(queuesRequest);
+            result.getJobQueues().forEach(q -> queues.put(q.getJobQueueName(), q));
+            queuesRequest.setNextToken(result.getNextToken());
+        } while (queuesRequest.getNextToken() != null);
+
+        Map<String, JobDefinition> definitions = new LinkedHashMap<>();
+        DescribeJobDefinitionsRequest definitionsRequest = new DescribeJobDefinitionsRequest();
+        if (activeOnly) {
+            definitionsRequest.setStatus("ACTIVE");
+        }
+        do {
+            DescribeJobDefinitionsResult result = definitionsDescriber.describe(definitionsRequest);
+            result.getJobDefinitions().forEach(d -> definitions.put(d.getJobDefinitionName() + JOBDEFINITION_SEPARATOR + d.getRevision(), d));
+            definitionsRequest.setNextToken(result.getNextToken());
+        } while (definitionsRequest.getNextToken() != null);
+
+        snapshot = new Snapshot(queues, definitions);
+        return snapshot;
+    }
+
+    void invalidate() {
+        snapshot = null;
+    }
+}
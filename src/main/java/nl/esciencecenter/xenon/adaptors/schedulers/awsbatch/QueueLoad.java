@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.List;
+
+import com.amazonaws.services.batch.model.JobStatus;
+
+/**
+ * Load of an AWS Batch job queue, from which the wait of a newly submitted job is estimated.
+ *
+ * AWS Batch starts the waiting jobs of a queue on the vCPUs of its compute environments, so the wait of a new job grows with the number of jobs
+ * ahead of it and shrinks with the number of vCPUs the compute environments can scale to. Queues sharing a compute environment are served in order
+ * of priority, so of two queues with the same estimate the one with the higher priority is preferred.
+ */
+class QueueLoad {
+
+    /** States of the jobs which have not started yet */
+    static final List<JobStatus> WAITING_STATES = List.of(JobStatus.SUBMITTED, JobStatus.PENDING, JobStatus.RUNNABLE);
+
+    /** Number of jobs which are submitted, pending or runnable */
+    final int waiting;
+
+    /** Priority of the job queue, higher is served first */
+    final int priority;
+
+    /** Maximum number of vCPUs of the enabled compute environments of the job queue, 0 if unknown */
+    final int capacity;
+
+    /** If the job queue accepts jobs */
+    final boolean enabled;
+
+    QueueLoad(int waiting, int priority, int capacity, boolean enabled) {
+        this.waiting = waiting;
+        this.priority = priority;
+        this.capacity = capacity;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Estimate the wait of a new job as the number of jobs ahead of it per vCPU. Without a known capacity, for example for unmanaged compute
+     * environments, the number of jobs ahead of it is used.
+     *
+     * @param routed number of jobs submitted to the job queue since this load was determined
+     * @return the estimated wait, only comparable to the estimates of other queues
+     */
+    double estimatedWait(int routed) {
+        return (waiting + routed + 1.0) / Math.max(capacity, 1);
+    }
+
+    /**
+     * Compare the estimated waits of new jobs in two queues.
+     *
+     * @param a the load of the first queue
+     * @param routedA number of jobs submitted to the first queue since its load was determined
+     * @param b the load of the second queue
+     * @param routedB number of jobs submitted to the second queue since its load was determined
+     * @return a negative number, zero, or a positive number if a new job is expected to start sooner, as soon, or later in the first queue
+     */
+    static int compare(QueueLoad a, int routedA, QueueLoad b, int routedB) {
+        int result = Double.compare(a.estimatedWait(routedA), b.estimatedWait(routedB));
+        if (result == 0) {
+            result = Integer.compare(b.priority, a.priority);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonClientException;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.schedulers.JobDescription;
+
+/**
+ * Routes submissions over a pool of compatible queues, which may belong to several schedulers, for example in different regions. Each job is
+ * submitted to the queue in which it is expected to start first, which spreads a large number of jobs over all the capacity of the pool.
+ *
+ * The wait in a queue is estimated from the number of jobs waiting in its AWS Batch job queue, the maximum number of vCPUs of its compute
+ * environments and its priority. The loads are cached for a time to live, in between the jobs routed to a queue are counted as waiting. Queues
+ * whose job queue is disabled or whose load can not be determined are skipped, a failure to determine a load is cached for the same time to live.
+ * All queues should accept the same jobs, the queue name of the submitted job descriptions is ignored.
+ */
+public class QueueRouter {
+
+    /**
+     * A queue of a scheduler in the pool.
+     */
+    public static final class Target {
+
+        private final AWSBatchScheduler scheduler;
+
+        private final String queueName;
+
+        public Target(AWSBatchScheduler scheduler, String queueName) {
+            if (scheduler == null) {
+                throw new IllegalArgumentException("Scheduler can not be null");
+            }
+            if (queueName == null) {
+                throw new IllegalArgumentException("Queue name can not be null");
+            }
+            this.scheduler = scheduler;
+            this.queueName = queueName;
+        }
+
+        public AWSBatchScheduler getScheduler() {
+            return scheduler;
+        }
+
+        public String getQueueName() {
+            return queueName;
+        }
+
+        @Override
+        public String toString() {
+            return queueName + " at " + scheduler.getLocation();
+        }
+    }
+
+    /**
+     * A job submitted by a router, with the queue it was routed to.
+     */
+    public static final class RoutedJob {
+
+        private final Target target;
+
+        private final String jobIdentifier;
+
+        RoutedJob(Target target, String jobIdentifier) {
+            this.target = target;
+            this.jobIdentifier = jobIdentifier;
+        }
+
+        /**
+         * @return the queue the job was submitted to, its scheduler should be used for the status of the job
+         */
+        public Target getTarget() {
+            return target;
+        }
+
+        public String getJobIdentifier() {
+            return jobIdentifier;
+        }
+    }
+
+    // The load of a queue, or the error which prevented determining it
+    private static final class Lookup {
+
+        final QueueLoad load;
+
+        final XenonException error;
+
+        Lookup(QueueLoad load, XenonException error) {
+            this.load = load;
+            this.error = error;
+        }
+    }
+
+    private final List<Target> targets;
+
+    private final ExpiringCache<Target, Lookup> loads;
+
+    // Number of jobs routed to each queue since its load was determined
+    private final Map<Target, AtomicInteger> routed = new ConcurrentHashMap<>();
+
+    /**
+     * @param loadTtl number of milliseconds the load of a queue is used before it is determined again, 0 or less determines it for every job
+     * @param targets the queues of the pool
+     */
+    public QueueRouter(long loadTtl, List<Target> targets) {
+        if (targets == null || targets.isEmpty()) {
+            throw new IllegalArgumentException("Pool should contain at least one queue");
+        }
+        this.targets = new ArrayList<>(targets);
+        this.loads = new ExpiringCache<>(loadTtl);
+        this.targets.forEach(target -> routed.put(target, new AtomicInteger()));
+    }
+
+    /**
+     * @param loadTtl number of milliseconds the load of a queue is used before it is determined again, 0 or less determines it for every job
+     * @param scheduler the scheduler of the queues
+     * @param queueNames the queues of the pool
+     */
+    public QueueRouter(long loadTtl, AWSBatchScheduler scheduler, String... queueNames) {
+        this(loadTtl, toTargets(scheduler, queueNames));
+    }
+
+    private static List<Target> toTargets(AWSBatchScheduler scheduler, String... queueNames) {
+        List<Target> result = new ArrayList<>();
+        for (String queueName : queueNames) {
+            result.add(new Target(scheduler, queueName));
+        }
+        return result;
+    }
+
+    /**
+     * @return the queues of the pool
+     */
+    public List<Target> getTargets() {
+        return new ArrayList<>(targets);
+    }
+
+    /**
+     * Select the queue in which a new job is expected to start first, and count the job as routed to it.
+     *
+     * @return the selected queue
+     * @throws XenonException if no queue is enabled, or the loads of all queues could not be determined
+     */
+    public Target select() throws XenonException {
+        Target best = null;
+        QueueLoad bestLoad = null;
+        int bestRouted = 0;
+        XenonException error = null;
+        for (Target target : targets) {
+            Lookup lookup = loads.get(target, this::load);
+            if (lookup.error != null) {
+                error = lookup.error;
+                continue;
+            }
+            QueueLoad load = lookup.load;
+            int count = routed.get(target).get();
+            if (load.enabled && (best == null || QueueLoad.compare(load, count, bestLoad, bestRouted) < 0)) {
+                best = target;
+                bestLoad = load;
+                bestRouted = count;
+            }
+        }
+        if (best == null) {
+            if (error != null) {
+                throw error;
+            }
+            throw new XenonException(AWSBatchAdaptor.ADAPTOR_NAME, "None of the queues of the pool is enabled");
+        }
+        routed.get(best).incrementAndGet();
+        return best;
+    }
+
+    private Lookup load(Target target) {
+        try {
+            QueueLoad load = target.scheduler.getQueueLoad(target.queueName);
+            // the jobs routed so far are included in the new load
+            routed.get(target).set(0);
+            return new Lookup(load, null);
+        } catch (XenonException e) {
+            // skip the queue until its load is determined again, instead of trying it for every job
+            return new Lookup(null, e);
+        } catch (AmazonClientException e) {
+            return new Lookup(null, new XenonException(AWSBatchAdaptor.ADAPTOR_NAME, "Unable to determine load of queue " + target + ": " + e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Submit a batch job to the queue of the pool in which it is expected to start first, see {@link #select()}.
+     *
+     * @param description the description of the job, its queue name is ignored
+     * @return the job identifier and the queue it was submitted to
+     * @throws XenonException if no queue could be selected or the submission failed
+     */
+    public RoutedJob submitBatchJob(JobDescription description) throws XenonException {
+        if (description == null) {
+            throw new IllegalArgumentException("Job description can not be null");
+        }
+        Target target = select();
+        JobDescription routedDescription = new JobDescription(description);
+        routedDescription.setQueueName(target.queueName);
+        return new RoutedJob(target, target.scheduler.submitBatchJob(routedDescription));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.CANCEL_RATE_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.DESCRIBE_RATE_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.LIST_RATE_PROPERTY;
+import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchAdaptor.SUBMIT_RATE_PROPERTY;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.credentials.Credential;
+import nl.esciencecenter.xenon.credentials.PasswordCredential;
+
+/**
+ * The token buckets which limit the rate of requests to each AWS Batch API. AWS enforces request rates per account and region, so the buckets are
+ * shared by all schedulers in the JVM with the same location and account. The rate of a bucket is set by the first scheduler which uses it.
+ */
+class RateLimits {
+
+    private static final Map<List<Object>, TokenBucket> BUCKETS = new ConcurrentHashMap<>();
+
+    final TokenBucket submit;
+
+    final TokenBucket describe;
+
+    final TokenBucket list;
+
+    final TokenBucket cancel;
+
+    RateLimits(String location, Credential credential, XenonProperties properties) throws XenonException {
+        String account = credential instanceof PasswordCredential ? ((PasswordCredential) credential).getUsername() : null;
+        this.submit = bucket("submit", location, account, properties.getDoubleProperty(SUBMIT_RATE_PROPERTY));
+        this.describe = bucket("describe", location, account, properties.getDoubleProperty(DESCRIBE_RATE_PROPERTY));
+        this.list = bucket("list", location, account, properties.getDoubleProperty(LIST_RATE_PROPERTY));
+        this.cancel = bucket("cancel", location, account, properties.getDoubleProperty(CANCEL_RATE_PROPERTY));
+    }
+
+    private static TokenBucket bucket(String api, String location, String account, double rate) {
+        return BUCKETS.computeIfAbsent(Arrays.asList(api, location, account), key -> new TokenBucket(rate, rate));
+    }
+
+    /**
+     * @return the time in milliseconds a request to each API would currently wait for its bucket
+     */
+    Map<String, Long> getQueueingDelays() {
+        Map<String, Long> delays = new LinkedHashMap<>();
+        delays.put("submit", TimeUnit.NANOSECONDS.toMillis(submit.delay()));
+        delays.put("describe", TimeUnit.NANOSECONDS.toMillis(describe.delay()));
+        delays.put("list", TimeUnit.NANOSECONDS.toMillis(list.delay()));
+        delays.put("cancel", TimeUnit.NANOSECONDS.toMillis(cancel.delay()));
+        return delays;
+    }
+}
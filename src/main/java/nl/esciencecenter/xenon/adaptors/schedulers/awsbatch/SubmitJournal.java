@@ -0,0 +1,263 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only local journal of submitted jobs, so the jobs which may still be running can be found again after a restart without listing all
+ * queues.
+ *
+ * Every submitted job is appended as a line with its identifier, queue and submit time. Jobs which are known to be done are removed by compacting
+ * the journal, which rewrites it to a temporary file and moves that over the journal. A line which was only partly written when the process stopped
+ * is cut off.
+ *
+ * A journal can only be opened once at a time, by any process. It is locked through a file next to it with the extension ".lock".
+ */
+class SubmitJournal implements Closeable {
+
+    static final class Entry {
+        final String jobIdentifier;
+        final String queueName;
+        final long submittedAt;
+
+        Entry(String jobIdentifier, String queueName, long submittedAt) {
+            this.jobIdentifier = jobIdentifier;
+            this.queueName = queueName;
+            this.submittedAt = submittedAt;
+        }
+    }
+
+    private static final String SEPARATOR = "\t";
+
+    private final Path path;
+
+    private final long compactInterval;
+
+    // Jobs in the journal, in the order they were submitted
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    // Holds the lock of the journal while it is open
+    private final FileChannel lock;
+
+    // Appends to the journal, null when it could not be reopened after a compaction
+    private BufferedWriter writer;
+
+    private long compactedAt;
+
+    private boolean compacting = false;
+
+    private boolean closed = false;
+
+    /**
+     * Open a journal, reading the jobs which are already in it.
+     *
+     * @param path the journal file, which is created when it does not exist
+     * @param compactInterval minimum number of milliseconds between compactions
+     * @throws IOException if the journal is already in use, or can not be read or opened for appending
+     */
+    SubmitJournal(Path path, long compactInterval) throws IOException {
+        this.path = path;
+        this.compactInterval = compactInterval;
+        // the jobs of a previous run may be done, so the first compaction is due immediately
+        this.compactedAt = 0;
+        this.lock = FileChannel.open(path.resolveSibling(path.getFileName() + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock();
+            read();
+            writer = open();
+        } catch (IOException | RuntimeException e) {
+            // closing the channel releases the lock
+            lock.close();
+            throw e;
+        }
+    }
+
+    // Lock the journal, compacting would otherwise drop the jobs appended by another scheduler using the same file
+    private void lock() throws IOException {
+        FileLock locked;
+        try {
+            locked = lock.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // locked by another journal in this JVM
+            locked = null;
+        }
+        if (locked == null) {
+            throw new IOException("Journal " + path + " is already used by another scheduler");
+        }
+    }
+
+    private BufferedWriter open() throws IOException {
+        return Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // Read the journal, removing a partly written last line
+    private void read() throws IOException {
+        boolean terminated = true;
+        try (SeekableByteChannel channel = Files.newByteChannel(path)) {
+            if (channel.size() > 0) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.position(channel.size() - 1).read(last);
+                terminated = last.get(0) == '\n';
+            }
+        } catch (NoSuchFileException e) {
+            // new journal
+            return;
+        }
+
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        if (!terminated) {
+            // the last line was only partly written, cut it off so the next line is not appended to it
+            lines.remove(lines.size() - 1);
+            long complete = 0;
+            for (String line : lines) {
+                complete += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+            }
+        }
+        for (String line : lines) {
+            String[] fields = line.split(SEPARATOR);
+            if (fields.length != 3) {
+                continue;
+            }
+            try {
+                entries.put(fields[0], new Entry(fields[0], fields[1], Long.parseLong(fields[2])));
+            } catch (NumberFormatException e) {
+                // not a journal line
+            }
+        }
+    }
+
+    private static String format(Entry entry) {
+        return entry.jobIdentifier + SEPARATOR + entry.queueName + SEPARATOR + entry.submittedAt + "\n";
+    }
+
+    /**
+     * Record a submitted job. The line is flushed before this method returns.
+     *
+     * @param jobIdentifier the submitted job
+     * @param queueName the queue it was submitted to
+     * @param submittedAt the submit time in milliseconds since the epoch
+     * @throws IOException if the journal can not be written
+     */
+    synchronized void append(String jobIdentifier, String queueName, long submittedAt) throws IOException {
+        Entry entry = new Entry(jobIdentifier, queueName, submittedAt);
+        if (writer == null) {
+            writer = open();
+        }
+        writer.write(format(entry));
+        writer.flush();
+        entries.put(jobIdentifier, entry);
+    }
+
+    /**
+     * @return the jobs in the journal, in the order they were submitted
+     */
+    synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Check if a compaction is due, and if so claim it. The caller must call {@link #compact(Collection)} or {@link #releaseCompaction()}
+     * afterwards.
+     *
+     * @return if the caller should compact the journal
+     */
+    synchronized boolean claimCompaction() {
+        if (compacting || System.currentTimeMillis() - compactedAt < compactInterval) {
+            return false;
+        }
+        compacting = true;
+        return true;
+    }
+
+    /**
+     * Give up a claimed compaction, for example because the jobs could not be described. The next compaction is due after the compaction interval.
+     */
+    synchronized void releaseCompaction() {
+        compactedAt = System.currentTimeMillis();
+        compacting = false;
+    }
+
+    /**
+     * Remove jobs from the journal by rewriting it. Does nothing once the journal is closed.
+     *
+     * @param done the jobs to remove
+     * @throws IOException if the journal can not be rewritten, it then still contains all jobs, or if it can not be reopened for appending
+     */
+    synchronized void compact(Collection<String> done) throws IOException {
+        try {
+            if (closed) {
+                return;
+            }
+            Map<String, Entry> remaining = new LinkedHashMap<>(entries);
+            remaining.keySet().removeAll(done);
+
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                for (Entry entry : remaining.values()) {
+                    out.write(format(entry));
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            entries.clear();
+            entries.putAll(remaining);
+
+            // the writer still appends to the replaced file, when the journal can not be reopened here the next append tries again
+            BufferedWriter replaced = writer;
+            writer = null;
+            if (replaced != null) {
+                replaced.close();
+            }
+            writer = open();
+        } finally {
+            compactedAt = System.currentTimeMillis();
+            compacting = false;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } finally {
+            lock.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+/**
+ * A registered {@link JobStatusListener}, which receives state transitions until it is closed.
+ */
+public interface Subscription extends AutoCloseable {
+
+    /**
+     * Stop delivering state transitions to the listener. A transition which is being delivered concurrently may still arrive.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter. Tokens are added at a fixed rate up to a maximum burst. Callers which find the bucket empty reserve a future token and
+ * wait for it, so waiting callers are served in order of arrival.
+ */
+class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final double rate;
+
+    private final double burst;
+
+    private double tokens;
+
+    private long updatedAt;
+
+    /**
+     * @param rate number of tokens added per second, 0 or less for an unlimited bucket
+     * @param burst maximum number of tokens in the bucket
+     */
+    TokenBucket(double rate, double burst) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.updatedAt = System.nanoTime();
+    }
+
+    /**
+     * Take a token, reserving a future one when the bucket is empty.
+     *
+     * @return the number of nanoseconds to wait before the token may be used
+     */
+    synchronized long reserve() {
+        if (rate <= 0) {
+            return 0;
+        }
+        refill();
+        tokens -= 1;
+        return waitFor(tokens);
+    }
+
+    /**
+     * The queueing delay of the bucket, which is how long a token reserved now would have to wait, without reserving it.
+     *
+     * @return the number of nanoseconds a new reservation would wait
+     */
+    synchronized long delay() {
+        if (rate <= 0) {
+            return 0;
+        }
+        refill();
+        return waitFor(tokens - 1);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - updatedAt) * rate / NANOS_PER_SECOND);
+        updatedAt = now;
+    }
+
+    private long waitFor(double remaining) {
+        if (remaining >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-remaining * NANOS_PER_SECOND / rate);
+    }
+
+    void acquire() throws InterruptedException {
+        long wait = reserve();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static HttpResponseException slowDown() {
+        return new HttpResponseException("SlowDown", null, HttpResponse.builder().statusCode(503).build());
+    }
+
+    @Test
+    public void prefixOf_nested() {
+        assertEquals("data", AdaptiveConcurrencyLimiter.prefixOf("data/run1/file.txt"));
+    }
+
+    @Test
+    public void prefixOf_root() {
+        assertEquals("", AdaptiveConcurrencyLimiter.prefixOf("file.txt"));
+    }
+
+    @Test
+    public void isThrottled_wrapped503() {
+        assertTrue(AdaptiveConcurrencyLimiter.isThrottled(new RuntimeException(slowDown())));
+    }
+
+    @Test
+    public void isThrottled_404() {
+        assertFalse(AdaptiveConcurrencyLimiter.isThrottled(new HttpResponseException("NotFound", null, HttpResponse.builder().statusCode(404).build())));
+    }
+
+    @Test
+    public void call_success_increasesLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 8);
+
+        limiter.call("a", () -> "ok", true);
+
+        assertEquals(4.25, limiter.getLimit("a"), 1e-9);
+    }
+
+    @Test
+    public void call_success_boundedByMax() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 4);
+
+        limiter.call("a", () -> "ok", true);
+
+        assertEquals(4.0, limiter.getLimit("a"), 1e-9);
+    }
+
+    @Test
+    public void call_throttled_retriesAndDecreases() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 8);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = limiter.call("a", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw slowDown();
+            }
+            return "ok";
+        }, true);
+
+        assertEquals("ok", result);
+        assertEquals(2, attempts.get());
+        assertEquals(6.0 + 1.0 / 6.0, limiter.getLimit("a"), 1e-9);
+    }
+
+    @Test
+    public void call_throttled_otherPrefixUnaffected() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 8);
+        AtomicInteger attempts = new AtomicInteger();
+
+        limiter.call("a", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw slowDown();
+            }
+            return "ok";
+        }, true);
+
+        assertEquals(8.0, limiter.getLimit("b"), 1e-9);
+    }
+
+    @Test(expected = HttpResponseException.class)
+    public void call_throttledNotIdempotent_throws() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 8);
+
+        limiter.call("a", () -> {
+            throw slowDown();
+        }, false);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void call_otherError_passedOn() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 8);
+
+        limiter.call("a", () -> {
+            throw new IllegalStateException("boom");
+        }, true);
+    }
+
+    @Test
+    public void call_error_releasesSlot() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1);
+
+        try {
+            limiter.call("a", () -> {
+                throw new OutOfMemoryError("put");
+            }, true);
+        } catch (OutOfMemoryError e) {
+            // expected
+        }
+
+        // with a limit of 1 this would block forever if the slot had leaked
+        assertEquals("ok", limiter.call("a", () -> "ok", true));
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+public class JCloudsTransferManagerTest {
+
+    private static final String BUCKET = "test";
+
+    private static final long HOUR = 3600_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BlobStore store;
+    private JCloudsFileSytem fileSystem;
+    private JCloudsTransferManager manager;
+
+    @Before
+    public void setUp() {
+        BlobStoreContext context = ContextBuilder.newBuilder("transient").buildView(BlobStoreContext.class);
+        store = context.getBlobStore();
+        store.createContainerInLocation(null, BUCKET);
+
+        fileSystem = new JCloudsFileSytem("test", "transient", "transient", new DefaultCredential(), new Path("/"), context, BUCKET, 4096,
+                new XenonProperties());
+        // A small byte budget, so files larger than it are transferred on their own
+        manager = new JCloudsTransferManager(fileSystem, 4, 2048);
+    }
+
+    @After
+    public void tearDown() throws XenonException {
+        fileSystem.close();
+    }
+
+    private static void write(java.nio.file.Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(java.nio.file.Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    void putBlob(String name, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        store.putBlob(BUCKET, store.blobBuilder(name).payload(new ByteArrayInputStream(bytes)).contentLength(bytes.length).build());
+    }
+
+    String readBlob(String name) throws IOException {
+        try (InputStream in = store.getBlob(BUCKET, name).getPayload().openStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    Set<String> blobNames() {
+        Set<String> names = new TreeSet<>();
+        for (StorageMetadata m : store.list(BUCKET, ListContainerOptions.Builder.recursive())) {
+            names.add(m.getName());
+        }
+        return names;
+    }
+
+    private java.nio.file.Path createTree() throws IOException {
+        java.nio.file.Path local = folder.newFolder("local").toPath();
+        write(local.resolve("a.txt"), "a");
+        write(local.resolve("dir/b.txt"), "bb");
+        write(local.resolve("dir/sub/c.txt"), "ccc");
+        // Larger than the byte budget
+        byte[] large = new byte[10_000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        Files.write(local.resolve("dir/large.bin"), large);
+        Files.createDirectories(local.resolve("empty"));
+        return local;
+    }
+
+    @Test
+    public void upload_tree() throws Exception {
+        java.nio.file.Path local = createTree();
+
+        TransferProgress progress = manager.upload(local, new Path("/remote"), null);
+
+        assertEquals(4, progress.getFilesTransferred());
+        assertEquals(0, progress.getFilesFailed());
+        assertEquals(1 + 2 + 3 + 10_000, progress.getBytesTransferred());
+
+        Set<String> expected = new TreeSet<>(Set.of("remote/a.txt", "remote/dir/b.txt", "remote/dir/sub/c.txt", "remote/dir/large.bin",
+                "remote/empty/___not__empty___"));
+        assertEquals(expected, blobNames());
+    }
+
+    @Test
+    public void upload_replacesTargetPlaceholder() throws Exception {
+        fileSystem.createDirectory(new Path("/remote"));
+        java.nio.file.Path local = folder.newFolder("local").toPath();
+        write(local.resolve("a.txt"), "a");
+
+        manager.upload(local, new Path("/remote"), null);
+
+        assertEquals(Set.of("remote/a.txt"), blobNames());
+    }
+
+    @Test
+    public void upload_listenerSeesEveryFile() throws Exception {
+        java.nio.file.Path local = createTree();
+        Set<Long> seen = new TreeSet<>();
+
+        manager.upload(local, new Path("/remote"), p -> {
+            synchronized (seen) {
+                seen.add(p.getFilesTransferred());
+            }
+        });
+
+        assertTrue(seen.contains(4L));
+    }
+
+    @Test
+    public void upload_directoryLinkLoop_skipped() throws Exception {
+        java.nio.file.Path local = folder.newFolder("local").toPath();
+        write(local.resolve("dir/a.txt"), "a");
+        Files.createSymbolicLink(local.resolve("dir/loop"), local.resolve("dir"));
+
+        TransferProgress progress = manager.upload(local, new Path("/remote"), null);
+
+        assertEquals(1, progress.getFilesTransferred());
+        assertEquals(Set.of("remote/dir/a.txt"), blobNames());
+    }
+
+    @Test
+    public void upload_slowTransfers_walkBounded() throws Exception {
+        java.nio.file.Path local = folder.newFolder("local").toPath();
+        for (int i = 0; i < 100; i++) {
+            write(local.resolve("f" + i), "x");
+        }
+        JCloudsTransferManager single = new JCloudsTransferManager(fileSystem, 1, 2048);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<TransferProgress> seen = new AtomicReference<>();
+
+        Thread uploader = new Thread(() -> {
+            try {
+                single.upload(local, new Path("/remote"), p -> {
+                    seen.set(p);
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (XenonException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        uploader.start();
+
+        while (seen.get() == null) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+
+        // One file in the blocked listener plus at most 16 queued ones, and the one the walk is waiting to queue.
+        long discovered = seen.get().getFilesDiscovered();
+        release.countDown();
+        uploader.join();
+
+        assertTrue("discovered " + discovered, discovered <= 18);
+        assertEquals(100, blobNames().size());
+    }
+
+    @Test(expected = NoSuchPathException.class)
+    public void upload_missingLocalDirectory() throws Exception {
+        manager.upload(folder.getRoot().toPath().resolve("missing"), new Path("/remote"), null);
+    }
+
+    @Test
+    public void download_roundTrip() throws Exception {
+        java.nio.file.Path local = createTree();
+        manager.upload(local, new Path("/remote"), null);
+        java.nio.file.Path target = folder.getRoot().toPath().resolve("target/nested");
+
+        TransferProgress progress = manager.download(new Path("/remote"), target, null);
+
+        assertEquals(4, progress.getFilesTransferred());
+        assertEquals(0, progress.getFilesFailed());
+        assertEquals("a", read(target.resolve("a.txt")));
+        assertEquals("bb", read(target.resolve("dir/b.txt")));
+        assertEquals("ccc", read(target.resolve("dir/sub/c.txt")));
+        assertArrayEquals(Files.readAllBytes(local.resolve("dir/large.bin")), Files.readAllBytes(target.resolve("dir/large.bin")));
+        assertTrue(Files.isDirectory(target.resolve("empty")));
+        assertFalse(Files.exists(target.resolve("empty/___not__empty___")));
+    }
+
+    @Test(expected = NoSuchPathException.class)
+    public void download_missingRemoteDirectory() throws Exception {
+        manager.download(new Path("/missing"), folder.getRoot().toPath(), null);
+    }
+
+    @Test
+    public void download_failurePartway_transfersOthersAndThrows() throws Exception {
+        putBlob("remote/a.txt", "a");
+        putBlob("remote/b.txt", "b");
+        putBlob("remote/c.txt", "c");
+        java.nio.file.Path target = folder.newFolder("target").toPath();
+        // A non-empty directory in the way of one of the files
+        write(target.resolve("b.txt/keep"), "keep");
+
+        try {
+            manager.download(new Path("/remote"), target, null);
+            fail("Expected XenonException");
+        } catch (XenonException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("1 of 3 files could not be transferred"));
+        }
+
+        assertEquals("a", read(target.resolve("a.txt")));
+        assertEquals("c", read(target.resolve("c.txt")));
+        assertEquals("keep", read(target.resolve("b.txt/keep")));
+    }
+
+    @Test
+    public void download_directoryMarker_skipped() throws Exception {
+        putBlob("remote/a.txt", "a");
+        putBlob("remote/dir/", "");
+        java.nio.file.Path target = folder.newFolder("target").toPath();
+
+        TransferProgress progress = manager.download(new Path("/remote"), target, null);
+
+        assertEquals(1, progress.getFilesTransferred());
+        assertEquals(0, progress.getFilesFailed());
+        assertEquals("a", read(target.resolve("a.txt")));
+        assertFalse(Files.exists(target.resolve("dir")));
+    }
+
+    @Test
+    public void download_blobOutsideTarget_refused() throws Exception {
+        putBlob("remote/a.txt", "a");
+        putBlob("remote/../escape.txt", "x");
+        java.nio.file.Path target = folder.newFolder("target").toPath();
+
+        try {
+            manager.download(new Path("/remote"), target, null);
+            fail("Expected XenonException");
+        } catch (XenonException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("could not be transferred"));
+        }
+
+        assertEquals("a", read(target.resolve("a.txt")));
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("escape.txt")));
+    }
+
+    @Test
+    public void syncUpload_unchanged_skipped() throws Exception {
+        java.nio.file.Path local = createTree();
+        manager.syncUpload(local, new Path("/remote"), new SyncOptions(), null);
+
+        TransferProgress progress = manager.syncUpload(local, new Path("/remote"), new SyncOptions(), null);
+
+        assertEquals(0, progress.getFilesTransferred());
+        assertEquals(4, progress.getFilesSkipped());
+    }
+
+    @Test
+    public void syncUpload_changedSize_uploaded() throws Exception {
+        java.nio.file.Path local = createTree();
+        manager.syncUpload(local, new Path("/remote"), new SyncOptions(), null);
+        write(local.resolve("dir/b.txt"), "longer");
+
+        TransferProgress progress = manager.syncUpload(local, new Path("/remote"), new SyncOptions(), null);
+
+        assertEquals(1, progress.getFilesTransferred());
+        assertEquals(3, progress.getFilesSkipped());
+        assertEquals("longer", readBlob("remote/dir/b.txt"));
+    }
+
+    @Test
+    public void syncUpload_newerLocal_uploaded() throws Exception {
+        java.nio.file.Path local = createTree();
+        manager.syncUpload(local, new Path("/remote"), new SyncOptions(), null);
+        write(local.resolve("a.txt"), "z");
+        Files.setLastModifiedTime(local.resolve("a.txt"), FileTime.fromMillis(System.currentTimeMillis() + HOUR));
+
+        TransferProgress progress = manager.syncUpload(local, new Path("/remote"), new SyncOptions(), null);
+
+        assertEquals(1, progress.getFilesTransferred());
+        assertEquals("z", readBlob("remote/a.txt"));
+    }
+
+    @Test
+    public void syncUpload_olderLocalSameSize_skipped() throws Exception {
+        java.nio.file.Path local = createTree();
+        manager.syncUpload(local, new Path("/remote"), new SyncOptions(), null);
+        write(local.resolve("a.txt"), "z");
+        Files.setLastModifiedTime(local.resolve("a.txt"), FileTime.fromMillis(System.currentTimeMillis() - HOUR));
+
+        TransferProgress progress = manager.syncUpload(local, new Path("/remote"), new SyncOptions(), null);
+
+        assertEquals(0, progress.getFilesTransferred());
+        assertEquals("a", readBlob("remote/a.txt"));
+    }
+
+    @Test
+    public void syncUpload_checksumDiffers_uploaded() throws Exception {
+        java.nio.file.Path local = createTree();
+        manager.syncUpload(local, new Path("/remote"), new SyncOptions(), null);
+        // Same size and older, so only the checksum reveals the change
+        write(local.resolve("a.txt"), "z");
+        Files.setLastModifiedTime(local.resolve("a.txt"), FileTime.fromMillis(System.currentTimeMillis() - HOUR));
+
+        TransferProgress progress = manager.syncUpload(local, new Path("/remote"), new SyncOptions().withChecksum(true), null);
+
+        assertEquals(1, progress.getFilesTransferred());
+        assertEquals(3, progress.getFilesSkipped());
+        assertEquals("z", readBlob("remote/a.txt"));
+    }
+
+    @Test
+    public void syncUpload_checksumEqual_skippedDespiteNewerLocal() throws Exception {
+        java.nio.file.Path local = createTree();
+        manager.syncUpload(local, new Path("/remote"), new SyncOptions(), null);
+        Files.setLastModifiedTime(local.resolve("a.txt"), FileTime.fromMillis(System.currentTimeMillis() + HOUR));
+
+        TransferProgress progress = manager.syncUpload(local, new Path("/remote"), new SyncOptions().withChecksum(true), null);
+
+        assertEquals(0, progress.getFilesTransferred());
+        assertEquals(4, progress.getFilesSkipped());
+    }
+
+    @Test
+    public void syncUpload_extraneous_keptByDefault() throws Exception {
+        java.nio.file.Path local = createTree();
+        putBlob("remote/extra.txt", "x");
+
+        TransferProgress progress = manager.syncUpload(local, new Path("/remote"), new SyncOptions(), null);
+
+        assertEquals(0, progress.getFilesDeleted());
+        assertTrue(blobNames().contains("remote/extra.txt"));
+    }
+
+    @Test
+    public void syncUpload_extraneous_deleted() throws Exception {
+        java.nio.file.Path local = createTree();
+        putBlob("remote/extra.txt", "x");
+        putBlob("remote/dir/sub/extra.txt", "x");
+        putBlob("other/keep.txt", "x");
+
+        TransferProgress progress = manager.syncUpload(local, new Path("/remote"), new SyncOptions().withDeleteExtraneous(true), null);
+
+        assertEquals(2, progress.getFilesDeleted());
+        assertEquals(4, progress.getFilesTransferred());
+        assertFalse(blobNames().contains("remote/extra.txt"));
+        assertFalse(blobNames().contains("remote/dir/sub/extra.txt"));
+        assertTrue(blobNames().contains("other/keep.txt"));
+    }
+
+    @Test
+    public void syncDownload_unchanged_skipped() throws Exception {
+        manager.upload(createTree(), new Path("/remote"), null);
+        java.nio.file.Path target = folder.newFolder("target").toPath();
+        manager.syncDownload(new Path("/remote"), target, new SyncOptions(), null);
+
+        TransferProgress progress = manager.syncDownload(new Path("/remote"), target, new SyncOptions(), null);
+
+        assertEquals(0, progress.getFilesTransferred());
+        assertEquals(4, progress.getFilesSkipped());
+    }
+
+    @Test
+    public void syncDownload_changedSize_downloaded() throws Exception {
+        manager.upload(createTree(), new Path("/remote"), null);
+        java.nio.file.Path target = folder.newFolder("target").toPath();
+        manager.syncDownload(new Path("/remote"), target, new SyncOptions(), null);
+        write(target.resolve("dir/b.txt"), "longer");
+
+        TransferProgress progress = manager.syncDownload(new Path("/remote"), target, new SyncOptions(), null);
+
+        assertEquals(1, progress.getFilesTransferred());
+        assertEquals("bb", read(target.resolve("dir/b.txt")));
+    }
+
+    @Test
+    public void syncDownload_extraneous_deleted() throws Exception {
+        manager.upload(createTree(), new Path("/remote"), null);
+        java.nio.file.Path target = folder.newFolder("target").toPath();
+        write(target.resolve("extra.txt"), "x");
+        write(target.resolve("dir/extra.txt"), "x");
+
+        TransferProgress progress = manager.syncDownload(new Path("/remote"), target, new SyncOptions().withDeleteExtraneous(true), null);
+
+        assertEquals(4, progress.getFilesTransferred());
+        assertEquals(2, progress.getFilesDeleted());
+        assertFalse(Files.exists(target.resolve("extra.txt")));
+        assertFalse(Files.exists(target.resolve("dir/extra.txt")));
+        assertEquals("a", read(target.resolve("a.txt")));
+    }
+
+    @Test
+    public void md5FromETag_quoted() {
+        assertEquals("0123456789abcdef0123456789abcdef", JCloudsTransferManager.md5FromETag("\"0123456789ABCDEF0123456789ABCDEF\""));
+    }
+
+    @Test
+    public void md5FromETag_multipart_null() {
+        // The ETag of a multipart upload is not the checksum of the content, so the sync falls back to the modification time
+        assertNull(JCloudsTransferManager.md5FromETag("\"0123456789abcdef0123456789abcdef-3\""));
+    }
+
+    @Test
+    public void md5FromETag_null() {
+        assertNull(JCloudsTransferManager.md5FromETag(null));
+    }
+
+    @Test
+    public void md5Hex_matchesETag() throws Exception {
+        java.nio.file.Path file = folder.newFile("a.txt").toPath();
+        write(file, "hello");
+        putBlob("a.txt", "hello");
+
+        assertEquals(JCloudsTransferManager.md5FromETag(store.blobMetadata(BUCKET, "a.txt").getETag()), JCloudsTransferManager.md5Hex(file));
+    }
+}
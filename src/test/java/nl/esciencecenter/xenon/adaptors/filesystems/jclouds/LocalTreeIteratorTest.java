@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalTreeIteratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compareKeys_directorySortsAfterDot() {
+        assertTrue(LocalTreeIterator.compareKeys("a.txt", "a/b") < 0);
+    }
+
+    @Test
+    public void compareKeys_prefixFirst() {
+        assertTrue(LocalTreeIterator.compareKeys("a", "a0") < 0);
+    }
+
+    @Test
+    public void compareKeys_supplementaryAfterBmp() {
+        // UTF-16 order would put the surrogate pair before U+FF5E, UTF-8 order puts it after
+        assertTrue(LocalTreeIterator.compareKeys("\uFF5E", "\uD83D\uDE00") < 0);
+    }
+
+    @Test
+    public void iterator_blobKeyOrder() throws IOException {
+        java.nio.file.Path root = folder.getRoot().toPath();
+        Files.createDirectories(root.resolve("a/c"));
+        Files.createDirectories(root.resolve("empty"));
+        for (String name : new String[] { "b", "a.txt", "a-b", "a/b", "a/c/d" }) {
+            Files.write(root.resolve(name), new byte[] { 42 });
+        }
+
+        List<String> keys = new ArrayList<>();
+        new LocalTreeIterator(root).forEachRemaining(e -> keys.add(e.key));
+
+        assertEquals(List.of("a-b", "a.txt", "a/b", "a/c/d", "b"), keys);
+    }
+
+    @Test
+    public void iterator_directoryLinkLoop_skipped() throws IOException {
+        java.nio.file.Path root = folder.getRoot().toPath();
+        Files.createDirectories(root.resolve("a"));
+        Files.write(root.resolve("a/b"), new byte[] { 42 });
+        Files.createSymbolicLink(root.resolve("a/loop"), root);
+
+        List<String> keys = new ArrayList<>();
+        new LocalTreeIterator(root).forEachRemaining(e -> keys.add(e.key));
+
+        assertEquals(List.of("a/b"), keys);
+    }
+
+    @Test
+    public void iterator_linkedDirectory_followed() throws IOException {
+        java.nio.file.Path root = folder.newFolder("root").toPath();
+        java.nio.file.Path other = folder.newFolder("other").toPath();
+        Files.write(other.resolve("b"), new byte[] { 42 });
+        Files.createSymbolicLink(root.resolve("a"), other);
+
+        List<String> keys = new ArrayList<>();
+        new LocalTreeIterator(root).forEachRemaining(e -> keys.add(e.key));
+
+        assertEquals(List.of("a/b"), keys);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.filesystems.jclouds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpRetryHandler;
+import org.jclouds.http.handlers.DelegatingRetryHandler;
+import org.junit.Test;
+
+import com.google.inject.Module;
+
+public class ThrottleRetryModulesTest {
+
+    private static HttpResponse response(int statusCode) {
+        return HttpResponse.builder().statusCode(statusCode).build();
+    }
+
+    @Test
+    public void shouldRetryRequest_throttled_notRetriedNorDelegated() {
+        AtomicInteger delegated = new AtomicInteger();
+        HttpRetryHandler handler = new ThrottleRetryModules.SkipThrottlingRetryHandler((command, response) -> delegated.incrementAndGet() > 0);
+
+        assertFalse(handler.shouldRetryRequest(null, response(503)));
+        assertFalse(handler.shouldRetryRequest(null, response(429)));
+        assertEquals(0, delegated.get());
+    }
+
+    @Test
+    public void shouldRetryRequest_otherErrors_delegated() {
+        HttpRetryHandler handler = new ThrottleRetryModules.SkipThrottlingRetryHandler((command, response) -> response.getStatusCode() == 500);
+
+        assertTrue(handler.shouldRetryRequest(null, response(500)));
+        assertFalse(handler.shouldRetryRequest(null, response(400)));
+    }
+
+    private static void assertHandlersInstalled(String api, Module module) {
+        BlobStoreContext context = ContextBuilder.newBuilder(api).endpoint("http://localhost:1").credentials("identity", "Y3JlZGVudGlhbA==")
+                .modules(List.of(module)).buildView(BlobStoreContext.class);
+        try {
+            DelegatingRetryHandler handler = context.utils().injector().getInstance(DelegatingRetryHandler.class);
+
+            assertTrue(handler.getClientErrorRetryHandler() instanceof ThrottleRetryModules.SkipThrottlingRetryHandler);
+            assertTrue(handler.getServerErrorRetryHandler() instanceof ThrottleRetryModules.SkipThrottlingRetryHandler);
+        } finally {
+            context.close();
+        }
+    }
+
+    @Test
+    public void awsS3_handlersInstalled() {
+        assertHandlersInstalled("aws-s3", new ThrottleRetryModules.AWSS3());
+    }
+
+    @Test
+    public void s3_handlersInstalled() {
+        assertHandlersInstalled("s3", new ThrottleRetryModules.S3());
+    }
+
+    @Test
+    public void azureBlob_handlersInstalled() {
+        assertHandlersInstalled("azureblob", new ThrottleRetryModules.AzureBlob());
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.schedulers.JobDescription;
+import nl.esciencecenter.xenon.schedulers.JobStatus;
+import nl.esciencecenter.xenon.schedulers.NoSuchJobException;
+
+public class AWSBatchAsyncSchedulerTest {
+
+    private final StubBatchClient client = new StubBatchClient();
+
+    private AWSBatchScheduler scheduler;
+
+    private AWSBatchAsyncScheduler async;
+
+    @Before
+    public void setUp() throws XenonException {
+        scheduler = AWSBatchSchedulerTest.createScheduler(client,
+                Map.of(AWSBatchAdaptor.POLL_ADAPTIVE_PROPERTY, "false", AWSBatchAdaptor.POLL_DELAY_PROPERTY, "10"));
+        async = scheduler.async();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    private static <T> T get(CompletableFuture<T> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static Throwable getError(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected future to fail");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    @Test
+    public void getJobStatus_notBlocking() throws Exception {
+        client.addJob("a", "RUNNING");
+        client.asyncDelay = 200;
+
+        CompletableFuture<JobStatus> future = async.getJobStatus("a");
+
+        assertFalse(future.isDone());
+        assertEquals("RUNNING", get(future).getState());
+    }
+
+    @Test
+    public void getJobStatus_unknownJob_noSuchJob() throws Exception {
+        assertTrue(getError(async.getJobStatus("unknown")) instanceof NoSuchJobException);
+    }
+
+    @Test
+    public void getJobStatus_throttled_retried() throws Exception {
+        client.addJob("a", "RUNNING");
+        client.throttle("describeJobs", 2);
+
+        assertEquals("RUNNING", get(async.getJobStatus("a")).getState());
+        assertEquals(1, client.describeJobsRequests.size());
+    }
+
+    @Test
+    public void submitBatchJob_submitted() throws Exception {
+        JobDescription description = new JobDescription();
+        description.setQueueName(StubBatchClient.QUEUE);
+
+        String jobIdentifier = get(async.submitBatchJob(description));
+
+        assertEquals("SUBMITTED", client.getStatus(jobIdentifier));
+    }
+
+    @Test
+    public void submitBatchJob_throttled_retried() throws Exception {
+        client.throttle("submitJob", 2);
+        JobDescription description = new JobDescription();
+        description.setQueueName(StubBatchClient.QUEUE);
+
+        get(async.submitBatchJob(description));
+
+        assertEquals(1, client.submitJobRequests.get());
+    }
+
+    @Test
+    public void submitBatchJob_unknownQueue_fails() throws Exception {
+        JobDescription description = new JobDescription();
+        description.setQueueName("definition:1!unknown");
+
+        assertTrue(getError(async.submitBatchJob(description)) instanceof XenonException);
+        assertEquals(0, client.submitJobRequests.get());
+    }
+
+    @Test
+    public void cancelJob_running_terminated() throws Exception {
+        client.addJob("a", "RUNNING");
+
+        JobStatus status = get(async.cancelJob("a"));
+
+        assertEquals("FAILED", status.getState());
+        assertEquals(List.of("a"), client.terminated);
+    }
+
+    @Test
+    public void cancelJob_done_notTerminated() throws Exception {
+        client.addJob("a", "SUCCEEDED");
+
+        assertEquals("SUCCEEDED", get(async.cancelJob("a")).getState());
+        assertTrue(client.terminated.isEmpty());
+    }
+
+    @Test
+    public void waitUntilDone_done() throws Exception {
+        client.addJob("a", "RUNNING");
+
+        CompletableFuture<JobStatus> future = async.waitUntilDone("a", 0);
+        client.setStatus("a", "SUCCEEDED");
+
+        assertEquals("SUCCEEDED", get(future).getState());
+    }
+
+    @Test
+    public void waitUntilRunning_timeout_latestStatus() throws Exception {
+        client.addJob("a", "RUNNABLE");
+
+        assertEquals("RUNNABLE", get(async.waitUntilRunning("a", 50)).getState());
+    }
+
+    @Test
+    public void waitUntilDone_timeout_stopsPolling() throws Exception {
+        client.addJob("a", "RUNNING");
+
+        assertEquals("RUNNING", get(async.waitUntilDone("a", 50)).getState());
+        Thread.sleep(50);
+        int polls = client.describeJobsRequests.size();
+        Thread.sleep(100);
+
+        assertEquals(polls, client.describeJobsRequests.size());
+    }
+
+    @Test
+    public void waitUntilDone_unknownJob_noSuchJob() throws Exception {
+        assertTrue(getError(async.waitUntilDone("unknown", 0)) instanceof NoSuchJobException);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void waitUntilDone_negativeTimeout() {
+        async.waitUntilDone("a", -1);
+    }
+}
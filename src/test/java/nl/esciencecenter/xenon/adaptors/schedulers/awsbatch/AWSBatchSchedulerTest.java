@@ -0,0 +1,452 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.batch.model.ListJobsRequest;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.XenonProperties;
+import nl.esciencecenter.xenon.credentials.DefaultCredential;
+import nl.esciencecenter.xenon.schedulers.JobDescription;
+import nl.esciencecenter.xenon.schedulers.JobStatus;
+import nl.esciencecenter.xenon.schedulers.NoSuchJobException;
+import nl.esciencecenter.xenon.schedulers.NoSuchQueueException;
+
+public class AWSBatchSchedulerTest {
+
+    private static final AtomicInteger LOCATIONS = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final StubBatchClient client = new StubBatchClient();
+
+    private AWSBatchScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.close();
+        }
+    }
+
+    // Every scheduler gets its own location, so the rate limits shared by schedulers of the same account do not carry over between tests
+    static AWSBatchScheduler createScheduler(StubBatchClient client, Map<String, String> properties) throws XenonException {
+        XenonProperties xp = new XenonProperties(new AWSBatchAdaptor().getSupportedProperties(), properties);
+        return new AWSBatchScheduler("test", AWSBatchAdaptor.ADAPTOR_NAME, "test-" + LOCATIONS.incrementAndGet(), new DefaultCredential(), client, xp);
+    }
+
+    private AWSBatchScheduler scheduler() throws XenonException {
+        return scheduler(new HashMap<>());
+    }
+
+    private AWSBatchScheduler scheduler(Map<String, String> properties) throws XenonException {
+        scheduler = createScheduler(client, properties);
+        return scheduler;
+    }
+
+    @Test
+    public void getJobStatuses_chunksOf100_inInputOrder() throws XenonException {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            client.addJob("job-" + i, i % 2 == 0 ? "RUNNING" : "SUCCEEDED");
+            ids.add("job-" + i);
+        }
+        ids.add(3, "job-200");
+        ids.add(null);
+        ids.add("unknown");
+
+        JobStatus[] statuses = scheduler().getJobStatuses(ids.toArray(new String[0]));
+
+        assertEquals(3, client.describeJobsRequests.size());
+        Set<String> described = new HashSet<>();
+        for (List<String> request : client.describeJobsRequests) {
+            assertTrue(request.size() <= AWSBatchScheduler.DESCRIBE_JOBS_LIMIT);
+            described.addAll(request);
+        }
+        // duplicates and nulls are not described
+        assertEquals(251, described.size());
+
+        assertEquals(ids.size(), statuses.length);
+        for (int i = 0; i < 251; i++) {
+            assertEquals(ids.get(i), statuses[i].getJobIdentifier());
+            assertEquals(client.getStatus(ids.get(i)), statuses[i].getState());
+        }
+        assertNull(statuses[251]);
+        assertTrue(statuses[252].getException() instanceof NoSuchJobException);
+    }
+
+    @Test
+    public void getJobStatuses_unknownJob_noSuchJob() throws XenonException {
+        client.addJob("a", "RUNNING");
+
+        JobStatus[] statuses = scheduler().getJobStatuses("a", "unknown");
+
+        assertEquals("RUNNING", statuses[0].getState());
+        assertTrue(statuses[1].getException() instanceof NoSuchJobException);
+        assertTrue(statuses[1].hasException());
+    }
+
+    @Test
+    public void getJobStatuses_failedChunk_errorOnlyForItsJobs() throws XenonException {
+        for (int i = 0; i < 150; i++) {
+            client.addJob("job-" + i, "RUNNING");
+        }
+        client.onDescribeJobs = ids -> {
+            if (ids.contains("job-120")) {
+                throw new IllegalStateException("broken");
+            }
+        };
+        String[] ids = new String[150];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "job-" + i;
+        }
+
+        JobStatus[] statuses = scheduler().getJobStatuses(ids);
+
+        assertEquals("RUNNING", statuses[0].getState());
+        assertEquals("RUNNING", statuses[99].getState());
+        XenonException error = statuses[100].getException();
+        assertTrue(error.getMessage(), error.getMessage().contains("broken"));
+        assertTrue(!(error instanceof NoSuchJobException));
+        assertTrue(statuses[149].hasException());
+    }
+
+    @Test
+    public void getJobStatuses_throttled_retried() throws XenonException {
+        client.addJob("a", "RUNNING");
+        client.throttle("describeJobs", 2);
+
+        JobStatus[] statuses = scheduler().getJobStatuses("a");
+
+        assertEquals("RUNNING", statuses[0].getState());
+        assertEquals(1, client.describeJobsRequests.size());
+    }
+
+    private static Stream<JobDescription> descriptionsFailingAt(int count, int failAt) {
+        return IntStream.range(0, count).mapToObj(i -> {
+            if (i == failAt) {
+                throw new IllegalStateException("unreadable description");
+            }
+            JobDescription description = new JobDescription();
+            description.setQueueName(StubBatchClient.QUEUE);
+            return description;
+        });
+    }
+
+    @Test
+    public void submitBatchJobs_readFails_partialResult() throws XenonException {
+        try {
+            scheduler().submitBatchJobs(descriptionsFailingAt(5, 3));
+            fail("Expected BulkSubmitException");
+        } catch (BulkSubmitException e) {
+            BulkSubmitResult partial = e.getPartialResult();
+            assertEquals(3, partial.size());
+            assertFalse(partial.hasErrors());
+            assertEquals(3, client.submitJobRequests.get());
+            for (String jobIdentifier : partial.getJobIdentifiers()) {
+                assertEquals("SUBMITTED", client.getStatus(jobIdentifier));
+            }
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void submitBatchJobs_coalesceReadFails_nothingSubmitted() throws XenonException {
+        try {
+            scheduler().submitBatchJobs(descriptionsFailingAt(5, 3), true);
+            fail("Expected BulkSubmitException");
+        } catch (BulkSubmitException e) {
+            assertEquals(0, e.getPartialResult().size());
+            assertEquals(0, client.submitJobRequests.get());
+        }
+    }
+
+    @Test
+    public void submitBatchJobs_inInputOrder() throws XenonException {
+        BulkSubmitResult result = scheduler().submitBatchJobs(descriptionsFailingAt(20, -1));
+
+        assertEquals(20, result.size());
+        assertFalse(result.hasErrors());
+        assertEquals(20, Set.of(result.getJobIdentifiers()).size());
+    }
+
+    @Test
+    public void pollDelaySet_fixedPolling() throws Exception {
+        client.addJob("a", "RUNNING");
+
+        // adaptive polling would wait for the minimum delay of a second before the first poll
+        scheduler(Map.of(AWSBatchAdaptor.POLL_DELAY_PROPERTY, "10")).whenDone("a");
+        Thread.sleep(200);
+
+        assertTrue(client.describeJobsRequests.size() >= 5);
+    }
+
+    @Test
+    public void pollDelayAndAdaptiveSet_adaptivePolling() throws Exception {
+        client.addJob("a", "RUNNING");
+
+        scheduler(Map.of(AWSBatchAdaptor.POLL_DELAY_PROPERTY, "10", AWSBatchAdaptor.POLL_ADAPTIVE_PROPERTY, "true")).whenDone("a");
+        Thread.sleep(200);
+
+        assertEquals(0, client.describeJobsRequests.size());
+    }
+
+    @Test
+    public void getJobs_followsNextToken() throws XenonException {
+        client.pageSize = 2;
+        for (int i = 0; i < 5; i++) {
+            client.addJob("running-" + i, "RUNNING");
+        }
+        for (int i = 0; i < 3; i++) {
+            client.addJob("done-" + i, "SUCCEEDED");
+        }
+
+        String[] jobs = scheduler().getJobs();
+
+        assertEquals(List.of("running-0", "running-1", "running-2", "running-3", "running-4", "done-0", "done-1", "done-2"), List.of(jobs));
+        // one request for each of the 5 empty states, 3 pages of running and 2 pages of succeeded jobs
+        assertEquals(10, client.listJobsRequests.size());
+    }
+
+    @Test
+    public void getJobs_selectedQueue_onlyItsJobQueue() throws XenonException {
+        client.addQueue("other");
+        client.addJob("a", "RUNNING");
+
+        String[] jobs = scheduler().getJobs("definition:1!other");
+
+        assertEquals(0, jobs.length);
+        for (ListJobsRequest request : client.listJobsRequests) {
+            assertEquals("other", request.getJobQueue());
+        }
+    }
+
+    @Test(expected = NoSuchQueueException.class)
+    public void getJobs_unknownQueue() throws XenonException {
+        scheduler().getJobs("definition:1!unknown");
+    }
+
+    @Test
+    public void streamJobs_requestsPagesWhenNeeded() throws XenonException {
+        client.pageSize = 2;
+        for (int i = 0; i < 6; i++) {
+            client.addJob("job-" + i, "RUNNING");
+        }
+
+        List<String> jobs;
+        try (Stream<String> stream = scheduler().streamJobs(StubBatchClient.QUEUE)) {
+            jobs = stream.limit(3).collect(Collectors.toList());
+        }
+
+        assertEquals(List.of("job-0", "job-1", "job-2"), jobs);
+        // the 4 empty states before RUNNING and 2 pages of running jobs, not the third page
+        assertEquals(6, client.listJobsRequests.size());
+        ListJobsRequest last = client.listJobsRequests.get(5);
+        assertEquals("RUNNING", last.getJobStatus());
+        assertEquals("2", last.getNextToken());
+    }
+
+    @Test
+    public void streamJobs_throttled_retried() throws XenonException {
+        client.addJob("a", "RUNNING");
+        client.throttle("listJobs", 2);
+
+        try (Stream<String> stream = scheduler().streamJobs()) {
+            assertEquals(List.of("a"), stream.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void getQueueNames_throttled_retried() throws XenonException {
+        client.throttle("describeJobQueues", 2);
+        client.throttle("describeJobDefinitions", 2);
+
+        assertEquals(List.of(StubBatchClient.QUEUE), List.of(scheduler().getQueueNames()));
+    }
+
+    @Test
+    public void getQueueStatus_afterInvalidateQueueCache_reloaded() throws XenonException {
+        AWSBatchScheduler scheduler = scheduler();
+        scheduler.getQueueNames();
+        scheduler.invalidateQueueCache();
+        client.addQueue("new");
+
+        assertEquals("definition:1!new", scheduler.getQueueStatus("definition:1!new").getQueueName());
+    }
+
+    @Test
+    public void getJobs_queueCreatedAfterLoad_reloaded() throws XenonException {
+        AWSBatchScheduler scheduler = scheduler();
+        scheduler.getQueueNames();
+        client.addQueue("new");
+
+        assertEquals(0, scheduler.getJobs("definition:1!new").length);
+        assertEquals(2, client.describeJobQueuesRequests.get());
+    }
+
+    @Test
+    public void getJobs_unknownQueue_reloadedOnce() throws XenonException {
+        AWSBatchScheduler scheduler = scheduler();
+        scheduler.getQueueNames();
+
+        try {
+            scheduler.getJobs("definition:1!missing", "definition:1!other");
+            fail("Expected NoSuchQueueException");
+        } catch (NoSuchQueueException e) {
+            // expected
+        }
+        assertEquals(2, client.describeJobQueuesRequests.get());
+    }
+
+    @Test
+    public void close_twice_sharedClientKeptForOtherScheduler() throws XenonException {
+        List<Object> key = List.of("test-double-close");
+        BatchClients.acquire(key, () -> client);
+        BatchClients.acquire(key, () -> client);
+        AWSBatchScheduler first = createScheduler(client, new HashMap<>());
+        scheduler();
+
+        first.close();
+        first.close();
+
+        assertFalse(first.isOpen());
+        assertEquals(0, client.shutdowns.get());
+        client.addJob("job", "RUNNING");
+        assertEquals("RUNNING", scheduler.getJobStatus("job").getState());
+
+        scheduler.close();
+
+        assertEquals(1, client.shutdowns.get());
+    }
+
+    @Test
+    public void createScheduler_journalInUse_rejected() throws Exception {
+        Map<String, String> properties = Map.of(AWSBatchAdaptor.JOURNAL_PROPERTY, folder.getRoot().toPath().resolve("jobs").toString());
+        scheduler(properties);
+
+        try {
+            createScheduler(client, properties);
+            fail("Expected XenonException");
+        } catch (XenonException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("already used"));
+        }
+    }
+
+    @Test
+    public void cancelJobs_cancelOrTerminateByState() throws XenonException {
+        String[] states = { "SUBMITTED", "PENDING", "RUNNABLE", "STARTING", "RUNNING", "SUCCEEDED", "FAILED" };
+        for (String state : states) {
+            client.addJob(state.toLowerCase(), state);
+        }
+
+        JobStatus[] statuses = scheduler().cancelJobs("submitted", "pending", "runnable", "starting", "running", "succeeded", "failed", null, "unknown");
+
+        // sent concurrently, so in any order
+        assertEquals(Set.of("submitted", "pending", "runnable"), new HashSet<>(client.cancelled));
+        assertEquals(Set.of("starting", "running"), new HashSet<>(client.terminated));
+        for (int i = 0; i < 5; i++) {
+            assertEquals("FAILED", statuses[i].getState());
+            assertTrue(statuses[i].isDone());
+        }
+        assertEquals("SUCCEEDED", statuses[5].getState());
+        assertEquals("FAILED", statuses[6].getState());
+        assertNull(statuses[7]);
+        assertTrue(statuses[8].getException() instanceof NoSuchJobException);
+    }
+
+    @Test
+    public void cancelJobs_confirmsOnlyCancelledJobs() throws XenonException {
+        client.addJob("a", "RUNNING");
+        client.addJob("b", "RUNNABLE");
+        client.addJob("c", "SUCCEEDED");
+
+        scheduler().cancelJobs("a", "b", "c");
+
+        assertEquals(2, client.describeJobsRequests.size());
+        assertEquals(Set.of("a", "b"), new HashSet<>(client.describeJobsRequests.get(1)));
+    }
+
+    @Test
+    public void cancelJobs_cancelFails_errorOnlyForThatJob() throws XenonException {
+        client.addJob("a", "RUNNING");
+        client.addJob("b", "RUNNING");
+        client.unstoppable.add("b");
+
+        JobStatus[] statuses = scheduler().cancelJobs("a", "b");
+
+        assertEquals("FAILED", statuses[0].getState());
+        XenonException error = statuses[1].getException();
+        assertTrue(error.getMessage(), error.getMessage().contains("b can not be stopped"));
+        assertEquals("name-b", statuses[1].getName());
+    }
+
+    @Test
+    public void cancelJobs_throttled_retried() throws XenonException {
+        client.addJob("a", "RUNNING");
+        client.throttle("terminateJob", 2);
+
+        assertEquals("FAILED", scheduler().cancelJobs("a")[0].getState());
+        assertEquals(List.of("a"), client.terminated);
+    }
+
+    @Test
+    public void cancelJob_running_terminated() throws XenonException {
+        client.addJob("a", "RUNNING");
+
+        assertEquals("FAILED", scheduler().cancelJob("a").getState());
+        assertEquals(List.of("a"), client.terminated);
+    }
+
+    @Test
+    public void cancelJob_done_notTerminated() throws XenonException {
+        client.addJob("a", "SUCCEEDED");
+
+        assertEquals("SUCCEEDED", scheduler().cancelJob("a").getState());
+        assertTrue(client.terminated.isEmpty());
+    }
+
+    @Test
+    public void cancelJob_throttled_retried() throws XenonException {
+        client.addJob("a", "RUNNING");
+        client.throttle("terminateJob", 2);
+
+        assertEquals("FAILED", scheduler().cancelJob("a").getState());
+        assertEquals(List.of("a"), client.terminated);
+    }
+}
@@ -17,24 +17,37 @@ package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
 
 import static nl.esciencecenter.xenon.adaptors.schedulers.awsbatch.AWSBatchUtils.mapToSubmitJobRequest;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.batch.model.ArrayJobDependency;
+import com.amazonaws.services.batch.model.ClientException;
 import com.amazonaws.services.batch.model.ContainerOverrides;
 import com.amazonaws.services.batch.model.JobDependency;
 import com.amazonaws.services.batch.model.KeyValuePair;
+import com.amazonaws.services.batch.model.NodeOverrides;
+import com.amazonaws.services.batch.model.NodePropertyOverride;
 import com.amazonaws.services.batch.model.ResourceRequirement;
 import com.amazonaws.services.batch.model.ResourceType;
 import com.amazonaws.services.batch.model.RetryStrategy;
 import com.amazonaws.services.batch.model.SubmitJobRequest;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import nl.esciencecenter.xenon.adaptors.schedulers.JobStatusImplementation;
 import nl.esciencecenter.xenon.schedulers.InvalidJobDescriptionException;
 import nl.esciencecenter.xenon.schedulers.JobDescription;
+import nl.esciencecenter.xenon.schedulers.JobStatus;
 
 public class AWSBatchUtilsTest {
     @Rule
@@ -282,4 +295,113 @@ public class AWSBatchUtilsTest {
 
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void mapToSubmitJobRequest_multinodeDefinition() throws InvalidJobDescriptionException {
+        JobDescription description = new JobDescription();
+        description.setExecutable("mpirun");
+        description.setTasks(8);
+        description.setTasksPerNode(4);
+        description.setCoresPerTask(2);
+
+        SubmitJobRequest actual = mapToSubmitJobRequest(description, "jobqueue1", "jobdefinition1", true);
+
+        SubmitJobRequest expected = new SubmitJobRequest()
+            .withJobName("xenon")
+            .withJobQueue("jobqueue1")
+            .withJobDefinition("jobdefinition1")
+            .withNodeOverrides(new NodeOverrides()
+                .withNumNodes(2)
+                .withNodePropertyOverrides(List.of(new NodePropertyOverride()
+                    .withTargetNodes("0:")
+                    .withContainerOverrides(new ContainerOverrides().withCommand(List.of("mpirun")).withVcpus(8))
+                ))
+            );
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void mapToSubmitJobRequest_multinodeStartPerTask() throws InvalidJobDescriptionException {
+        exceptionRule.expect(InvalidJobDescriptionException.class);
+        exceptionRule.expectMessage("AWS Batch can not run multiple tasks per node");
+
+        JobDescription description = new JobDescription();
+        description.setTasks(8);
+        description.setTasksPerNode(4);
+        description.setStartPerTask();
+
+        mapToSubmitJobRequest(description, "jobqueue1", "jobdefinition1", true);
+    }
+
+    @Test
+    public void backoffDelay_decorrelated_betweenBaseAndThreeTimesPrevious() {
+        long delay = 0;
+        for (int i = 0; i < 100; i++) {
+            long next = AWSBatchUtils.backoffDelay(delay);
+            assertTrue(next >= 100 && next <= Math.min(10000, Math.max(100, delay) * 3));
+            delay = next;
+        }
+    }
+
+    private static AmazonServiceException serviceException(int statusCode, String errorCode) {
+        AmazonServiceException e = new ClientException(errorCode);
+        e.setStatusCode(statusCode);
+        e.setErrorCode(errorCode);
+        return e;
+    }
+
+    @Test
+    public void shouldRetry_throttled_false() {
+        SubmitJobRequest request = new SubmitJobRequest();
+
+        assertFalse(AWSBatchUtils.shouldRetry(request, serviceException(429, "TooManyRequestsException"), 0));
+        assertFalse(AWSBatchUtils.shouldRetry(request, serviceException(400, "ThrottlingException"), 0));
+    }
+
+    @Test
+    public void shouldRetry_serverError_true() {
+        assertTrue(AWSBatchUtils.shouldRetry(new SubmitJobRequest(), serviceException(503, "ServiceUnavailable"), 0));
+    }
+
+    @Test
+    public void shouldRetry_clientError_false() {
+        assertFalse(AWSBatchUtils.shouldRetry(new SubmitJobRequest(), serviceException(400, "ClientException"), 0));
+    }
+
+    @Test
+    public void clientRetryPolicy_maxErrorRetryOfClientConfiguration() {
+        assertTrue(AWSBatchUtils.clientRetryPolicy().isMaxErrorRetryInClientConfigHonored());
+    }
+
+    private static JobStatus logStatus() {
+        Map<String, String> info = Map.of("taskArn", "arn:aws:ecs:eu-west-1:123456789012:task/abc", "logStreamName", "definition/default/abc");
+        return new JobStatusImplementation("job", "job", "SUCCEEDED", 0, null, false, true, info);
+    }
+
+    @Test
+    public void writeLog_multiplePages_followsForwardTokens() throws IOException {
+        StubLogsClient client = new StubLogsClient();
+        client.addEvents("a", "b", "c", "d", "e");
+        StringWriter log = new StringWriter();
+
+        AWSBatchUtils.writeLog(client, logStatus(), log);
+
+        assertEquals(String.join(System.lineSeparator(), "a", "b", "c", "d", "e"), log.toString());
+        List<String> tokens = client.requests.stream().map(GetLogEventsRequest::getNextToken).collect(Collectors.toList());
+        // The read at the end of the stream returns its own token again, which ends the log
+        assertEquals(Arrays.asList(null, "f/2", "f/4", "f/5"), tokens);
+        assertEquals("definition/default/abc", client.requests.get(0).getLogStreamName());
+        assertTrue(client.requests.get(0).getStartFromHead());
+    }
+
+    @Test
+    public void writeLog_empty_noLines() throws IOException {
+        StubLogsClient client = new StubLogsClient();
+        StringWriter log = new StringWriter();
+
+        AWSBatchUtils.writeLog(client, logStatus(), log);
+
+        assertEquals("", log.toString());
+        assertEquals(2, client.requests.size());
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.schedulers.JobDescription;
+
+public class ArrayJobCoalescerTest {
+
+    private static JobDescription sweep(String executable, String value) {
+        JobDescription description = new JobDescription();
+        description.setExecutable(executable);
+        description.setArguments("--value", value);
+        description.setEnvironment(Map.of("VALUE", value));
+        return description;
+    }
+
+    @Test
+    public void shapeOf_withoutExecutable_null() {
+        assertNull(ArrayJobCoalescer.shapeOf(new JobDescription()));
+    }
+
+    @Test
+    public void shapeOf_invalidVariableName_null() {
+        JobDescription description = sweep("run", "1");
+        description.setEnvironment(Map.of("NOT-VALID", "1"));
+
+        assertNull(ArrayJobCoalescer.shapeOf(description));
+    }
+
+    @Test
+    public void partition_groupsByShape() {
+        List<JobDescription> descriptions = List.of(sweep("a", "1"), sweep("b", "1"), sweep("a", "2"), new JobDescription(), sweep("a", "3"));
+
+        List<List<Integer>> actual = ArrayJobCoalescer.partition(descriptions);
+
+        List<List<Integer>> expected = List.of(List.of(3), List.of(0, 2, 4), List.of(1));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void partition_splitsAtManifestSize() {
+        List<JobDescription> descriptions = new ArrayList<>();
+        String value = "x".repeat(1000);
+        for (int i = 0; i < 50; i++) {
+            descriptions.add(sweep("run", value));
+        }
+
+        List<List<Integer>> actual = ArrayJobCoalescer.partition(descriptions);
+
+        // Each child takes about 2 KiB of the manifest
+        assertEquals(5, actual.size());
+        for (List<Integer> array : actual) {
+            List<JobDescription> children = new ArrayList<>();
+            array.forEach(i -> children.add(descriptions.get(i)));
+            assertTrue(ArrayJobCoalescer.manifest(children).length() <= ArrayJobCoalescer.MAX_MANIFEST_BYTES);
+        }
+    }
+
+    @Test
+    public void manifest_quotesValues() {
+        String actual = ArrayJobCoalescer.manifest(List.of(sweep("run", "it's")));
+
+        String expected = "case \"$AWS_BATCH_JOB_ARRAY_INDEX\" in\n" + "0) export VALUE='it'\\''s'; exec 'run' '--value' 'it'\\''s' ;;\n"
+                + "*) echo \"No job for array index $AWS_BATCH_JOB_ARRAY_INDEX\" >&2; exit 1 ;;\nesac\n";
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.amazonaws.services.batch.AWSBatchAsync;
+
+public class BatchClientsTest {
+
+    private final AtomicInteger shutdowns = new AtomicInteger();
+
+    private AWSBatchAsync newClient() {
+        return (AWSBatchAsync) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { AWSBatchAsync.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "shutdown":
+                shutdowns.incrementAndGet();
+                return null;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @Test
+    public void acquire_sameKey_sameClient() {
+        AWSBatchAsync a = BatchClients.acquire(List.of("test-same"), this::newClient);
+        AWSBatchAsync b = BatchClients.acquire(List.of("test-same"), this::newClient);
+
+        BatchClients.release(a);
+        BatchClients.release(b);
+
+        assertSame(a, b);
+    }
+
+    @Test
+    public void acquire_otherKey_otherClient() {
+        AWSBatchAsync a = BatchClients.acquire(List.of("test-a"), this::newClient);
+        AWSBatchAsync b = BatchClients.acquire(List.of("test-b"), this::newClient);
+
+        BatchClients.release(a);
+        BatchClients.release(b);
+
+        assertNotSame(a, b);
+    }
+
+    @Test
+    public void release_lastReference_shutdown() {
+        AWSBatchAsync a = BatchClients.acquire(List.of("test-release"), this::newClient);
+        BatchClients.acquire(List.of("test-release"), this::newClient);
+
+        BatchClients.release(a);
+        assertEquals(0, shutdowns.get());
+        BatchClients.release(a);
+        assertEquals(1, shutdowns.get());
+    }
+
+    @Test
+    public void release_notAcquired_shutdown() {
+        BatchClients.release(newClient());
+
+        assertEquals(1, shutdowns.get());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.XenonException;
+
+public class ExpiringCacheTest {
+
+    @Test
+    public void get_cached_loadedOnce() throws XenonException {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(60000);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("a", k -> k + loads.incrementAndGet());
+        String value = cache.get("a", k -> k + loads.incrementAndGet());
+
+        assertEquals("a1", value);
+    }
+
+    @Test
+    public void get_invalidated_reloaded() throws XenonException {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(60000);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("a", k -> k + loads.incrementAndGet());
+        cache.invalidate("a");
+        String value = cache.get("a", k -> k + loads.incrementAndGet());
+
+        assertEquals("a2", value);
+    }
+
+    @Test
+    public void get_disabled_alwaysLoaded() throws XenonException {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(0);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("a", k -> k + loads.incrementAndGet());
+        String value = cache.get("a", k -> k + loads.incrementAndGet());
+
+        assertEquals("a2", value);
+    }
+
+    @Test(expected = XenonException.class)
+    public void get_loadFails_throws() throws XenonException {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(60000);
+
+        cache.get("a", k -> {
+            throw new XenonException("awsbatch", "not found");
+        });
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.batch.model.JobStatus;
+import com.amazonaws.services.batch.model.ListJobsRequest;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.schedulers.QueueStatus;
+
+public class JobIndexTest {
+
+    private final StubBatchClient client = new StubBatchClient();
+
+    private AWSBatchScheduler scheduler;
+
+    @Before
+    public void setUp() throws XenonException {
+        scheduler = AWSBatchSchedulerTest.createScheduler(client, new HashMap<>());
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    private static void assertActiveStatesOnly(List<ListJobsRequest> requests) {
+        assertEquals(JobIndex.ACTIVE_STATES.size(), requests.size());
+        for (ListJobsRequest request : requests) {
+            assertTrue(request.getJobStatus(), JobIndex.ACTIVE_STATES.contains(JobStatus.fromValue(request.getJobStatus())));
+        }
+    }
+
+    @Test
+    public void getJobs_seed_allStatesListed() throws XenonException {
+        client.addJob("a", "RUNNING");
+        client.addJob("b", "SUCCEEDED");
+        JobIndex index = new JobIndex(scheduler, 0, 60000);
+
+        assertEquals(List.of("a", "b"), index.getJobs("queue"));
+        assertEquals(JobIndex.ALL_STATES.size(), client.listJobsRequests.size());
+        assertTrue(client.describeJobsRequests.isEmpty());
+    }
+
+    @Test
+    public void countJobs_afterRefresh_deltaApplied() throws XenonException {
+        client.addJob("a", "RUNNING");
+        client.addJob("b", "SUCCEEDED");
+        client.addJob("c", "RUNNABLE");
+        JobIndex index = new JobIndex(scheduler, 0, 60000);
+        index.getJobs("queue");
+        client.listJobsRequests.clear();
+
+        client.setStatus("a", "FAILED");
+        client.setStatus("c", "RUNNING");
+        client.addJob("d", "SUBMITTED");
+        Map<String, Integer> counts = index.countJobs("queue");
+
+        assertEquals(Integer.valueOf(1), counts.get("SUBMITTED"));
+        assertEquals(Integer.valueOf(0), counts.get("RUNNABLE"));
+        assertEquals(Integer.valueOf(1), counts.get("RUNNING"));
+        assertEquals(Integer.valueOf(1), counts.get("SUCCEEDED"));
+        assertEquals(Integer.valueOf(1), counts.get("FAILED"));
+        assertActiveStatesOnly(client.listJobsRequests);
+        // only the active job which was not listed anymore is described
+        assertEquals(List.of(List.of("a")), client.describeJobsRequests);
+    }
+
+    @Test
+    public void getJobs_activeJobExpired_removed() throws XenonException {
+        client.addJob("a", "RUNNING");
+        client.addJob("b", "RUNNING");
+        JobIndex index = new JobIndex(scheduler, 0, 60000);
+        index.getJobs("queue");
+
+        client.removeJob("a");
+
+        assertEquals(List.of("b"), index.getJobs("queue"));
+    }
+
+    @Test
+    public void getJobs_submittedAndDoneBetweenRefreshes_foundByRescan() throws Exception {
+        JobIndex index = new JobIndex(scheduler, 0, 100);
+        index.getJobs("queue");
+
+        client.addJob("a", "SUCCEEDED");
+        assertEquals(List.of(), index.getJobs("queue"));
+        Thread.sleep(150);
+
+        assertEquals(List.of("a"), index.getJobs("queue"));
+    }
+
+    @Test
+    public void getJobs_withinRefresh_noRequests() throws XenonException {
+        client.addJob("a", "RUNNING");
+        JobIndex index = new JobIndex(scheduler, 60000, 600000);
+        index.getJobs("queue");
+        client.listJobsRequests.clear();
+
+        client.addJob("b", "RUNNING");
+
+        assertEquals(List.of("a"), index.getJobs("queue"));
+        assertTrue(client.listJobsRequests.isEmpty());
+    }
+
+    @Test(expected = XenonException.class)
+    public void countJobs_describeFails_exception() throws XenonException {
+        client.addJob("a", "RUNNING");
+        JobIndex index = new JobIndex(scheduler, 0, 60000);
+        index.getJobs("queue");
+        client.setStatus("a", "SUCCEEDED");
+        client.onDescribeJobs = ids -> {
+            throw new IllegalStateException("unavailable");
+        };
+
+        index.countJobs("queue");
+    }
+
+    @Test
+    public void getQueueStatus_jobIndex_jobCounts() throws XenonException {
+        scheduler.close();
+        scheduler = AWSBatchSchedulerTest.createScheduler(client, Map.of(AWSBatchAdaptor.JOB_INDEX_PROPERTY, "true"));
+        client.addJob("a", "RUNNING");
+        client.addJob("b", "RUNNING");
+
+        QueueStatus status = scheduler.getQueueStatus(StubBatchClient.QUEUE);
+
+        assertEquals("2", status.getSchedulerSpecificInformation().get("jobs.RUNNING"));
+        assertEquals("0", status.getSchedulerSpecificInformation().get("jobs.FAILED"));
+        assertEquals(List.of("a", "b"), List.of(scheduler.getJobs()));
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.amazonaws.services.batch.model.JobDetail;
+
+import nl.esciencecenter.xenon.XenonException;
+
+public class JobStatusCoalescerTest {
+
+    private final List<List<String>> requests = new ArrayList<>();
+
+    private synchronized Map<String, JobDetail> describe(Collection<String> jobIdentifiers, Map<String, XenonException> errors) {
+        requests.add(new ArrayList<>(jobIdentifiers));
+        Map<String, JobDetail> details = new HashMap<>();
+        for (String jobIdentifier : jobIdentifiers) {
+            if (!jobIdentifier.equals("missing")) {
+                details.put(jobIdentifier, new JobDetail().withJobId(jobIdentifier));
+            }
+        }
+        return details;
+    }
+
+    @Test
+    public void get_concurrentSameJob_oneRequest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        JobStatusCoalescer coalescer = new JobStatusCoalescer((ids, errors) -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return describe(ids, errors);
+        }, 0, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<JobDetail> first = pool.submit(() -> coalescer.get("job"));
+            started.await();
+            Future<JobDetail> second = pool.submit(() -> coalescer.get("job"));
+            // give the second lookup time to join the request in flight
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals("job", first.get().getJobId());
+            assertEquals("job", second.get().getJobId());
+            assertEquals(1, requests.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void get_window_differentJobsOneRequest() throws Exception {
+        JobStatusCoalescer coalescer = new JobStatusCoalescer(this::describe, 200, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<JobDetail> first = pool.submit(() -> coalescer.get("a"));
+            Thread.sleep(50);
+            Future<JobDetail> second = pool.submit(() -> coalescer.get("b"));
+
+            assertEquals("a", first.get().getJobId());
+            assertEquals("b", second.get().getJobId());
+            assertEquals(List.of(List.of("a", "b")), requests);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void get_ttl_cached() throws XenonException {
+        JobStatusCoalescer coalescer = new JobStatusCoalescer(this::describe, 0, 60000);
+
+        coalescer.get("a");
+        coalescer.get("a");
+
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void get_invalidated_describedAgain() throws XenonException {
+        JobStatusCoalescer coalescer = new JobStatusCoalescer(this::describe, 0, 60000);
+
+        coalescer.get("a");
+        coalescer.invalidate("a");
+        coalescer.get("a");
+
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void get_missing_null() throws XenonException {
+        JobStatusCoalescer coalescer = new JobStatusCoalescer(this::describe, 0, 0);
+
+        assertNull(coalescer.get("missing"));
+    }
+
+    @Test
+    public void get_invalidatedWhileInFlight_newRequestAndStaleResultNotCached() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        JobStatusCoalescer coalescer = new JobStatusCoalescer((ids, errors) -> {
+            // the first request returns the job as it was before it was cancelled
+            boolean first = calls.incrementAndGet() == 1;
+            if (first) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Map<String, JobDetail> details = describe(ids, errors);
+            details.values().forEach(detail -> detail.setStatus(first ? "RUNNING" : "FAILED"));
+            return details;
+        }, 0, 60000);
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        try {
+            Future<JobDetail> before = pool.submit(() -> coalescer.get("job"));
+            started.await();
+
+            coalescer.invalidate("job");
+            assertEquals("FAILED", coalescer.get("job").getStatus());
+            release.countDown();
+
+            assertEquals("RUNNING", before.get().getStatus());
+            assertEquals("FAILED", coalescer.get("job").getStatus());
+            assertEquals(2, requests.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void get_window_invalidatedBeforeSent_bothComplete() throws Exception {
+        JobStatusCoalescer coalescer = new JobStatusCoalescer(this::describe, 200, 60000);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<JobDetail> first = pool.submit(() -> coalescer.get("a"));
+            Thread.sleep(50);
+            coalescer.invalidate("a");
+            Future<JobDetail> second = pool.submit(() -> coalescer.get("a"));
+
+            assertEquals("a", first.get().getJobId());
+            assertEquals("a", second.get().getJobId());
+            assertEquals(List.of(List.of("a")), requests);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void get_window_invalidatedBeforeSent_laterLookupDescribedAgain() throws Exception {
+        JobStatusCoalescer coalescer = new JobStatusCoalescer(this::describe, 200, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<JobDetail> first = pool.submit(() -> coalescer.get("a"));
+            Thread.sleep(50);
+            coalescer.invalidate("a");
+            Future<JobDetail> second = pool.submit(() -> coalescer.get("a"));
+            first.get();
+            second.get();
+
+            assertEquals("a", coalescer.get("a").getJobId());
+            assertEquals(2, requests.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void get_window_describerError_joinedLookupFails() throws Exception {
+        JobStatusCoalescer coalescer = new JobStatusCoalescer((ids, errors) -> {
+            throw new AssertionError("describe failed");
+        }, 200, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<JobDetail> first = pool.submit(() -> coalescer.get("a"));
+            Thread.sleep(50);
+            Future<JobDetail> second = pool.submit(() -> coalescer.get("b"));
+
+            assertTrue(getCause(first) instanceof AssertionError);
+            XenonException error = (XenonException) getCause(second);
+            assertTrue(error.getCause() instanceof AssertionError);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Throwable getCause(Future<JobDetail> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected lookup to fail");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+}
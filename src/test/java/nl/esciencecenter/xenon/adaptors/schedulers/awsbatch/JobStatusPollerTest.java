@@ -0,0 +1,299 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.batch.model.ListJobsRequest;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.schedulers.JobStatus;
+import nl.esciencecenter.xenon.schedulers.NoSuchJobException;
+
+public class JobStatusPollerTest {
+
+    private final StubBatchClient client = new StubBatchClient();
+
+    private AWSBatchScheduler scheduler;
+
+    @Before
+    public void setUp() throws XenonException {
+        scheduler = AWSBatchSchedulerTest.createScheduler(client,
+                Map.of(AWSBatchAdaptor.POLL_ADAPTIVE_PROPERTY, "false", AWSBatchAdaptor.POLL_DELAY_PROPERTY, "10",
+                        AWSBatchAdaptor.POLL_QUEUE_DELAY_PROPERTY, "10"));
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    private static JobStatus get(CompletableFuture<JobStatus> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static Throwable getError(CompletableFuture<JobStatus> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected future to fail");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    // Records the transitions delivered to a listener as "job:previous->current"
+    private static final class Recorder implements JobStatusListener {
+        final List<String> transitions = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onStatusChange(JobStatus previous, JobStatus current) {
+            transitions.add(current.getJobIdentifier() + ":" + (previous == null ? null : previous.getState()) + "->" + current.getState());
+        }
+
+        void await(String transition) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!transitions.contains(transition)) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("No transition " + transition + " in " + transitions);
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    @Test
+    public void whenDone_waitersOfSameJob_sharePolls() throws Exception {
+        client.addJob("a", "RUNNING");
+        client.addJob("b", "RUNNING");
+
+        CompletableFuture<JobStatus> a1 = scheduler.whenDone("a");
+        CompletableFuture<JobStatus> a2 = scheduler.whenDone("a");
+        CompletableFuture<JobStatus> b = scheduler.whenDone("b");
+        Thread.sleep(50);
+        client.setStatus("a", "SUCCEEDED");
+        client.setStatus("b", "SUCCEEDED");
+
+        assertSame(get(a1), get(a2));
+        assertEquals("SUCCEEDED", get(b).getState());
+        for (List<String> request : client.describeJobsRequests) {
+            assertEquals("jobs in " + request, request.size(), new HashSet<>(request).size());
+        }
+    }
+
+    @Test
+    public void whenRunning_completesBeforeDone() throws Exception {
+        client.addJob("a", "RUNNABLE");
+
+        CompletableFuture<JobStatus> running = scheduler.whenRunning("a");
+        CompletableFuture<JobStatus> done = scheduler.whenDone("a");
+        client.setStatus("a", "RUNNING");
+
+        assertTrue(get(running).isRunning());
+        assertFalse(done.isDone());
+        client.setStatus("a", "FAILED");
+        assertTrue(get(done).isDone());
+    }
+
+    @Test
+    public void whenDone_unknownJob_noSuchJob() throws Exception {
+        assertTrue(getError(scheduler.whenDone("unknown")) instanceof NoSuchJobException);
+    }
+
+    @Test
+    public void whenDone_cancelled_stopsPolling() throws Exception {
+        client.addJob("a", "RUNNING");
+        CompletableFuture<JobStatus> future = scheduler.whenDone("a");
+        Thread.sleep(50);
+
+        future.cancel(false);
+        Thread.sleep(50);
+        int polls = client.describeJobsRequests.size();
+        Thread.sleep(100);
+
+        assertEquals(polls, client.describeJobsRequests.size());
+    }
+
+    @Test
+    public void whenDone_cancelledOneOfTwo_otherStillCompletes() throws Exception {
+        client.addJob("a", "RUNNING");
+        CompletableFuture<JobStatus> cancelled = scheduler.whenDone("a");
+        CompletableFuture<JobStatus> other = scheduler.whenDone("a");
+
+        cancelled.cancel(false);
+        client.setStatus("a", "SUCCEEDED");
+
+        assertEquals("SUCCEEDED", get(other).getState());
+    }
+
+    @Test
+    public void close_failsPendingFutures() throws Exception {
+        client.addJob("a", "RUNNING");
+        CompletableFuture<JobStatus> future = scheduler.whenDone("a");
+
+        scheduler.close();
+
+        Throwable error = getError(future);
+        assertTrue(error instanceof XenonException);
+        assertTrue(error.getMessage(), error.getMessage().contains("closed"));
+        assertTrue(getError(scheduler.whenDone("a")) instanceof XenonException);
+    }
+
+    @Test
+    public void whenDone_transientErrors_retried() throws Exception {
+        client.addJob("a", "SUCCEEDED");
+        AtomicInteger calls = new AtomicInteger();
+        client.onDescribeJobs = ids -> {
+            if (calls.incrementAndGet() <= JobStatusPoller.MAX_POLL_FAILURES - 1) {
+                throw new IllegalStateException("unavailable");
+            }
+        };
+
+        assertEquals("SUCCEEDED", get(scheduler.whenDone("a")).getState());
+    }
+
+    @Test
+    public void whenDone_persistentErrors_failsFuture() throws Exception {
+        client.addJob("a", "RUNNING");
+        client.onDescribeJobs = ids -> {
+            throw new IllegalStateException("unavailable");
+        };
+
+        Throwable error = getError(scheduler.whenDone("a"));
+
+        assertTrue(error instanceof XenonException);
+        assertTrue(error.getMessage(), error.getMessage().contains("unavailable"));
+        assertEquals(JobStatusPoller.MAX_POLL_FAILURES, client.describeJobsRequests.size());
+    }
+
+    @Test
+    public void whenDone_unknownState_failsOnlyThatJob() throws Exception {
+        client.addJob("a", "NOT_A_STATE");
+        client.addJob("b", "RUNNING");
+
+        CompletableFuture<JobStatus> a = scheduler.whenDone("a");
+        CompletableFuture<JobStatus> b = scheduler.whenDone("b");
+
+        assertTrue(getError(a) instanceof XenonException);
+        // the poller is still running
+        client.setStatus("b", "SUCCEEDED");
+        assertEquals("SUCCEEDED", get(b).getState());
+    }
+
+    @Test
+    public void waitUntilDone_timeout_latestStatus() throws Exception {
+        client.addJob("a", "RUNNING");
+
+        JobStatus status = scheduler.waitUntilDone("a", 50);
+
+        assertEquals("RUNNING", status.getState());
+    }
+
+    @Test
+    public void subscribe_transitionsUntilDone() throws Exception {
+        client.addJob("a", "RUNNABLE");
+        Recorder recorder = new Recorder();
+
+        scheduler.subscribe(recorder, "a");
+        recorder.await("a:null->RUNNABLE");
+        client.setStatus("a", "RUNNING");
+        recorder.await("a:RUNNABLE->RUNNING");
+        client.setStatus("a", "SUCCEEDED");
+        recorder.await("a:RUNNING->SUCCEEDED");
+        int polls = client.describeJobsRequests.size();
+        Thread.sleep(100);
+
+        assertEquals(List.of("a:null->RUNNABLE", "a:RUNNABLE->RUNNING", "a:RUNNING->SUCCEEDED"), recorder.transitions);
+        assertEquals(polls, client.describeJobsRequests.size());
+    }
+
+    @Test
+    public void subscribe_closed_noMoreTransitions() throws Exception {
+        client.addJob("a", "RUNNABLE");
+        Recorder recorder = new Recorder();
+
+        Subscription subscription = scheduler.subscribe(recorder, "a");
+        recorder.await("a:null->RUNNABLE");
+        subscription.close();
+        client.setStatus("a", "RUNNING");
+        Thread.sleep(100);
+
+        assertEquals(List.of("a:null->RUNNABLE"), recorder.transitions);
+    }
+
+    @Test
+    public void subscribeQueue_doneJobsOfFirstListingNotReported() throws Exception {
+        client.addJob("running", "RUNNING");
+        client.addJob("done", "SUCCEEDED");
+        Recorder recorder = new Recorder();
+
+        scheduler.subscribeQueue(StubBatchClient.QUEUE, recorder);
+        recorder.await("running:null->RUNNING");
+        client.addJob("new", "SUBMITTED");
+        recorder.await("new:null->SUBMITTED");
+        client.setStatus("new", "FAILED");
+        recorder.await("new:SUBMITTED->FAILED");
+
+        for (String transition : recorder.transitions) {
+            assertFalse(transition, transition.startsWith("done:"));
+        }
+    }
+
+    @Test
+    public void subscribeQueue_onlyActiveStatesListed() throws Exception {
+        client.addJob("a", "RUNNING");
+        Recorder recorder = new Recorder();
+
+        scheduler.subscribeQueue(StubBatchClient.QUEUE, recorder);
+        recorder.await("a:null->RUNNING");
+
+        for (ListJobsRequest request : client.listJobsRequests) {
+            com.amazonaws.services.batch.model.JobStatus state = com.amazonaws.services.batch.model.JobStatus.fromValue(request.getJobStatus());
+            assertTrue(request.getJobStatus(), JobIndex.ACTIVE_STATES.contains(state));
+        }
+    }
+
+    @Test
+    public void subscribeQueue_closed_newJobsNotReported() throws Exception {
+        client.addJob("a", "RUNNING");
+        Recorder recorder = new Recorder();
+
+        Subscription subscription = scheduler.subscribeQueue(StubBatchClient.QUEUE, recorder);
+        recorder.await("a:null->RUNNING");
+        subscription.close();
+        client.addJob("b", "RUNNING");
+        Thread.sleep(100);
+
+        assertEquals(List.of("a:null->RUNNING"), recorder.transitions);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.batch.model.ContainerDetail;
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.schedulers.JobStatus;
+
+public class LogTailTest {
+
+    private final StubBatchClient client = new StubBatchClient();
+
+    private final StubLogsClient logs = new StubLogsClient();
+
+    private final Pool pool = new Pool();
+
+    private final List<String> lines = new CopyOnWriteArrayList<>();
+
+    // The delays the tail slept for, it only sleeps a millisecond for each of them
+    private final List<Long> delays = new CopyOnWriteArrayList<>();
+
+    // Called with the number of sleeps so far, on the thread of the tail before it sleeps
+    private volatile IntConsumer onSleep = n -> {
+    };
+
+    private AWSBatchScheduler scheduler;
+
+    // Hands out the stub logs client and counts how often it is acquired and released
+    private final class Pool implements LogsClients.Pool {
+        final AtomicInteger acquired = new AtomicInteger();
+        final AtomicInteger released = new AtomicInteger();
+        volatile String region;
+
+        @Override
+        public AWSLogs acquire(String region, String accessKey, String secretKey) {
+            this.region = region;
+            acquired.incrementAndGet();
+            return logs;
+        }
+
+        @Override
+        public void release(AWSLogs client) {
+            assertSame(logs, client);
+            released.incrementAndGet();
+        }
+    }
+
+    @Before
+    public void setUp() throws XenonException {
+        scheduler = AWSBatchSchedulerTest.createScheduler(client,
+                Map.of(AWSBatchAdaptor.POLL_ADAPTIVE_PROPERTY, "false", AWSBatchAdaptor.POLL_DELAY_PROPERTY, "10"));
+        ContainerDetail container = new ContainerDetail().withLogStreamName("stream").withTaskArn("arn:aws:ecs:eu-west-1:123456789012:task/abc");
+        client.addJob("job", "RUNNING").setContainer(container);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    private boolean sleep(long delay) {
+        delays.add(delay);
+        onSleep.accept(delays.size());
+        return AWSBatchUtils.sleep(1);
+    }
+
+    private LogTail start() {
+        return LogTail.start(scheduler, "job", pool, "key", "secret", this::sleep, lines::add);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Condition not met in time");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CompletableFuture<?> future) throws Exception {
+        future.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void tail_multiplePages_followsForwardTokens() throws Exception {
+        logs.addEvents("a", "b", "c", "d", "e");
+
+        LogTail tail = start();
+        await(() -> lines.size() == 5);
+        client.setStatus("job", "SUCCEEDED");
+        await(tail.getCompletion());
+
+        assertEquals(List.of("a", "b", "c", "d", "e"), lines);
+        List<String> tokens = logs.requests.stream().map(GetLogEventsRequest::getNextToken).limit(4).collect(Collectors.toList());
+        assertEquals(Arrays.asList(null, "f/2", "f/4", "f/5"), tokens);
+        assertEquals("stream", logs.requests.get(0).getLogStreamName());
+        assertEquals("eu-west-1", pool.region);
+        assertEquals(1, pool.acquired.get());
+        assertEquals(1, pool.released.get());
+    }
+
+    @Test
+    public void tail_emptyReads_delayDoubledUpToMaxAndResetByEvents() throws Exception {
+        onSleep = n -> {
+            if (n == 7) {
+                logs.addEvents("x");
+            } else if (n == 9) {
+                client.setStatus("job", "SUCCEEDED");
+            }
+        };
+
+        LogTail tail = start();
+        await(tail.getCompletion());
+
+        long min = LogTail.MIN_POLL_DELAY;
+        long max = LogTail.MAX_POLL_DELAY;
+        assertEquals(List.of(min, 2 * min, 4 * min, 8 * min, 16 * min, max, max, min, 2 * min), delays.subList(0, 9));
+        assertEquals(List.of("x"), lines);
+    }
+
+    @Test
+    public void tail_eventAfterDone_deliveredByFinalRead() throws Exception {
+        CompletableFuture<JobStatus> done = scheduler.whenDone("job");
+        AtomicInteger requestsBeforeEvent = new AtomicInteger(-1);
+        onSleep = n -> {
+            if (n == 1) {
+                client.setStatus("job", "SUCCEEDED");
+                try {
+                    // let the tail see the job is done before it reads the stream again
+                    done.get(5, TimeUnit.SECONDS);
+                    Thread.sleep(50);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            } else if (n == 2) {
+                requestsBeforeEvent.set(logs.requests.size());
+                logs.addEvents("late");
+            }
+        };
+
+        LogTail tail = start();
+        await(tail.getCompletion());
+
+        assertEquals(List.of("late"), lines);
+        // one read of the event and one at the end of the stream, then the tail stops without sleeping again
+        assertEquals(requestsBeforeEvent.get() + 2, logs.requests.size());
+        assertEquals(2, delays.size());
+    }
+
+    @Test
+    public void close_running_completionCancelledAndClientReleased() throws Exception {
+        LogTail tail = start();
+        await(() -> !delays.isEmpty());
+
+        tail.close();
+
+        assertTrue(tail.getCompletion().isCancelled());
+        await(() -> pool.released.get() == 1);
+        int requests = logs.requests.size();
+        logs.addEvents("after");
+        Thread.sleep(50);
+        assertEquals(requests, logs.requests.size());
+        assertTrue(lines.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void stream_jobDone_ends() throws Exception {
+        logs.addEvents("a", "b");
+        onSleep = n -> {
+            if (n == 1) {
+                client.setStatus("job", "SUCCEEDED");
+            }
+        };
+
+        try (InputStream in = LogTail.stream(scheduler, "job", pool, "key", "secret", this::sleep)) {
+            assertEquals("a\nb\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        await(() -> pool.released.get() == 1);
+    }
+}
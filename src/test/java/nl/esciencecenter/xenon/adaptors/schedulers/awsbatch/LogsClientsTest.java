@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LogsClientsTest {
+
+    @Test
+    public void acquire_sameKey_sameClient() {
+        StubLogsClient a = (StubLogsClient) LogsClients.acquire(List.of("test-same"), StubLogsClient::new);
+        StubLogsClient b = (StubLogsClient) LogsClients.acquire(List.of("test-same"), StubLogsClient::new);
+
+        LogsClients.release(a);
+        LogsClients.release(b);
+
+        assertSame(a, b);
+    }
+
+    @Test
+    public void acquire_otherKey_otherClient() {
+        StubLogsClient a = (StubLogsClient) LogsClients.acquire(List.of("test-a"), StubLogsClient::new);
+        StubLogsClient b = (StubLogsClient) LogsClients.acquire(List.of("test-b"), StubLogsClient::new);
+
+        LogsClients.release(a);
+        LogsClients.release(b);
+
+        assertNotSame(a, b);
+    }
+
+    @Test
+    public void release_lastReference_keptIdleForReuse() {
+        StubLogsClient a = (StubLogsClient) LogsClients.acquire(List.of("test-idle"), StubLogsClient::new);
+        LogsClients.release(a);
+
+        StubLogsClient b = (StubLogsClient) LogsClients.acquire(List.of("test-idle"), StubLogsClient::new);
+        LogsClients.release(b);
+
+        assertSame(a, b);
+        assertEquals(0, a.shutdowns.get());
+    }
+
+    @Test
+    public void release_tooManyIdle_leastRecentlyReleasedShutdown() {
+        List<StubLogsClient> clients = new ArrayList<>();
+        for (int i = 0; i <= LogsClients.MAX_IDLE_CLIENTS; i++) {
+            clients.add((StubLogsClient) LogsClients.acquire(List.of("test-evict-" + i), StubLogsClient::new));
+        }
+        StubLogsClient inUse = (StubLogsClient) LogsClients.acquire(List.of("test-evict-in-use"), StubLogsClient::new);
+
+        for (StubLogsClient client : clients) {
+            LogsClients.release(client);
+        }
+
+        assertEquals(1, clients.get(0).shutdowns.get());
+        for (int i = 1; i < clients.size(); i++) {
+            assertEquals(0, clients.get(i).shutdowns.get());
+        }
+        assertEquals(0, inUse.shutdowns.get());
+        StubLogsClient recreated = (StubLogsClient) LogsClients.acquire(List.of("test-evict-0"), StubLogsClient::new);
+        LogsClients.release(recreated);
+        LogsClients.release(inUse);
+
+        assertNotSame(clients.get(0), recreated);
+    }
+
+    @Test
+    public void release_notAcquired_shutdown() {
+        StubLogsClient client = new StubLogsClient();
+
+        LogsClients.release(client);
+
+        assertEquals(1, client.shutdowns.get());
+    }
+
+    @Test
+    public void credentialHash_notSecret() {
+        String hash = AWSBatchUtils.credentialHash("secret");
+
+        assertEquals(hash, AWSBatchUtils.credentialHash("secret"));
+        assertFalse(hash.contains("secret"));
+        assertEquals(64, hash.length());
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PollPolicyTest {
+
+    @Test
+    public void nextDelay_fixed() {
+        assertEquals(5000, PollPolicy.fixed(5000).nextDelay("RUNNING", 3600000));
+    }
+
+    @Test
+    public void nextDelay_starting_minDelay() {
+        assertEquals(1000, PollPolicy.adaptive(1000, 60000).nextDelay("STARTING", 3600000));
+    }
+
+    @Test
+    public void nextDelay_running_proportionalWithJitter() {
+        long delay = PollPolicy.adaptive(1000, 60000).nextDelay("RUNNING", 100000);
+
+        assertTrue(delay >= 8000 && delay <= 12000);
+    }
+
+    @Test
+    public void nextDelay_submitted_minDelay() {
+        assertEquals(1000, PollPolicy.adaptive(1000, 60000).nextDelay("SUBMITTED", 3600000));
+    }
+
+    @Test
+    public void nextDelay_longPending_backsOff() {
+        assertEquals(60000, PollPolicy.adaptive(1000, 60000).nextDelay("PENDING", 36000000));
+    }
+
+    @Test
+    public void nextDelay_longRunning_maxDelay() {
+        assertEquals(60000, PollPolicy.adaptive(1000, 60000).nextDelay("RUNNING", 36000000));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.XenonException;
+
+public class QueueCatalogueTest {
+
+    private final StubBatchClient client = new StubBatchClient();
+
+    // Refresh in the background on the calling thread, so the tests do not have to wait for it
+    private final Executor direct = Runnable::run;
+
+    private QueueCatalogue catalogue(long ttl, boolean activeOnly) {
+        return new QueueCatalogue(client::describeJobQueues, client::describeJobDefinitions, direct, ttl, activeOnly);
+    }
+
+    @Test
+    public void get_paginated_allQueuesAndDefinitions() throws XenonException {
+        client.pageSize = 1;
+        client.addQueue("second");
+        client.addQueue("third");
+        client.addDefinition("definition", 2);
+
+        QueueCatalogue.Snapshot snapshot = catalogue(60000, true).get();
+
+        String[] expected = { "definition:1!queue", "definition:2!queue", "definition:1!second", "definition:2!second", "definition:1!third",
+                "definition:2!third" };
+        assertArrayEquals(expected, snapshot.queueNames);
+        assertEquals(3, client.describeJobQueuesRequests.get());
+        assertEquals(2, client.describeJobDefinitionsRequests.get());
+    }
+
+    @Test
+    public void get_activeOnly_skipsInactiveDefinitions() throws XenonException {
+        client.addDefinition("definition", 2);
+        client.definitions.get(1).setStatus("INACTIVE");
+
+        assertArrayEquals(new String[] { "definition:1!queue" }, catalogue(60000, true).get().queueNames);
+        assertEquals(2, catalogue(60000, false).get().queueNames.length);
+    }
+
+    @Test
+    public void findDefinition_withoutRevision_latest() throws XenonException {
+        client.addDefinition("definition", 3);
+        client.addDefinition("definition", 2);
+
+        QueueCatalogue.Snapshot snapshot = catalogue(60000, true).get();
+
+        assertEquals(Integer.valueOf(3), snapshot.findDefinition("definition").getRevision());
+        assertEquals(Integer.valueOf(2), snapshot.findDefinition("definition:2").getRevision());
+        assertNull(snapshot.findDefinition("unknown"));
+    }
+
+    @Test
+    public void get_withinTtl_cached() throws XenonException {
+        QueueCatalogue catalogue = catalogue(60000, true);
+
+        assertSame(catalogue.get(), catalogue.get());
+        assertEquals(1, client.describeJobQueuesRequests.get());
+    }
+
+    @Test
+    public void get_noTtl_loadedEveryTime() throws XenonException {
+        QueueCatalogue catalogue = catalogue(0, true);
+
+        catalogue.get();
+        catalogue.get();
+
+        assertEquals(2, client.describeJobQueuesRequests.get());
+    }
+
+    @Test
+    public void get_expired_currentReturnedAndRefreshed() throws Exception {
+        QueueCatalogue catalogue = catalogue(10, true);
+        QueueCatalogue.Snapshot first = catalogue.get();
+        client.addQueue("new");
+        Thread.sleep(20);
+
+        // the outdated snapshot is returned while a fresh one is loaded
+        assertSame(first, catalogue.get());
+        assertEquals(2, client.describeJobQueuesRequests.get());
+        assertNotNull(catalogue.get().queues.get("new"));
+    }
+
+    @Test
+    public void get_expiredRefreshFails_currentKept() throws Exception {
+        QueueCatalogue catalogue = catalogue(10, true);
+        QueueCatalogue.Snapshot first = catalogue.get();
+        Thread.sleep(20);
+        client.definitions.clear();
+        client.queues.clear();
+        client.throttle("describeJobQueues", 1);
+
+        assertSame(first, catalogue.get());
+        assertSame(first, catalogue.get());
+    }
+
+    @Test
+    public void load_missInCurrentSnapshot_reloaded() throws XenonException {
+        QueueCatalogue catalogue = catalogue(60000, true);
+        QueueCatalogue.Snapshot first = catalogue.get();
+        client.addQueue("new");
+
+        QueueCatalogue.Snapshot current = catalogue.load(first);
+
+        assertNotNull(current.queues.get("new"));
+        assertSame(current, catalogue.get());
+    }
+
+    @Test
+    public void load_alreadyReplaced_notReloaded() throws XenonException {
+        QueueCatalogue catalogue = catalogue(60000, true);
+        QueueCatalogue.Snapshot first = catalogue.get();
+        QueueCatalogue.Snapshot second = catalogue.load(first);
+
+        assertSame(second, catalogue.load(first));
+        assertEquals(2, client.describeJobQueuesRequests.get());
+    }
+
+    @Test
+    public void load_afterInvalidate_reloaded() throws XenonException {
+        QueueCatalogue catalogue = catalogue(60000, true);
+        QueueCatalogue.Snapshot first = catalogue.get();
+        catalogue.load(first);
+        catalogue.invalidate();
+
+        // a caller which still holds the first snapshot
+        QueueCatalogue.Snapshot current = catalogue.load(first);
+
+        assertNotNull(current);
+        assertEquals(3, client.describeJobQueuesRequests.get());
+    }
+}
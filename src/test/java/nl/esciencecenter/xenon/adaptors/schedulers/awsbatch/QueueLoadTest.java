@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class QueueLoadTest {
+
+    @Test
+    public void compare_moreCapacity_shorterWait() {
+        QueueLoad small = new QueueLoad(10, 1, 16, true);
+        QueueLoad large = new QueueLoad(10, 1, 64, true);
+
+        assertTrue(QueueLoad.compare(large, 0, small, 0) < 0);
+    }
+
+    @Test
+    public void compare_routedJobs_countAsWaiting() {
+        QueueLoad a = new QueueLoad(0, 1, 16, true);
+        QueueLoad b = new QueueLoad(4, 1, 16, true);
+
+        assertTrue(QueueLoad.compare(a, 0, b, 0) < 0);
+        assertTrue(QueueLoad.compare(a, 5, b, 0) > 0);
+    }
+
+    @Test
+    public void compare_sameWait_higherPriorityFirst() {
+        QueueLoad low = new QueueLoad(2, 1, 16, true);
+        QueueLoad high = new QueueLoad(2, 10, 16, true);
+
+        assertTrue(QueueLoad.compare(high, 0, low, 0) < 0);
+    }
+
+    @Test
+    public void estimatedWait_unknownCapacity_jobsAhead() {
+        QueueLoad load = new QueueLoad(3, 1, 0, true);
+
+        assertEquals(5.0, load.estimatedWait(1), 0.0);
+    }
+}
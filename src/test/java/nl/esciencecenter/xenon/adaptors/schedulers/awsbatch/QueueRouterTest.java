@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.XenonException;
+
+public class QueueRouterTest {
+
+    private static final String SMALL = "definition:1!small";
+
+    private static final String BIG = "definition:1!big";
+
+    private final StubBatchClient client = new StubBatchClient();
+
+    private AWSBatchScheduler scheduler;
+
+    @Before
+    public void setUp() throws XenonException {
+        client.addQueue("small");
+        client.addComputeEnvironment("small", "ce-small", 16);
+        client.addQueue("big");
+        client.addComputeEnvironment("big", "ce-big", 64);
+        scheduler = AWSBatchSchedulerTest.createScheduler(client, new HashMap<>());
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    private void addJobs(String jobQueue, String status, int count) {
+        for (int i = 0; i < count; i++) {
+            client.addJob(jobQueue + "-" + status + "-" + i, status).setJobQueue(jobQueue);
+        }
+    }
+
+    @Test
+    public void getQueueLoad_waitingJobsAndCapacity() throws XenonException {
+        addJobs("big", "SUBMITTED", 1);
+        addJobs("big", "RUNNABLE", 2);
+        addJobs("big", "RUNNING", 4);
+        addJobs("small", "RUNNABLE", 8);
+        client.addComputeEnvironment("big", "ce-extra", 32);
+
+        QueueLoad load = scheduler.getQueueLoad(BIG);
+
+        assertEquals(3, load.waiting);
+        assertEquals(96, load.capacity);
+        assertEquals(1, load.priority);
+        assertTrue(load.enabled);
+    }
+
+    @Test
+    public void select_leastLoaded() throws XenonException {
+        // 11 jobs ahead per 64 vCPUs is a longer wait than 1 per 16
+        addJobs("big", "RUNNABLE", 10);
+
+        QueueRouter router = new QueueRouter(60000, scheduler, BIG, SMALL);
+
+        assertEquals(SMALL, router.select().getQueueName());
+    }
+
+    @Test
+    public void select_routedJobsCountedAsWaiting() throws XenonException {
+        QueueRouter router = new QueueRouter(60000, scheduler, SMALL, BIG);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BIG, router.select().getQueueName());
+        }
+        // 4 jobs ahead per 64 vCPUs is no shorter wait than 1 per 16
+        assertEquals(SMALL, router.select().getQueueName());
+        // the loads were only determined once
+        assertEquals(2, client.describeComputeEnvironmentsRequests.get());
+    }
+
+    @Test
+    public void select_loadFails_queueSkippedAndFailureCached() throws XenonException {
+        client.unavailable.add("ce-big");
+        QueueRouter router = new QueueRouter(60000, scheduler, BIG, SMALL);
+
+        assertEquals(SMALL, router.select().getQueueName());
+        assertEquals(SMALL, router.select().getQueueName());
+
+        assertEquals(2, client.describeComputeEnvironmentsRequests.get());
+    }
+
+    @Test
+    public void select_loadFailsWithoutTtl_triedAgain() throws XenonException {
+        client.unavailable.add("ce-big");
+        QueueRouter router = new QueueRouter(0, scheduler, BIG, SMALL);
+
+        router.select();
+        client.unavailable.clear();
+
+        assertEquals(BIG, router.select().getQueueName());
+    }
+
+    @Test
+    public void select_allLoadsFail_error() {
+        client.unavailable.add("ce-big");
+        client.unavailable.add("ce-small");
+        QueueRouter router = new QueueRouter(60000, scheduler, BIG, SMALL);
+
+        try {
+            router.select();
+            fail("Expected XenonException");
+        } catch (XenonException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("can not be described"));
+        }
+    }
+}
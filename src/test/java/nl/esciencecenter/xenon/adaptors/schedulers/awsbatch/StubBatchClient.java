@@ -0,0 +1,333 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.batch.AbstractAWSBatchAsync;
+import com.amazonaws.services.batch.model.CancelJobRequest;
+import com.amazonaws.services.batch.model.CancelJobResult;
+import com.amazonaws.services.batch.model.ClientException;
+import com.amazonaws.services.batch.model.ComputeEnvironmentDetail;
+import com.amazonaws.services.batch.model.ComputeEnvironmentOrder;
+import com.amazonaws.services.batch.model.ComputeResource;
+import com.amazonaws.services.batch.model.DescribeComputeEnvironmentsRequest;
+import com.amazonaws.services.batch.model.DescribeComputeEnvironmentsResult;
+import com.amazonaws.services.batch.model.DescribeJobDefinitionsRequest;
+import com.amazonaws.services.batch.model.DescribeJobDefinitionsResult;
+import com.amazonaws.services.batch.model.DescribeJobQueuesRequest;
+import com.amazonaws.services.batch.model.DescribeJobQueuesResult;
+import com.amazonaws.services.batch.model.DescribeJobsRequest;
+import com.amazonaws.services.batch.model.DescribeJobsResult;
+import com.amazonaws.services.batch.model.JobDefinition;
+import com.amazonaws.services.batch.model.JobDetail;
+import com.amazonaws.services.batch.model.JobQueueDetail;
+import com.amazonaws.services.batch.model.JobSummary;
+import com.amazonaws.services.batch.model.ListJobsRequest;
+import com.amazonaws.services.batch.model.ListJobsResult;
+import com.amazonaws.services.batch.model.SubmitJobRequest;
+import com.amazonaws.services.batch.model.SubmitJobResult;
+import com.amazonaws.services.batch.model.TerminateJobRequest;
+import com.amazonaws.services.batch.model.TerminateJobResult;
+
+/**
+ * In memory AWS Batch for tests of the scheduler. It has a job queue named "queue" and a job definition "definition:1", jobs are added by the
+ * test or by submitting. Every request is recorded, the next requests to an API can be made to fail as throttled, and all paginated APIs return
+ * pages of {@link #pageSize} items.
+ *
+ * Asynchronous requests are answered on a separate pool after {@link #asyncDelay} milliseconds.
+ */
+class StubBatchClient extends AbstractAWSBatchAsync {
+
+    static final String QUEUE = "definition:1!queue";
+
+    final Map<String, JobDetail> jobs = new LinkedHashMap<>();
+    final List<JobQueueDetail> queues = Collections.synchronizedList(new ArrayList<>());
+    final List<JobDefinition> definitions = Collections.synchronizedList(new ArrayList<>());
+
+    final List<List<String>> describeJobsRequests = Collections.synchronizedList(new ArrayList<>());
+    final List<ListJobsRequest> listJobsRequests = Collections.synchronizedList(new ArrayList<>());
+    final List<String> cancelled = Collections.synchronizedList(new ArrayList<>());
+    final List<String> terminated = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger describeJobQueuesRequests = new AtomicInteger();
+    final AtomicInteger describeJobDefinitionsRequests = new AtomicInteger();
+    final AtomicInteger submitJobRequests = new AtomicInteger();
+    final AtomicInteger shutdowns = new AtomicInteger();
+    final Map<String, ComputeEnvironmentDetail> computeEnvironments = new ConcurrentHashMap<>();
+    final AtomicInteger describeComputeEnvironmentsRequests = new AtomicInteger();
+
+    // Compute environments for which DescribeComputeEnvironments requests fail
+    final Set<String> unavailable = ConcurrentHashMap.newKeySet();
+
+    // Jobs for which CancelJob and TerminateJob requests fail
+    final Set<String> unstoppable = ConcurrentHashMap.newKeySet();
+
+    volatile int pageSize = 100;
+    volatile long asyncDelay = 0;
+    // Called with the job identifiers of every DescribeJobs request before it is answered, may block or throw
+    volatile Consumer<List<String>> onDescribeJobs = ids -> {
+    };
+
+    private final Map<String, AtomicInteger> throttled = new ConcurrentHashMap<>();
+    private final AtomicInteger nextJob = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "stub-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    StubBatchClient() {
+        addQueue("queue");
+        addDefinition("definition", 1);
+    }
+
+    void addQueue(String name) {
+        queues.add(new JobQueueDetail().withJobQueueName(name).withJobQueueArn("arn:queue/" + name).withPriority(1).withState("ENABLED")
+                .withStatus("VALID").withComputeEnvironmentOrder(new ArrayList<>()));
+    }
+
+    void addComputeEnvironment(String queueName, String name, int maxvCpus) {
+        computeEnvironments.put(name, new ComputeEnvironmentDetail().withComputeEnvironmentName(name).withState("ENABLED")
+                .withComputeResources(new ComputeResource().withMaxvCpus(maxvCpus)));
+        for (JobQueueDetail queue : new ArrayList<>(queues)) {
+            if (queue.getJobQueueName().equals(queueName)) {
+                List<ComputeEnvironmentOrder> order = queue.getComputeEnvironmentOrder();
+                order.add(new ComputeEnvironmentOrder().withComputeEnvironment(name).withOrder(order.size() + 1));
+            }
+        }
+    }
+
+    void addDefinition(String name, int revision) {
+        definitions.add(new JobDefinition().withJobDefinitionName(name).withRevision(revision).withJobDefinitionArn("arn:definition/" + name + ":" + revision)
+                .withStatus("ACTIVE").withType("container"));
+    }
+
+    synchronized JobDetail addJob(String jobIdentifier, String status) {
+        JobDetail detail = new JobDetail().withJobId(jobIdentifier).withJobName("name-" + jobIdentifier).withJobQueue("queue").withStatus(status);
+        jobs.put(jobIdentifier, detail);
+        return detail;
+    }
+
+    synchronized void setStatus(String jobIdentifier, String status) {
+        jobs.get(jobIdentifier).setStatus(status);
+    }
+
+    synchronized String getStatus(String jobIdentifier) {
+        return jobs.get(jobIdentifier).getStatus();
+    }
+
+    synchronized void removeJob(String jobIdentifier) {
+        jobs.remove(jobIdentifier);
+    }
+
+    private synchronized void stop(String jobIdentifier) {
+        JobDetail detail = jobs.get(jobIdentifier);
+        if (detail == null) {
+            throw new ClientException("Job " + jobIdentifier + " not found");
+        }
+        if (unstoppable.contains(jobIdentifier)) {
+            throw new ClientException("Job " + jobIdentifier + " can not be stopped");
+        }
+        detail.setStatus("FAILED");
+    }
+
+    /**
+     * Let the next requests to an API fail as throttled.
+     *
+     * @param api the name of the client method, for example "describeJobs"
+     * @param times the number of requests which fail
+     */
+    void throttle(String api, int times) {
+        throttled.computeIfAbsent(api, k -> new AtomicInteger()).set(times);
+    }
+
+    private void checkThrottled(String api) {
+        AtomicInteger remaining = throttled.get(api);
+        if (remaining != null && remaining.getAndDecrement() > 0) {
+            AmazonServiceException e = new ClientException("Too Many Requests");
+            e.setStatusCode(429);
+            e.setErrorCode("TooManyRequestsException");
+            throw e;
+        }
+    }
+
+    private static int offset(String nextToken) {
+        return nextToken == null ? 0 : Integer.parseInt(nextToken);
+    }
+
+    private String nextToken(int offset, int size) {
+        return offset + pageSize < size ? String.valueOf(offset + pageSize) : null;
+    }
+
+    @Override
+    public DescribeJobsResult describeJobs(DescribeJobsRequest request) {
+        checkThrottled("describeJobs");
+        List<String> ids = new ArrayList<>(request.getJobs());
+        if (ids.size() > AWSBatchScheduler.DESCRIBE_JOBS_LIMIT) {
+            throw new ClientException("Too many jobs: " + ids.size());
+        }
+        describeJobsRequests.add(ids);
+        onDescribeJobs.accept(ids);
+        List<JobDetail> found = new ArrayList<>();
+        synchronized (this) {
+            for (String id : ids) {
+                JobDetail detail = jobs.get(id);
+                if (detail != null) {
+                    found.add(detail.clone());
+                }
+            }
+        }
+        // AWS does not return the jobs in the order they were requested
+        Collections.reverse(found);
+        return new DescribeJobsResult().withJobs(found);
+    }
+
+    @Override
+    public ListJobsResult listJobs(ListJobsRequest request) {
+        checkThrottled("listJobs");
+        listJobsRequests.add(request.clone());
+        List<JobSummary> matching = new ArrayList<>();
+        synchronized (this) {
+            for (JobDetail detail : jobs.values()) {
+                if (detail.getJobQueue().equals(request.getJobQueue()) && detail.getStatus().equals(request.getJobStatus())) {
+                    matching.add(new JobSummary().withJobId(detail.getJobId()).withJobName(detail.getJobName()).withStatus(detail.getStatus()));
+                }
+            }
+        }
+        int offset = offset(request.getNextToken());
+        return new ListJobsResult().withJobSummaryList(matching.subList(offset, Math.min(matching.size(), offset + pageSize)))
+                .withNextToken(nextToken(offset, matching.size()));
+    }
+
+    @Override
+    public SubmitJobResult submitJob(SubmitJobRequest request) {
+        checkThrottled("submitJob");
+        submitJobRequests.incrementAndGet();
+        String jobIdentifier = "job-" + nextJob.incrementAndGet();
+        addJob(jobIdentifier, "SUBMITTED").withJobName(request.getJobName());
+        return new SubmitJobResult().withJobId(jobIdentifier).withJobName(request.getJobName());
+    }
+
+    @Override
+    public CancelJobResult cancelJob(CancelJobRequest request) {
+        checkThrottled("cancelJob");
+        cancelled.add(request.getJobId());
+        stop(request.getJobId());
+        return new CancelJobResult();
+    }
+
+    @Override
+    public TerminateJobResult terminateJob(TerminateJobRequest request) {
+        checkThrottled("terminateJob");
+        terminated.add(request.getJobId());
+        stop(request.getJobId());
+        return new TerminateJobResult();
+    }
+
+    @Override
+    public DescribeJobQueuesResult describeJobQueues(DescribeJobQueuesRequest request) {
+        checkThrottled("describeJobQueues");
+        describeJobQueuesRequests.incrementAndGet();
+        List<JobQueueDetail> all = new ArrayList<>(queues);
+        int offset = offset(request.getNextToken());
+        return new DescribeJobQueuesResult().withJobQueues(all.subList(offset, Math.min(all.size(), offset + pageSize))).withNextToken(nextToken(offset, all.size()));
+    }
+
+    @Override
+    public DescribeJobDefinitionsResult describeJobDefinitions(DescribeJobDefinitionsRequest request) {
+        checkThrottled("describeJobDefinitions");
+        describeJobDefinitionsRequests.incrementAndGet();
+        List<JobDefinition> all = new ArrayList<>();
+        for (JobDefinition definition : new ArrayList<>(definitions)) {
+            if (request.getStatus() == null || request.getStatus().equals(definition.getStatus())) {
+                all.add(definition);
+            }
+        }
+        int offset = offset(request.getNextToken());
+        return new DescribeJobDefinitionsResult().withJobDefinitions(all.subList(offset, Math.min(all.size(), offset + pageSize)))
+                .withNextToken(nextToken(offset, all.size()));
+    }
+
+    @Override
+    public DescribeComputeEnvironmentsResult describeComputeEnvironments(DescribeComputeEnvironmentsRequest request) {
+        checkThrottled("describeComputeEnvironments");
+        describeComputeEnvironmentsRequests.incrementAndGet();
+        List<ComputeEnvironmentDetail> found = new ArrayList<>();
+        for (String name : request.getComputeEnvironments()) {
+            if (unavailable.contains(name)) {
+                throw new ClientException("Compute environment " + name + " can not be described");
+            }
+            ComputeEnvironmentDetail detail = computeEnvironments.get(name);
+            if (detail != null) {
+                found.add(detail);
+            }
+        }
+        return new DescribeComputeEnvironmentsResult().withComputeEnvironments(found);
+    }
+
+    private <Q extends AmazonWebServiceRequest, R> Future<R> async(Q request, AsyncHandler<Q, R> handler, Function<Q, R> call) {
+        return executor.submit(() -> {
+            if (asyncDelay > 0) {
+                Thread.sleep(asyncDelay);
+            }
+            R result;
+            try {
+                result = call.apply(request);
+            } catch (RuntimeException e) {
+                handler.onError(e);
+                throw e;
+            }
+            handler.onSuccess(request, result);
+            return result;
+        });
+    }
+
+    @Override
+    public Future<DescribeJobsResult> describeJobsAsync(DescribeJobsRequest request, AsyncHandler<DescribeJobsRequest, DescribeJobsResult> handler) {
+        return async(request, handler, this::describeJobs);
+    }
+
+    @Override
+    public Future<SubmitJobResult> submitJobAsync(SubmitJobRequest request, AsyncHandler<SubmitJobRequest, SubmitJobResult> handler) {
+        return async(request, handler, this::submitJob);
+    }
+
+    @Override
+    public Future<TerminateJobResult> terminateJobAsync(TerminateJobRequest request, AsyncHandler<TerminateJobRequest, TerminateJobResult> handler) {
+        return async(request, handler, this::terminateJob);
+    }
+
+    @Override
+    public void shutdown() {
+        shutdowns.incrementAndGet();
+        executor.shutdownNow();
+    }
+}
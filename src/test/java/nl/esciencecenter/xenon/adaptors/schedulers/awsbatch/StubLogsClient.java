@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.amazonaws.services.logs.AbstractAWSLogs;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.OutputLogEvent;
+import com.amazonaws.services.logs.model.ResourceNotFoundException;
+
+/**
+ * In memory AWS CloudWatch log stream for tests of reading job logs. Events are added by the test and read in pages of {@link #pageSize} events.
+ * Like CloudWatch, the forward token of a read at the end of the stream is the token of that read, and reading a stream which does not exist yet
+ * fails. Every request is recorded.
+ */
+class StubLogsClient extends AbstractAWSLogs {
+
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    final List<GetLogEventsRequest> requests = Collections.synchronizedList(new ArrayList<>());
+
+    final AtomicInteger shutdowns = new AtomicInteger();
+
+    volatile int pageSize = 2;
+
+    volatile boolean streamExists = true;
+
+    void addEvents(String... messages) {
+        Collections.addAll(events, messages);
+    }
+
+    @Override
+    public GetLogEventsResult getLogEvents(GetLogEventsRequest request) {
+        requests.add(request.clone());
+        if (!streamExists) {
+            throw new ResourceNotFoundException("The specified log stream does not exist.");
+        }
+        synchronized (events) {
+            int from = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken().substring(2));
+            int to = Math.min(events.size(), from + pageSize);
+            List<OutputLogEvent> page = events.subList(from, to).stream().map(m -> new OutputLogEvent().withMessage(m)).collect(Collectors.toList());
+            return new GetLogEventsResult().withEvents(page).withNextForwardToken("f/" + to);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdowns.incrementAndGet();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SubmitJournalTest {
+
+    private Path newJournal() throws IOException {
+        Path dir = Files.createTempDirectory("journal");
+        dir.toFile().deleteOnExit();
+        Path path = dir.resolve("jobs");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    @Test
+    public void append_reopen_entriesReplayed() throws IOException {
+        Path path = newJournal();
+        try (SubmitJournal journal = new SubmitJournal(path, 0)) {
+            journal.append("job-1", "queue-a", 1000L);
+            journal.append("job-2", "queue-b", 2000L);
+        }
+
+        try (SubmitJournal journal = new SubmitJournal(path, 0)) {
+            List<SubmitJournal.Entry> entries = journal.getEntries();
+
+            assertEquals(2, entries.size());
+            assertEquals("job-1", entries.get(0).jobIdentifier);
+            assertEquals("queue-b", entries.get(1).queueName);
+            assertEquals(2000L, entries.get(1).submittedAt);
+        }
+    }
+
+    @Test
+    public void compact_doneJobs_removedAfterReopen() throws IOException {
+        Path path = newJournal();
+        try (SubmitJournal journal = new SubmitJournal(path, 0)) {
+            journal.append("job-1", "queue", 1000L);
+            journal.append("job-2", "queue", 2000L);
+            journal.compact(List.of("job-1"));
+            journal.append("job-3", "queue", 3000L);
+        }
+
+        try (SubmitJournal journal = new SubmitJournal(path, 0)) {
+            List<SubmitJournal.Entry> entries = journal.getEntries();
+
+            assertEquals(2, entries.size());
+            assertEquals("job-2", entries.get(0).jobIdentifier);
+            assertEquals("job-3", entries.get(1).jobIdentifier);
+        }
+    }
+
+    @Test
+    public void open_partialLastLine_ignoredAndCutOff() throws IOException {
+        Path path = newJournal();
+        Files.write(path, "job-1\tqueue\t1000\njob-2\tqu".getBytes(StandardCharsets.UTF_8));
+
+        try (SubmitJournal journal = new SubmitJournal(path, 0)) {
+            assertEquals(1, journal.getEntries().size());
+            journal.append("job-3", "queue", 3000L);
+        }
+
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        assertEquals(List.of("job-1\tqueue\t1000", "job-3\tqueue\t3000"), lines);
+    }
+
+    @Test
+    public void claimCompaction_whileCompacting_false() throws IOException {
+        Path path = newJournal();
+        Files.write(path, new byte[0], StandardOpenOption.CREATE);
+        try (SubmitJournal journal = new SubmitJournal(path, 60000)) {
+            assertTrue(journal.claimCompaction());
+            assertFalse(journal.claimCompaction());
+            journal.compact(List.of());
+            // not due again until the interval has passed
+            assertFalse(journal.claimCompaction());
+        }
+    }
+
+    @Test
+    public void releaseCompaction_claimedAgainAfterInterval() throws IOException {
+        try (SubmitJournal journal = new SubmitJournal(newJournal(), 0)) {
+            assertTrue(journal.claimCompaction());
+            assertFalse(journal.claimCompaction());
+
+            journal.releaseCompaction();
+
+            assertTrue(journal.claimCompaction());
+        }
+    }
+
+    @Test
+    public void open_alreadyOpen_rejected() throws IOException {
+        Path path = newJournal();
+        try (SubmitJournal journal = new SubmitJournal(path, 0)) {
+            try {
+                new SubmitJournal(path, 0);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("already used"));
+            }
+            // the rejected journal did not take the lock over
+            journal.append("job-1", "queue", 1000L);
+        }
+
+        try (SubmitJournal journal = new SubmitJournal(path, 0)) {
+            assertEquals(1, journal.getEntries().size());
+        }
+    }
+
+    @Test
+    public void compact_appendAfterwards_appendedToCompactedJournal() throws IOException {
+        Path path = newJournal();
+        try (SubmitJournal journal = new SubmitJournal(path, 0)) {
+            journal.append("job-1", "queue", 1000L);
+            journal.compact(List.of("job-1"));
+            journal.append("job-2", "queue", 2000L);
+
+            assertEquals(List.of("job-2\tqueue\t2000"), Files.readAllLines(path, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void compact_afterClose_journalUnchanged() throws IOException {
+        Path path = newJournal();
+        SubmitJournal journal = new SubmitJournal(path, 0);
+        journal.append("job-1", "queue", 1000L);
+        assertTrue(journal.claimCompaction());
+        journal.close();
+
+        journal.compact(List.of("job-1"));
+
+        assertEquals(List.of("job-1\tqueue\t1000"), Files.readAllLines(path, StandardCharsets.UTF_8));
+        assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".tmp")));
+        assertEquals(1, journal.getEntries().size());
+    }
+}
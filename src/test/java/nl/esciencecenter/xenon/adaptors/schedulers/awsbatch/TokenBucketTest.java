@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.xenon.adaptors.schedulers.awsbatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void reserve_withinBurst_noWait() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+
+        bucket.reserve();
+        bucket.reserve();
+
+        assertEquals(0, bucket.reserve());
+    }
+
+    @Test
+    public void reserve_beyondBurst_waitsForRate() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+
+        bucket.reserve();
+        long first = bucket.reserve();
+        long second = bucket.reserve();
+
+        // 10 tokens per second, so 100ms and 200ms from now
+        assertTrue(first > 90_000_000L && first <= 100_000_000L);
+        assertTrue(second > 190_000_000L && second <= 200_000_000L);
+    }
+
+    @Test
+    public void delay_afterReservations_waitOfNextReservation() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+
+        bucket.reserve();
+        bucket.reserve();
+        long delay = bucket.delay();
+
+        // the next token is reserved for 200ms from now, and peeking does not take it
+        assertTrue(delay > 190_000_000L && delay <= 200_000_000L);
+        assertTrue(Math.abs(bucket.reserve() - delay) < 10_000_000L);
+    }
+
+    @Test
+    public void reserve_unlimited_noWait() {
+        TokenBucket bucket = new TokenBucket(0, 1);
+
+        bucket.reserve();
+
+        assertEquals(0, bucket.reserve());
+    }
+}